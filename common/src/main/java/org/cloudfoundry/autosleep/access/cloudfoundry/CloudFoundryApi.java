@@ -61,7 +61,9 @@ import reactor.core.publisher.Mono;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -115,6 +117,8 @@ public class CloudFoundryApi implements CloudFoundryApiService {
         }
     }
 
+    static final int CF_APP_NOT_FOUND = 100_004;
+
     static final int CF_INSTANCES_ERROR = 220_001;
 
     static final int CF_STAGING_NOT_FINISHED = 170_002;
@@ -294,6 +298,30 @@ public class CloudFoundryApi implements CloudFoundryApiService {
         }
     }
 
+    @Override
+    public Map<String, String> getApplicationStates(List<String> applicationUuids) throws CloudFoundryException {
+        log.debug("getApplicationStates - {} applications", applicationUuids.size());
+        try {
+            return Flux.fromIterable(applicationUuids)
+                    .flatMap(applicationUuid -> Mono.when(Mono.just(applicationUuid),
+                            cfClient.applicationsV2()
+                                    .get(GetApplicationRequest.builder()
+                                            .applicationId(applicationUuid)
+                                            .build())
+                                    //deleted applications are left out of the result
+                                    .otherwise(throwable -> throwable
+                                            instanceof org.cloudfoundry.client.v2.CloudFoundryException
+                                            && ((org.cloudfoundry.client.v2.CloudFoundryException) throwable)
+                                            .getCode() == CF_APP_NOT_FOUND
+                                            ? Mono.empty() : Mono.error(throwable))))
+                    .collect(HashMap<String, String>::new,
+                            (states, tuple) -> states.put(tuple.getT1(), tuple.getT2().getEntity().getState()))
+                    .get(Config.CF_API_TIMEOUT);
+        } catch (RuntimeException r) {
+            throw new CloudFoundryException(r);
+        }
+    }
+
     @Override
     public String getHost(String routeId) throws CloudFoundryException {
         try {
@@ -23,6 +23,7 @@ import org.cloudfoundry.autosleep.access.cloudfoundry.model.ApplicationActivity;
 import org.cloudfoundry.autosleep.access.cloudfoundry.model.ApplicationIdentity;
 
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 public interface CloudFoundryApiService {
@@ -35,6 +36,15 @@ public interface CloudFoundryApiService {
 
     String getApplicationState(String applicationUuid) throws CloudFoundryException;
 
+    /**
+     * Get the state of several applications with concurrent requests.
+     *
+     * @param applicationUuids applications to look up
+     * @return state by application id, applications that no longer exist are absent
+     * @throws CloudFoundryException if any other lookup failed
+     */
+    Map<String, String> getApplicationStates(List<String> applicationUuids) throws CloudFoundryException;
+
     String getHost(String routeId) throws CloudFoundryException;
 
     boolean isAppRunning(String appUid) throws CloudFoundryException;
@@ -0,0 +1,131 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of entities. Missing entities are not cached, and entries expire after a time to live so that
+ * changes made by another instance are eventually seen.
+ *
+ * @param <K> entity id type
+ * @param <V> entity type
+ */
+public class EntityCache<K, V> {
+
+    private static class Entry<V> {
+
+        private final long expiresAt;
+
+        private final V value;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isValid(long now) {
+            return expiresAt > now;
+        }
+
+    }
+
+    private final Clock clock;
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final Function<K, V> loader;
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final long timeToLive;
+
+    public EntityCache(Function<K, V> loader, Duration timeToLive) {
+        this(loader, timeToLive, Clock.systemUTC());
+    }
+
+    EntityCache(Function<K, V> loader, Duration timeToLive, Clock clock) {
+        this.loader = loader;
+        this.timeToLive = timeToLive.toMillis();
+        this.clock = clock;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public void evict(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Get an entity, loading it if not cached or expired.
+     * Loading is done while holding the entry, so that an eviction that happens meanwhile is not lost.
+     *
+     * @param key entity id
+     * @return the entity, or null if it does not exist
+     */
+    public V get(K key) {
+        long now = clock.millis();
+        Entry<V> cached = entries.get(key);
+        if (cached != null && cached.isValid(now)) {
+            hits.incrementAndGet();
+            return cached.value;
+        }
+        misses.incrementAndGet();
+        Entry<V> loaded = entries.compute(key, (id, current) -> {
+            if (current != null && current.isValid(now)) {
+                return current;
+            }
+            V value = loader.apply(id);
+            return value == null ? null : new Entry<>(value, now + timeToLive);
+        });
+        return loaded == null ? null : loaded.value;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void put(K key, V value) {
+        entries.put(key, new Entry<>(value, clock.millis() + timeToLive));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+}
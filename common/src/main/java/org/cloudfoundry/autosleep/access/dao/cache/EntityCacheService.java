@@ -0,0 +1,121 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeListener;
+import org.cloudfoundry.autosleep.access.dao.model.Binding;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent;
+import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
+import org.cloudfoundry.autosleep.access.dao.repositories.BindingRepository;
+import org.cloudfoundry.autosleep.access.dao.repositories.SpaceEnrollerConfigRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Caches service instances and bindings, which almost never change once created.
+ * Callers that modify or delete them must evict the matching entry. Returned entities are shared, do not modify them.
+ * Changes made by other processes are evicted as they are read from the change feed.
+ */
+@Service
+@Slf4j
+public class EntityCacheService implements ChangeListener, PublicMetrics {
+
+    private EntityCache<String, Binding> bindings;
+
+    @Autowired
+    private BindingRepository bindingRepository;
+
+    private EntityCache<String, SpaceEnrollerConfig> spaceEnrollerConfigs;
+
+    @Autowired
+    private SpaceEnrollerConfigRepository spaceEnrollerConfigRepository;
+
+    @Value("${autosleep.cache.ttl:PT5M}")
+    private String timeToLive;
+
+    private static void addMetrics(List<Metric<?>> metrics, String name, EntityCache<?, ?> cache) {
+        String prefix = "autosleep.cache." + name + ".";
+        metrics.add(new Metric<>(prefix + "hits", cache.getHits()));
+        metrics.add(new Metric<>(prefix + "misses", cache.getMisses()));
+        metrics.add(new Metric<>(prefix + "hit.ratio", cache.getHitRatio()));
+        metrics.add(new Metric<>(prefix + "size", cache.size()));
+    }
+
+    public void evictBinding(String bindingId) {
+        bindings.evict(bindingId);
+    }
+
+    public void evictSpaceEnrollerConfig(String spaceEnrollerConfigId) {
+        spaceEnrollerConfigs.evict(spaceEnrollerConfigId);
+    }
+
+    public Binding getBinding(String bindingId) {
+        return bindings.get(bindingId);
+    }
+
+    public SpaceEnrollerConfig getSpaceEnrollerConfig(String spaceEnrollerConfigId) {
+        return spaceEnrollerConfigs.get(spaceEnrollerConfigId);
+    }
+
+    @PostConstruct
+    public void init() {
+        Duration ttl = Duration.parse(timeToLive);
+        log.debug("Entity cache time to live: {}", ttl);
+        bindings = new EntityCache<>(bindingRepository::findOne, ttl);
+        spaceEnrollerConfigs = new EntityCache<>(spaceEnrollerConfigRepository::findOne, ttl);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> result = new ArrayList<>();
+        addMetrics(result, "binding", bindings);
+        addMetrics(result, "space.enroller.config", spaceEnrollerConfigs);
+        return result;
+    }
+
+    @Override
+    public void onChange(ChangeEvent event) {
+        switch (event.getEntityType()) {
+            case BINDING:
+                evictBinding(event.getEntityId());
+                break;
+            case SPACE_ENROLLER_CONFIG:
+                evictSpaceEnrollerConfig(event.getEntityId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void putBinding(Binding binding) {
+        bindings.put(binding.getServiceBindingId(), binding);
+    }
+
+}
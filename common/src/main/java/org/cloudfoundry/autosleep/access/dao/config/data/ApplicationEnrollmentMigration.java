@@ -0,0 +1,99 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.config.data;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.EnrollmentState.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * Fills the application_enrollment table from the serialized states column of the applications stored before it
+ * existed. Run once by liquibase.
+ */
+public class ApplicationEnrollmentMigration implements CustomTaskChange {
+
+    private int migrated;
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, State> deserialize(byte[] states) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(states))) {
+            return (Map<String, State>) input.readObject();
+        }
+    }
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        try (Statement select = connection.createStatement();
+             ResultSet applications = select.executeQuery("SELECT uuid, states FROM application_info");
+             PreparedStatement insert = connection.prepareStatement("INSERT INTO application_enrollment "
+                     + "(app_uuid, service_instance_id, state) VALUES (?, ?, ?)")) {
+            while (applications.next()) {
+                byte[] states = applications.getBytes("states");
+                if (states == null) {
+                    continue;
+                }
+                for (Map.Entry<String, State> state : deserialize(states).entrySet()) {
+                    insert.setString(1, applications.getString("uuid"));
+                    insert.setString(2, state.getKey());
+                    insert.setString(3, state.getValue().name());
+                    insert.addBatch();
+                    migrated++;
+                }
+            }
+            insert.executeBatch();
+        } catch (DatabaseException | SQLException | IOException | ClassNotFoundException e) {
+            throw new CustomChangeException("application enrollments not migrated", e);
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return migrated + " application enrollments migrated";
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public void setUp() {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        return new ValidationErrors();
+    }
+
+}
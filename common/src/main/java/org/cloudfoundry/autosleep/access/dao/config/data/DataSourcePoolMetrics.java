@@ -0,0 +1,79 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.config.data;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadata;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadataProvider;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadataProviders;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Publishes pool gauges (active, idle, max) and connection acquisition latency of the pooled data sources.
+ */
+@Component
+public class DataSourcePoolMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "autosleep.datasource.";
+
+    @Autowired
+    private PooledDataSourceFactory dataSourceFactory;
+
+    @Autowired(required = false)
+    private Collection<DataSourcePoolMetadataProvider> providers = Collections.emptyList();
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> result = new ArrayList<>();
+        DataSourcePoolMetadataProvider metadataProvider = new DataSourcePoolMetadataProviders(providers);
+        List<InstrumentedDataSource> dataSources = dataSourceFactory.getDataSources();
+        for (int i = 0; i < dataSources.size(); i++) {
+            String prefix = PREFIX + i + ".";
+            InstrumentedDataSource dataSource = dataSources.get(i);
+            result.add(new Metric<>(prefix + "acquisition.count", dataSource.getAcquisitions()));
+            result.add(new Metric<>(prefix + "acquisition.failures", dataSource.getAcquisitionFailures()));
+            result.add(new Metric<>(prefix + "acquisition.time.mean", dataSource.getMeanAcquisitionMillis()));
+            result.add(new Metric<>(prefix + "acquisition.time.max", dataSource.getMaxAcquisitionMillis()));
+            if (dataSource.getTargetDataSource() instanceof BasicDataSource) {
+                BasicDataSource pool = (BasicDataSource) dataSource.getTargetDataSource();
+                result.add(new Metric<>(prefix + "active", pool.getNumActive()));
+                result.add(new Metric<>(prefix + "idle", pool.getNumIdle()));
+                result.add(new Metric<>(prefix + "max", pool.getMaxActive()));
+            } else {
+                DataSourcePoolMetadata metadata = metadataProvider
+                        .getDataSourcePoolMetadata(dataSource.getTargetDataSource());
+                if (metadata != null && metadata.getActive() != null) {
+                    result.add(new Metric<>(prefix + "active", metadata.getActive()));
+                    result.add(new Metric<>(prefix + "max", metadata.getMax()));
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.config.data;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * Embedded H2 database stored on local disk, for single node deployments without a database service.
+ * The MVStore engine only appends to its file and keeps the last committed state readable, an interrupted process
+ * restarts from its last commits.
+ */
+@Configuration
+@Slf4j
+@Profile("h2-file")
+public class H2FileDataSourceConfig {
+
+    @Autowired
+    private PooledDataSourceFactory dataSourceFactory;
+
+    @Value("${autosleep.h2.file.path:./autosleep-data/autosleep}")
+    private String path;
+
+    @Value("${autosleep.h2.write.delay:PT0.5S}")
+    private String writeDelay;
+
+    @Bean
+    public DataSource dataSource() {
+        //closing is left to the pool on context shutdown, not to the JVM shutdown hook of H2
+        String url = "jdbc:h2:file:" + Paths.get(path).toAbsolutePath()
+                + ";MV_STORE=TRUE"
+                + ";WRITE_DELAY=" + Duration.parse(writeDelay).toMillis()
+                + ";DB_CLOSE_ON_EXIT=FALSE";
+        return dataSourceFactory.create("org.h2.Driver", url, "sa", "");
+    }
+
+    @PostConstruct
+    public void logProfile() {
+        log.warn("<<<<<<<<<<< loading H2 FILE persistence profile ({}) >>>>>>>>>>>>>>>>>>", path);
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.config.data;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long callers wait to get a connection from the pool it wraps.
+ */
+public class InstrumentedDataSource extends DelegatingDataSource {
+
+    private final AtomicLong acquisitionFailures = new AtomicLong();
+
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    private final AtomicLong maxAcquisitionNanos = new AtomicLong();
+
+    private final AtomicLong totalAcquisitionNanos = new AtomicLong();
+
+    public InstrumentedDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    public long getAcquisitionFailures() {
+        return acquisitionFailures.get();
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return measure(() -> super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return measure(() -> super.getConnection(username, password));
+    }
+
+    public double getMaxAcquisitionMillis() {
+        return maxAcquisitionNanos.get() / 1e6;
+    }
+
+    public double getMeanAcquisitionMillis() {
+        long count = acquisitions.get();
+        return count == 0 ? 0 : totalAcquisitionNanos.get() / 1e6 / count;
+    }
+
+    private Connection measure(ConnectionSupplier supplier) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = supplier.get();
+            long elapsed = System.nanoTime() - start;
+            acquisitions.incrementAndGet();
+            totalAcquisitionNanos.addAndGet(elapsed);
+            maxAcquisitionNanos.accumulateAndGet(elapsed, Math::max);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            acquisitionFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ConnectionSupplier {
+
+        Connection get() throws SQLException;
+
+    }
+
+}
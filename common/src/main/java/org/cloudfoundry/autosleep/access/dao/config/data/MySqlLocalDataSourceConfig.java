@@ -20,7 +20,7 @@
 package org.cloudfoundry.autosleep.access.dao.config.data;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.dbcp.BasicDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -39,6 +39,9 @@ public class MySqlLocalDataSourceConfig {
         log.warn("<<<<<<<<<<< loading MYSQL persistence profile >>>>>>>>>>>>>>>>>>");
     }
 
+    @Autowired
+    private PooledDataSourceFactory dataSourceFactory;
+
     @Value("${mysql.driver}")
     private String driver;
 
@@ -53,11 +56,6 @@ public class MySqlLocalDataSourceConfig {
 
     @Bean
     public DataSource dataSource() {
-        BasicDataSource dataSource = new BasicDataSource();
-        dataSource.setUrl(url);
-        dataSource.setDriverClassName(driver);
-        dataSource.setUsername(username);
-        dataSource.setPassword(password);
-        return dataSource;
+        return dataSourceFactory.routeReads(dataSourceFactory.create(driver, url, username, password));
     }
 }
@@ -0,0 +1,141 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.config.data;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.cloudfoundry.autosleep.config.Config;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.service.PooledServiceConnectorConfig.PoolConfig;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds the relational data sources, sizing their pool from <code>autosleep.datasource.pool.*</code> properties.
+ * When no maximum size is set, it is derived from the number of worker threads and the expected request concurrency.
+ */
+@Component
+@Slf4j
+public class PooledDataSourceFactory {
+
+    private static final int HEADROOM = 2;
+
+    private final List<InstrumentedDataSource> dataSources = Collections.synchronizedList(new ArrayList<>());
+
+    @Value("${autosleep.datasource.pool.max.active:0}")
+    private int maxActive;
+
+    @Value("${autosleep.datasource.pool.max.idle:-1}")
+    private int maxIdle;
+
+    @Value("${autosleep.datasource.pool.max.wait:PT10S}")
+    private String maxWait;
+
+    @Value("${autosleep.datasource.pool.min.idle:0}")
+    private int minIdle;
+
+    @Value("${autosleep.datasource.replica.driver:}")
+    private String replicaDriver;
+
+    @Value("${autosleep.datasource.replica.password:}")
+    private String replicaPassword;
+
+    @Value("${autosleep.datasource.replica.url:}")
+    private String replicaUrl;
+
+    @Value("${autosleep.datasource.replica.username:}")
+    private String replicaUsername;
+
+    @Value("${autosleep.datasource.pool.request.concurrency:4}")
+    private int requestConcurrency;
+
+    @Value("${autosleep.datasource.pool.validation.interval:PT1M}")
+    private String validationInterval;
+
+    @Value("${autosleep.datasource.pool.validation.query:SELECT 1}")
+    private String validationQuery;
+
+    public DataSource create(String driver, String url, String username, String password) {
+        BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setUrl(url);
+        dataSource.setDriverClassName(driver);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setMaxActive(getMaxActive());
+        dataSource.setMaxIdle(getMaxIdle());
+        dataSource.setMinIdle(minIdle);
+        dataSource.setMaxWait(Duration.parse(maxWait).toMillis());
+        if (!validationQuery.isEmpty()) {
+            dataSource.setValidationQuery(validationQuery);
+            dataSource.setTestOnBorrow(true);
+            dataSource.setTestWhileIdle(true);
+            dataSource.setTimeBetweenEvictionRunsMillis(Duration.parse(validationInterval).toMillis());
+        }
+        log.info("Connection pool for {}: max active {}, max idle {}, min idle {}, max wait {}", url,
+                dataSource.getMaxActive(), dataSource.getMaxIdle(), minIdle, maxWait);
+        return instrument(dataSource);
+    }
+
+    public List<InstrumentedDataSource> getDataSources() {
+        return Collections.unmodifiableList(dataSources);
+    }
+
+    public int getMaxActive() {
+        return maxActive > 0 ? maxActive : Config.NB_THREAD_FOR_TASK + Config.NB_THREAD_FOR_MAINTENANCE
+                + Config.NB_THREAD_FOR_LEASE_HEARTBEAT + requestConcurrency + HEADROOM;
+    }
+
+    private int getMaxIdle() {
+        return maxIdle >= 0 ? maxIdle : getMaxActive();
+    }
+
+    public DataSource instrument(DataSource dataSource) {
+        InstrumentedDataSource result = new InstrumentedDataSource(dataSource);
+        dataSources.add(result);
+        return result;
+    }
+
+    public PoolConfig poolConfig() {
+        return new PoolConfig(minIdle, getMaxActive(), (int) Duration.parse(maxWait).toMillis());
+    }
+
+    /**
+     * Route the read-only transactions of dashboard and API requests to the replica, if one is configured.
+     *
+     * @param primary data source receiving writes
+     * @return the primary when no replica is configured, a routing data source otherwise
+     */
+    public DataSource routeReads(DataSource primary) {
+        if (replicaUrl.isEmpty()) {
+            return primary;
+        }
+        log.info("Read-only API queries sent to replica {}", replicaUrl);
+        DataSource replica = create(replicaDriver.isEmpty() ? null : replicaDriver, replicaUrl, replicaUsername,
+                replicaPassword);
+        return new LazyConnectionDataSourceProxy(new ReadReplicaRoutingDataSource(primary, replica));
+    }
+
+}
@@ -1,7 +1,7 @@
 package org.cloudfoundry.autosleep.access.dao.config.data;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.dbcp.BasicDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -20,6 +20,9 @@ public class PostgreSqlLocalDataSourceConfig {
         log.warn("<<<<<<<<<<< loading POSTGRESQL persistence profile >>>>>>>>>>>>>>>>>>");
     }
 
+    @Autowired
+    private PooledDataSourceFactory dataSourceFactory;
+
     @Value("${postgresql.driver}")
     private String driver;
 
@@ -34,12 +37,6 @@ public class PostgreSqlLocalDataSourceConfig {
 
     @Bean
     public DataSource dataSource() {
-        BasicDataSource dataSource = new BasicDataSource();
-        dataSource.setUrl(url);
-        dataSource.setDriverClassName(driver);
-        dataSource.setUsername(username);
-        dataSource.setPassword(password);
-        
-        return dataSource;
+        return dataSourceFactory.routeReads(dataSourceFactory.create(driver, url, username, password));
     }
 }
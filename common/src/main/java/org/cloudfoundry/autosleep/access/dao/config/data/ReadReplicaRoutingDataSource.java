@@ -0,0 +1,85 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.config.data;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Sends the read-only transactions of threads serving replica reads to a replica, everything else to the primary.
+ * Workers and broker never opt in, so they always see their own writes. Must be wrapped in a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, the read-only flag of a transaction being
+ * only known once it has begun.
+ */
+public class ReadReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    enum Target {
+        PRIMARY,
+        REPLICA
+    }
+
+    private static final ThreadLocal<Boolean> replicaReads = new ThreadLocal<>();
+
+    public ReadReplicaRoutingDataSource(DataSource primary, DataSource replica) {
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(Target.PRIMARY, primary);
+        targets.put(Target.REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    public static void endReplicaReads() {
+        replicaReads.remove();
+    }
+
+    public static void startReplicaReads() {
+        replicaReads.set(Boolean.TRUE);
+    }
+
+    /**
+     * Run a task allowing its read-only transactions to go to the replica.
+     *
+     * @param task task to run
+     * @param <T>  result type
+     * @return result of the task
+     */
+    public static <T> T withReplicaReads(Supplier<T> task) {
+        startReplicaReads();
+        try {
+            return task.get();
+        } finally {
+            endReplicaReads();
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        boolean replica = Boolean.TRUE.equals(replicaReads.get())
+                && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        return replica ? Target.REPLICA : Target.PRIMARY;
+    }
+
+}
@@ -19,7 +19,9 @@
 
 package org.cloudfoundry.autosleep.access.dao.config.data;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.config.java.AbstractCloudConfig;
+import org.springframework.cloud.service.relational.DataSourceConfig;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
@@ -31,9 +33,13 @@ import javax.sql.DataSource;
 /** could also work for postgres-cloud or oracle-cloud profiles. **/
 public class RelationalCloudDataSourceConfig extends AbstractCloudConfig {
 
+    @Autowired
+    private PooledDataSourceFactory dataSourceFactory;
+
     @Bean
     public DataSource dataSource() {
-        return connectionFactory().dataSource();
+        return dataSourceFactory.routeReads(dataSourceFactory.instrument(connectionFactory()
+                .dataSource(new DataSourceConfig(dataSourceFactory.poolConfig(), null))));
     }
 
 }
@@ -0,0 +1,220 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.feed;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
+import org.cloudfoundry.autosleep.access.dao.repositories.ChangeEventRepository;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only log of the changes made to entities that several processes read (bindings, service instances, proxy
+ * map entries). Every process polls the entries appended since its cursor and notifies its {@link ChangeListener}s,
+ * so that local caches are refreshed incrementally.
+ * Ids are allocated before commit, an entry may become visible after a greater one: entries are only delivered, once
+ * each, when older than the settle delay, and the cursor stops before the first more recent one.
+ */
+@Service
+@Slf4j
+public class ChangeFeed {
+
+    @Value("${autosleep.change.feed.batch.size:500}")
+    private int batchSize;
+
+    @Autowired
+    private ChangeEventRepository changeEventRepository;
+
+    private long cursor;
+
+    @Value("${autosleep.change.feed.enabled:true}")
+    private boolean enabled;
+
+    private long lastAnnounce;
+
+    private long lastPurge;
+
+    @Autowired(required = false)
+    private List<ChangeListener> listeners = Collections.emptyList();
+
+    private final String origin = UUID.randomUUID().toString();
+
+    private final Set<EntityType> published = ConcurrentHashMap.newKeySet();
+
+    @Value("${autosleep.change.feed.poll.period:PT2S}")
+    private String pollPeriod;
+
+    @Value("${autosleep.change.feed.retention:PT1H}")
+    private String retention;
+
+    @Value("${autosleep.change.feed.settle.delay:PT5S}")
+    private String settleDelay;
+
+    @Autowired
+    private TimeManager timeManager;
+
+    private void announce(long now, long retentionMillis) {
+        if (!published.isEmpty() && now - lastAnnounce > retentionMillis / 2) {
+            lastAnnounce = now;
+            published.forEach(entityType -> publish(entityType, origin, Operation.ANNOUNCE));
+        }
+    }
+
+    /**
+     * Declare that this process publishes every change of the given type. The declaration is appended to the feed
+     * and renewed within the retention, readers check it with {@link #hasPublisherOf(EntityType)} before relying on
+     * the feed alone.
+     *
+     * @param entityType type of the entities whose changes this process publishes
+     */
+    public void announcePublisherOf(EntityType entityType) {
+        if (enabled) {
+            published.add(entityType);
+        }
+    }
+
+    /**
+     * @param entityType type of the entities
+     * @return true if the feed is enabled and a process announced that it publishes the changes of this type within
+     * the retention
+     */
+    public boolean hasPublisherOf(EntityType entityType) {
+        if (!enabled) {
+            return false;
+        }
+        try {
+            return changeEventRepository.countByEntityTypeAndOperation(entityType, Operation.ANNOUNCE) > 0;
+        } catch (RuntimeException r) {
+            log.error("hasPublisherOf - failed to look for publishers of {}", entityType, r);
+            return false;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            //nothing cached yet, earlier changes are irrelevant
+            ChangeEvent last = changeEventRepository.findFirstByOrderByIdDesc();
+            cursor = last == null ? 0 : last.getId();
+            log.debug("Change feed {} starting after entry {}", origin, cursor);
+            schedule(Duration.parse(pollPeriod));
+        }
+    }
+
+    private void notifyListeners(ChangeEvent event) {
+        listeners.forEach(listener -> {
+            try {
+                listener.onChange(event);
+            } catch (RuntimeException r) {
+                log.error("notify - {} failed on {}", listener, event, r);
+            }
+        });
+    }
+
+    /**
+     * Read entries appended by other processes since the last poll, and drop entries older than the retention. Only
+     * entries older than the settle delay are delivered, once each: no entry with a lower id can be committed after
+     * them.
+     */
+    public void poll() {
+        long now = Instant.now().toEpochMilli();
+        long settledBefore = now - Duration.parse(settleDelay).toMillis();
+        try {
+            boolean settled = true;
+            List<ChangeEvent> events;
+            do {
+                events = changeEventRepository.findByIdGreaterThanOrderByIdAsc(cursor,
+                        new PageRequest(0, batchSize));
+                for (ChangeEvent event : events) {
+                    //a later entry may still be committed before this one, it is read again by the next polls
+                    if (event.getCreatedAt() >= settledBefore) {
+                        settled = false;
+                        break;
+                    }
+                    if (!origin.equals(event.getOrigin()) && event.getOperation() != Operation.ANNOUNCE) {
+                        notifyListeners(event);
+                    }
+                    cursor = event.getId();
+                }
+            } while (settled && events.size() == batchSize);
+            long retentionMillis = Duration.parse(retention).toMillis();
+            announce(now, retentionMillis);
+            if (now - lastPurge > retentionMillis) {
+                lastPurge = now;
+                int purged = changeEventRepository.deleteOlderThan(now - retentionMillis);
+                log.debug("poll - {} change feed entries purged", purged);
+            }
+        } catch (RuntimeException r) {
+            log.error("poll - failed", r);
+        }
+    }
+
+    /**
+     * Append a change. Failures are only logged, readers fall back on their cache expiry; callers that cannot rely on
+     * it check the result.
+     *
+     * @param entityType type of the entity changed
+     * @param entityId   id of the entity changed
+     * @param operation  whether it was saved or deleted
+     * @return false if the change could not be appended
+     */
+    public boolean publish(EntityType entityType, String entityId, Operation operation) {
+        if (enabled) {
+            try {
+                changeEventRepository.save(ChangeEvent.builder()
+                        .createdAt(Instant.now().toEpochMilli())
+                        .entityId(entityId)
+                        .entityType(entityType)
+                        .operation(operation)
+                        .origin(origin)
+                        .build());
+            } catch (RuntimeException r) {
+                log.error("publish - failed to append {} {} of {}", operation, entityType, entityId, r);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void schedule(Duration period) {
+        timeManager.scheduleMaintenance(() -> {
+            try {
+                poll();
+            } finally {
+                schedule(period);
+            }
+        }, period);
+    }
+
+}
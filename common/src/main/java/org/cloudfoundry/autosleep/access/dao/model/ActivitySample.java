@@ -0,0 +1,129 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Transient;
+import java.time.Duration;
+
+/**
+ * Number of checks of an application, and how many of them found it active, over a period. Raw samples (one per
+ * check) are compacted into hourly then daily buckets.
+ */
+@Getter
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+@EqualsAndHashCode(of = "id")
+@ToString(of = {"appUuid", "resolution", "periodStart", "samples", "activeSamples"})
+@Entity
+public class ActivitySample implements Persistable<String> {
+
+    public enum Resolution {
+        RAW(Duration.ofMillis(1)),
+        HOURLY(Duration.ofHours(1)),
+        DAILY(Duration.ofDays(1));
+
+        private final long periodMillis;
+
+        Resolution(Duration period) {
+            this.periodMillis = period.toMillis();
+        }
+
+        public long truncate(long epochMillis) {
+            return epochMillis - epochMillis % periodMillis;
+        }
+    }
+
+    @JsonProperty
+    private int activeSamples;
+
+    @JsonIgnore
+    @Column(length = 40)
+    private String appUuid;
+
+    @Id
+    @JsonIgnore
+    private String id;
+
+    @Transient
+    @Getter(AccessLevel.NONE)
+    private boolean newSample = true;
+
+    @JsonProperty
+    private long periodStart;
+
+    @JsonProperty
+    @Enumerated(EnumType.STRING)
+    @Column(length = 10)
+    private Resolution resolution;
+
+    @JsonProperty
+    private int samples;
+
+    @Builder
+    ActivitySample(String appUuid, Resolution resolution, long periodStart, int samples, int activeSamples) {
+        this.appUuid = appUuid;
+        this.resolution = resolution;
+        this.periodStart = resolution.truncate(periodStart);
+        this.samples = samples;
+        this.activeSamples = activeSamples;
+        this.id = buildId(appUuid, resolution, this.periodStart);
+    }
+
+    public static String buildId(String appUuid, Resolution resolution, long periodStart) {
+        return appUuid + ":" + resolution + ":" + periodStart;
+    }
+
+    public void add(ActivitySample other) {
+        samples += other.samples;
+        activeSamples += other.activeSamples;
+    }
+
+    /**
+     * Ids are assigned, tell spring data whether to insert or merge instead of letting it query first.
+     */
+    @Override
+    @JsonIgnore
+    public boolean isNew() {
+        return newSample;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markStored() {
+        newSample = false;
+    }
+
+}
@@ -35,21 +35,32 @@ import org.apache.commons.lang3.StringUtils;
 import org.cloudfoundry.autosleep.config.Config.CloudFoundryAppState;
 import org.cloudfoundry.autosleep.util.serializer.InstantDeserializer;
 import org.cloudfoundry.autosleep.util.serializer.InstantSerializer;
+import org.hibernate.annotations.DynamicUpdate;
 
+import javax.persistence.CollectionTable;
 import javax.persistence.Column;
+import javax.persistence.ElementCollection;
 import javax.persistence.Embeddable;
 import javax.persistence.Embedded;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
 import javax.persistence.Id;
+import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
+import javax.persistence.MapKeyColumn;
+import javax.persistence.Version;
 
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.Map;
 
 @Getter
 @Slf4j
 @Entity
-@EqualsAndHashCode
+@DynamicUpdate
+@EqualsAndHashCode(exclude = "version")
 @ToString(of = {"uuid", "name", "diagnosticInfo"})
 public class ApplicationInfo {
 
@@ -199,7 +210,7 @@ public class ApplicationInfo {
     @Getter
     @Slf4j
     @Embeddable
-    @EqualsAndHashCode
+    @EqualsAndHashCode(exclude = "serviceStates")
     public static class EnrollmentState {
 
         public enum State {
@@ -215,16 +226,37 @@ public class ApplicationInfo {
 
         }
 
+        /**
+         * Incremented on each enrollment change. Unlike the entity version, diagnostic writes leave it untouched.
+         */
+        @JsonIgnore
+        private long revision;
+
+        /**
+         * Copy of the states, one row per service instance, so that queries filter on them without deserializing the
+         * states column.
+         */
+        @ElementCollection(fetch = FetchType.EAGER)
+        @CollectionTable(name = "application_enrollment", joinColumns = @JoinColumn(name = "app_uuid"))
+        @MapKeyColumn(name = "service_instance_id")
+        @Column(name = "state", length = 20)
+        @Enumerated(EnumType.STRING)
+        @JsonIgnore
+        private Map<String /**serviceId.**/, EnrollmentState.State> serviceStates;
+
         @Lob
         @Column(length = 300) //to force BLOB type and not TINYBLOB
         private HashMap<String /**serviceId.**/, EnrollmentState.State> states;
 
         private EnrollmentState() {
+            serviceStates = new HashMap<>();
             states = new HashMap<>();
         }
 
         public void addEnrollmentState(String serviceId) {
             states.put(serviceId, EnrollmentState.State.ENROLLED);
+            serviceStates.put(serviceId, EnrollmentState.State.ENROLLED);
+            revision++;
         }
 
         public boolean isCandidate(String serviceInstanceId) {
@@ -244,9 +276,12 @@ public class ApplicationInfo {
         public void updateEnrollment(String serviceId, boolean addToBlackList) {
             if (addToBlackList) {
                 states.put(serviceId, EnrollmentState.State.BLACKLISTED);
+                serviceStates.put(serviceId, EnrollmentState.State.BLACKLISTED);
             } else {
                 states.remove(serviceId);
+                serviceStates.remove(serviceId);
             }
+            revision++;
         }
 
     }
@@ -265,6 +300,13 @@ public class ApplicationInfo {
     @Column(length = 40)
     private String uuid;
 
+    /**
+     * Incremented on each write, a stale copy cannot overwrite a concurrent update.
+     */
+    @Version
+    @JsonIgnore
+    private long version;
+
     private ApplicationInfo() {
         this.diagnosticInfo = new DiagnosticInfo();
         this.enrollmentState = new EnrollmentState();
@@ -287,6 +329,16 @@ public class ApplicationInfo {
         this.diagnosticInfo.appState = null;
     }
 
+    /**
+     * Take diagnostic information (and name) from another instance of the same application.
+     *
+     * @param source application holding the most recent diagnostic information
+     */
+    public void copyDiagnosticInfo(ApplicationInfo source) {
+        this.diagnosticInfo = source.diagnosticInfo;
+        this.name = source.name;
+    }
+
     public void markAsChecked(Instant next) {
         this.diagnosticInfo.lastCheck = Instant.now();
         this.diagnosticInfo.nextCheck = next;
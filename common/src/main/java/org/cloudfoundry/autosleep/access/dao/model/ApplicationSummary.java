@@ -0,0 +1,117 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.model;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.DiagnosticInfo;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.DiagnosticInfo.ApplicationEvent;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.DiagnosticInfo.ApplicationLog;
+import org.cloudfoundry.autosleep.util.serializer.InstantSerializer;
+
+import java.time.Instant;
+
+/**
+ * Read model of an application, as listed by the API and dashboard. Built by repository projections so that
+ * enrollment states are not loaded.
+ */
+@Getter
+@ToString(of = {"uuid", "name", "watched"})
+public class ApplicationSummary {
+
+    @Getter
+    public static class Diagnostic {
+
+        private final String appState;
+
+        @JsonSerialize(using = InstantSerializer.class)
+        private final Instant lastCheck;
+
+        private ApplicationEvent lastEvent;
+
+        private ApplicationLog lastLog;
+
+        @JsonSerialize(using = InstantSerializer.class)
+        private final Instant nextCheck;
+
+        Diagnostic(String appState, Instant lastCheck, ApplicationEvent lastEvent, ApplicationLog lastLog,
+                   Instant nextCheck) {
+            this.appState = appState;
+            this.lastCheck = lastCheck;
+            this.lastEvent = lastEvent;
+            this.lastLog = lastLog;
+            this.nextCheck = nextCheck;
+        }
+
+    }
+
+    private final Diagnostic diagnosticInfo;
+
+    private final String name;
+
+    private final String uuid;
+
+    @Setter
+    private boolean watched;
+
+    /**
+     * Projection constructor, see {@link org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository}.
+     */
+    public ApplicationSummary(String uuid, String name, String appState, Instant lastCheck, Instant nextCheck,
+                              String logMessage, String logMessageType, String logSourceId, String logSourceName,
+                              Instant logTime,
+                              String eventActee, String eventActor, String eventName, Instant eventTime,
+                              String eventType) {
+        this.uuid = uuid;
+        this.name = name;
+        ApplicationLog lastLog = logTime == null ? null : ApplicationLog.builder()
+                .message(logMessage)
+                .messageType(logMessageType)
+                .sourceId(logSourceId)
+                .sourceName(logSourceName)
+                .timestamp(logTime.toEpochMilli())
+                .build();
+        ApplicationEvent lastEvent = eventTime == null ? null : ApplicationEvent.builder()
+                .actee(eventActee)
+                .actor(eventActor)
+                .name(eventName)
+                .timestamp(eventTime.toEpochMilli())
+                .type(eventType)
+                .build();
+        this.diagnosticInfo = new Diagnostic(appState, lastCheck, lastEvent, lastLog, nextCheck);
+    }
+
+    public ApplicationSummary(ApplicationInfo applicationInfo) {
+        DiagnosticInfo diagnosticInfo = applicationInfo.getDiagnosticInfo();
+        this.uuid = applicationInfo.getUuid();
+        this.name = applicationInfo.getName();
+        this.watched = applicationInfo.getEnrollmentState().isWatched();
+        this.diagnosticInfo = new Diagnostic(diagnosticInfo.getAppState(), diagnosticInfo.getLastCheck(),
+                diagnosticInfo.getLastEvent(), diagnosticInfo.getLastLog(), diagnosticInfo.getNextCheck());
+    }
+
+    public void hideLogAndEvent() {
+        diagnosticInfo.lastEvent = null;
+        diagnosticInfo.lastLog = null;
+    }
+
+}
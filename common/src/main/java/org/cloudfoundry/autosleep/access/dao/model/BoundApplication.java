@@ -0,0 +1,52 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.model;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Instant;
+
+/**
+ * Application binding together with its service instance and the next check persisted for the application, as needed
+ * to restart watching it. Built by a repository projection, see
+ * {@link org.cloudfoundry.autosleep.access.dao.repositories.BindingRepository}.
+ */
+@Getter
+@ToString(of = {"applicationId", "bindingId", "nextCheck"})
+public class BoundApplication {
+
+    private final String applicationId;
+
+    private final String bindingId;
+
+    private final Instant nextCheck;
+
+    private final SpaceEnrollerConfig spaceEnrollerConfig;
+
+    public BoundApplication(String bindingId, String applicationId, SpaceEnrollerConfig spaceEnrollerConfig,
+                            Instant nextCheck) {
+        this.applicationId = applicationId;
+        this.bindingId = bindingId;
+        this.nextCheck = nextCheck;
+        this.spaceEnrollerConfig = spaceEnrollerConfig;
+    }
+
+}
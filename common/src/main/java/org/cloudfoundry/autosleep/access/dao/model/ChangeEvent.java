@@ -0,0 +1,91 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.model;
+
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+/**
+ * Entry of the change feed: an entity shared between processes was saved or deleted. Entries are only appended, and
+ * read in id order by the other processes to refresh what they cached.
+ */
+@Getter
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+@EqualsAndHashCode(of = "id")
+@ToString
+@Entity
+public class ChangeEvent {
+
+    public enum EntityType {
+        BINDING,
+        PROXY_MAP_ENTRY,
+        SPACE_ENROLLER_CONFIG
+    }
+
+    public enum Operation {
+        ANNOUNCE,
+        DELETE,
+        SAVE
+    }
+
+    private long createdAt;
+
+    private String entityId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 30)
+    private EntityType entityType;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 10)
+    private Operation operation;
+
+    /**
+     * Process that made the change, which has no need to read it back.
+     */
+    @Column(length = 40)
+    private String origin;
+
+    @Builder
+    ChangeEvent(long createdAt, String entityId, EntityType entityType, Operation operation, String origin) {
+        this.createdAt = createdAt;
+        this.entityId = entityId;
+        this.entityType = entityType;
+        this.operation = operation;
+        this.origin = origin;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.model;
+
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Transient;
+
+/**
+ * Lock shared by autosleep instances through the database. It is held by its owner until it expires, unless renewed.
+ * The token is incremented each time the lease changes hands, so that a previous owner can tell it lost it.
+ */
+@Getter
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+@EqualsAndHashCode(of = "name")
+@ToString(exclude = "newLease")
+@Entity
+public class Lease implements Persistable<String> {
+
+    private long expiresAt;
+
+    @Id
+    private String name;
+
+    @Transient
+    @Getter(AccessLevel.NONE)
+    private boolean newLease = true;
+
+    /**
+     * Instance holding the lease, null once released.
+     */
+    @Column(length = 40)
+    private String owner;
+
+    private long token;
+
+    @Builder
+    Lease(String name, String owner, long expiresAt, long token) {
+        this.name = name;
+        this.owner = owner;
+        this.expiresAt = expiresAt;
+        this.token = token;
+    }
+
+    @Override
+    public String getId() {
+        return name;
+    }
+
+    /**
+     * Names are assigned, a lease is only ever inserted once; it is then taken over through update queries.
+     */
+    @Override
+    public boolean isNew() {
+        return newLease;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markStored() {
+        newLease = false;
+    }
+
+}
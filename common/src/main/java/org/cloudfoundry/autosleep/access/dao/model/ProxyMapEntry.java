@@ -21,7 +21,6 @@ package org.cloudfoundry.autosleep.access.dao.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AccessLevel;
-import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -33,12 +32,12 @@ import lombok.extern.slf4j.Slf4j;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 
+import java.time.Instant;
+
 @Getter
 @Setter
 @Slf4j
-@Builder
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
-@AllArgsConstructor(access = AccessLevel.PUBLIC)
 @ToString
 @EqualsAndHashCode(of = "host")
 @Entity
@@ -50,5 +49,24 @@ public class ProxyMapEntry {
 
     @JsonProperty
     private String appId;
-    
+
+    /**
+     * Epoch millis of the creation of the entry, when the application was put to sleep.
+     */
+    private long createdAt;
+
+    /**
+     * Epoch millis of the last time the application was found still stopped. Entries not verified for a while are
+     * checked again against cloudfoundry, and removed if the application was restarted or deleted.
+     */
+    private long lastVerified;
+
+    @Builder
+    public ProxyMapEntry(String host, String appId) {
+        this.host = host;
+        this.appId = appId;
+        this.createdAt = Instant.now().toEpochMilli();
+        this.lastVerified = this.createdAt;
+    }
+
 }
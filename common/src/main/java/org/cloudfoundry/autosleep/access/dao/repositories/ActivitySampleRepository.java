@@ -0,0 +1,44 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.repositories;
+
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample;
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample.Resolution;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface ActivitySampleRepository extends JpaRepository<ActivitySample, String> {
+
+    @Modifying
+    @Transactional
+    @Query("delete from ActivitySample s where s.resolution = :resolution and s.periodStart < :before")
+    int deleteOlderThan(@Param("resolution") Resolution resolution, @Param("before") long before);
+
+    List<ActivitySample> findByAppUuidOrderByPeriodStartAsc(String appUuid);
+
+    List<ActivitySample> findByResolutionAndPeriodStartLessThan(Resolution resolution, long before, Pageable page);
+
+}
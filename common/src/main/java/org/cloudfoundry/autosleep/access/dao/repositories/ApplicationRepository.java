@@ -20,14 +20,130 @@
 package org.cloudfoundry.autosleep.access.dao.repositories;
 
 import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.DiagnosticInfo;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.DiagnosticInfo.ApplicationEvent;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.DiagnosticInfo.ApplicationLog;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.EnrollmentState;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationSummary;
+import org.cloudfoundry.autosleep.access.dao.model.Binding.ResourceType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 
 public interface ApplicationRepository extends JpaRepository<ApplicationInfo, String> {
 
+    String SELECT_SUMMARY = "select new org.cloudfoundry.autosleep.access.dao.model.ApplicationSummary("
+            + "a.uuid, a.name, a.diagnosticInfo.appState, a.diagnosticInfo.lastCheck, a.diagnosticInfo.nextCheck, "
+            + "a.diagnosticInfo.lastLog.message, a.diagnosticInfo.lastLog.messageType, "
+            + "a.diagnosticInfo.lastLog.sourceId, a.diagnosticInfo.lastLog.sourceName, "
+            + "a.diagnosticInfo.lastLog.timestamp, "
+            + "a.diagnosticInfo.lastEvent.actee, a.diagnosticInfo.lastEvent.actor, "
+            + "a.diagnosticInfo.lastEvent.name, a.diagnosticInfo.lastEvent.timestamp, "
+            + "a.diagnosticInfo.lastEvent.type) ";
+
+    String NOT_BOUND_TO = "a.uuid not in (select b.resourceId from Binding b "
+            + "where b.serviceInstanceId = :serviceInstanceId and b.resourceType = :type)";
+
     @Query("select count(a) from ApplicationInfo a where a.uuid in (:ids)")
     Long countByApplicationIds(@Param("ids") List<String> ids);
+
+    /**
+     * Summaries of the applications that the service instance knows (enrolled or blacklisted), without being bound
+     * to them: the ones that opted out of it.
+     */
+    @Query(SELECT_SUMMARY + "from ApplicationInfo a join a.enrollmentState.serviceStates s "
+            + "where key(s) = :serviceInstanceId and " + NOT_BOUND_TO)
+    List<ApplicationSummary> findSummariesOptedOutOf(@Param("serviceInstanceId") String serviceInstanceId,
+                                                     @Param("type") ResourceType type);
+
+    @Query(SELECT_SUMMARY + "from ApplicationInfo a")
+    List<ApplicationSummary> findSummaries();
+
+    /**
+     * Ids of the applications that opted out of the service instance, and are enrolled by another one.
+     */
+    @Query("select distinct a.uuid from ApplicationInfo a join a.enrollmentState.serviceStates s "
+            + "join a.enrollmentState.serviceStates w "
+            + "where key(s) = :serviceInstanceId and value(w) = :state and " + NOT_BOUND_TO)
+    List<String> findIdsOptedOutOf(@Param("serviceInstanceId") String serviceInstanceId,
+                                   @Param("type") ResourceType type,
+                                   @Param("state") EnrollmentState.State watchedState);
+
+    default List<String> findWatchedIdsOptedOutOf(String serviceInstanceId, ResourceType type) {
+        return findIdsOptedOutOf(serviceInstanceId, type, EnrollmentState.State.ENROLLED);
+    }
+
+    @Query(SELECT_SUMMARY + "from ApplicationInfo a, Binding b where b.resourceId = a.uuid "
+            + "and b.serviceInstanceId = :serviceInstanceId and b.resourceType = :type")
+    List<ApplicationSummary> findSummariesBoundTo(@Param("serviceInstanceId") String serviceInstanceId,
+                                                  @Param("type") ResourceType type);
+
+    @Modifying
+    @Transactional
+    @Query("update ApplicationInfo a set a.name = :name, "
+            + "a.diagnosticInfo.appState = :appState, "
+            + "a.diagnosticInfo.lastCheck = :lastCheck, "
+            + "a.diagnosticInfo.nextCheck = :nextCheck, "
+            + "a.diagnosticInfo.lastLog.message = :logMessage, "
+            + "a.diagnosticInfo.lastLog.messageType = :logMessageType, "
+            + "a.diagnosticInfo.lastLog.sourceId = :logSourceId, "
+            + "a.diagnosticInfo.lastLog.sourceName = :logSourceName, "
+            + "a.diagnosticInfo.lastLog.timestamp = :logTime, "
+            + "a.diagnosticInfo.lastEvent.actee = :eventActee, "
+            + "a.diagnosticInfo.lastEvent.actor = :eventActor, "
+            + "a.diagnosticInfo.lastEvent.name = :eventName, "
+            + "a.diagnosticInfo.lastEvent.timestamp = :eventTime, "
+            + "a.diagnosticInfo.lastEvent.type = :eventType, "
+            + "a.version = a.version + 1 "
+            + "where a.uuid = :uuid")
+    int updateDiagnosticColumns(@Param("uuid") String uuid,
+                                @Param("name") String name,
+                                @Param("appState") String appState,
+                                @Param("lastCheck") Instant lastCheck,
+                                @Param("nextCheck") Instant nextCheck,
+                                @Param("logMessage") String logMessage,
+                                @Param("logMessageType") String logMessageType,
+                                @Param("logSourceId") String logSourceId,
+                                @Param("logSourceName") String logSourceName,
+                                @Param("logTime") Instant logTime,
+                                @Param("eventActee") String eventActee,
+                                @Param("eventActor") String eventActor,
+                                @Param("eventName") String eventName,
+                                @Param("eventTime") Instant eventTime,
+                                @Param("eventType") String eventType);
+
+    /**
+     * Write the name and diagnostic columns of an application, leaving enrollment state untouched.
+     * The version is incremented, so that an enrollment update made on an older copy is retried.
+     *
+     * @param applicationInfo application holding the diagnostic to write
+     * @return the number of updated rows (0 if the application was deleted in the meantime)
+     */
+    default int updateDiagnosticInfo(ApplicationInfo applicationInfo) {
+        DiagnosticInfo diagnosticInfo = applicationInfo.getDiagnosticInfo();
+        Optional<ApplicationLog> lastLog = Optional.ofNullable(diagnosticInfo.getLastLog());
+        Optional<ApplicationEvent> lastEvent = Optional.ofNullable(diagnosticInfo.getLastEvent());
+        return updateDiagnosticColumns(applicationInfo.getUuid(),
+                applicationInfo.getName(),
+                diagnosticInfo.getAppState(),
+                diagnosticInfo.getLastCheck(),
+                diagnosticInfo.getNextCheck(),
+                lastLog.map(ApplicationLog::getMessage).orElse(null),
+                lastLog.map(ApplicationLog::getMessageType).orElse(null),
+                lastLog.map(ApplicationLog::getSourceId).orElse(null),
+                lastLog.map(ApplicationLog::getSourceName).orElse(null),
+                lastLog.map(ApplicationLog::getTimestamp).orElse(null),
+                lastEvent.map(ApplicationEvent::getActee).orElse(null),
+                lastEvent.map(ApplicationEvent::getActor).orElse(null),
+                lastEvent.map(ApplicationEvent::getName).orElse(null),
+                lastEvent.map(ApplicationEvent::getTimestamp).orElse(null),
+                lastEvent.map(ApplicationEvent::getType).orElse(null));
+    }
+
 }
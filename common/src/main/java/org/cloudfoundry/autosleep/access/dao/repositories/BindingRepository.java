@@ -21,6 +21,7 @@ package org.cloudfoundry.autosleep.access.dao.repositories;
 
 import org.cloudfoundry.autosleep.access.dao.model.Binding;
 import org.cloudfoundry.autosleep.access.dao.model.Binding.ResourceType;
+import org.cloudfoundry.autosleep.access.dao.model.BoundApplication;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
@@ -33,8 +34,21 @@ public interface BindingRepository extends JpaRepository<Binding, String> {
 
     List<Binding> findAllByResourceType(ResourceType resourceType);
 
+    /**
+     * Bindings of the given type along with their service instance and the next check of the bound application,
+     * in a single query. Bindings whose service instance or application is not stored are left out.
+     */
+    @Query("select new org.cloudfoundry.autosleep.access.dao.model.BoundApplication(b.serviceBindingId, "
+            + "b.resourceId, c, a.diagnosticInfo.nextCheck) "
+            + "from Binding b, SpaceEnrollerConfig c, ApplicationInfo a "
+            + "where b.resourceType = :resType and c.id = b.serviceInstanceId and a.uuid = b.resourceId")
+    List<BoundApplication> findBoundApplications(@Param("resType") ResourceType resType);
+
     Binding findByResourceId(String id);
 
+    @Query("select distinct b.resourceId from Binding b where b.resourceType = :resType")
+    List<String> findResourceIds(@Param("resType") ResourceType resType);
+
     @Query("select b from Binding b where b.resourceId in (:ids) and b.resourceType = :resType")
     List<Binding> findByResourceIdAndType(@Param("ids") List<String> ids, @Param("resType") ResourceType resType);
 
@@ -0,0 +1,47 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.repositories;
+
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface ChangeEventRepository extends JpaRepository<ChangeEvent, Long> {
+
+    long countByEntityTypeAndOperation(EntityType entityType, Operation operation);
+
+    @Modifying
+    @Transactional
+    @Query("delete from ChangeEvent e where e.createdAt < :before")
+    int deleteOlderThan(@Param("before") long before);
+
+    List<ChangeEvent> findByIdGreaterThanOrderByIdAsc(long cursor, Pageable pageable);
+
+    ChangeEvent findFirstByOrderByIdDesc();
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.repositories;
+
+import org.cloudfoundry.autosleep.access.dao.model.Lease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface LeaseRepository extends JpaRepository<Lease, String> {
+
+    @Modifying
+    @Transactional
+    @Query("delete from Lease l where l.owner is null and l.expiresAt < :before")
+    int deleteReleasedBefore(@Param("before") long before);
+
+    @Query("select l.name from Lease l where l.name like :pattern and l.owner is not null and l.expiresAt >= :now")
+    List<String> findHeldNames(@Param("pattern") String pattern, @Param("now") long now);
+
+    @Query("select l.name from Lease l where l.owner = :owner and l.expiresAt >= :now")
+    List<String> findNamesHeldBy(@Param("owner") String owner, @Param("now") long now);
+
+    @Query("select l.token from Lease l where l.name = :name and l.owner = :owner")
+    Long findToken(@Param("name") String name, @Param("owner") String owner);
+
+    @Modifying
+    @Transactional
+    @Query("update Lease l set l.owner = null, l.expiresAt = :now "
+            + "where l.name = :name and l.owner = :owner and l.token = :token")
+    int release(@Param("name") String name,
+                @Param("owner") String owner,
+                @Param("token") long token,
+                @Param("now") long now);
+
+    @Modifying
+    @Transactional
+    @Query("update Lease l set l.owner = null, l.expiresAt = :now where l.owner = :owner")
+    int releaseAll(@Param("owner") String owner, @Param("now") long now);
+
+    @Modifying
+    @Transactional
+    @Query("update Lease l set l.expiresAt = :expiresAt where l.owner = :owner and l.expiresAt >= :now")
+    int renewAll(@Param("owner") String owner, @Param("now") long now, @Param("expiresAt") long expiresAt);
+
+    /**
+     * Take a lease that is released or expired, incrementing its token.
+     *
+     * @return 1 if the lease is now held by the given owner, 0 if it is held by another one or does not exist
+     */
+    @Modifying
+    @Transactional
+    @Query("update Lease l set l.owner = :owner, l.expiresAt = :expiresAt, l.token = l.token + 1 "
+            + "where l.name = :name and (l.owner is null or l.expiresAt < :now)")
+    int takeOver(@Param("name") String name,
+                 @Param("owner") String owner,
+                 @Param("now") long now,
+                 @Param("expiresAt") long expiresAt);
+
+}
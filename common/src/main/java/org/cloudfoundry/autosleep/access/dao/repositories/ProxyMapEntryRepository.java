@@ -20,19 +20,36 @@
 package org.cloudfoundry.autosleep.access.dao.repositories;
 
 import org.cloudfoundry.autosleep.access.dao.model.ProxyMapEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
-import org.springframework.data.jpa.repository.JpaRepository;
+import java.util.Collection;
+import java.util.List;
 
 public interface ProxyMapEntryRepository extends JpaRepository<ProxyMapEntry, String> {
 
     @Modifying
     @Transactional
     @Query("DELETE FROM ProxyMapEntry e WHERE e.host = :host")
-    void deleteIfExists(@Param("host") String host);
+    int deleteIfExists(@Param("host") String host);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ProxyMapEntry e WHERE e.host IN (:hosts)")
+    int deleteByHosts(@Param("hosts") Collection<String> hosts);
+
+    @Query("SELECT e.host FROM ProxyMapEntry e")
+    List<String> findAllHosts();
+
+    List<ProxyMapEntry> findByLastVerifiedLessThanOrderByLastVerifiedAsc(long before, Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE ProxyMapEntry e SET e.lastVerified = :verified WHERE e.host IN (:hosts)")
+    int markVerified(@Param("hosts") Collection<String> hosts, @Param("verified") long verified);
 
 }
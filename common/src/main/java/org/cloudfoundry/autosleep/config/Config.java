@@ -51,6 +51,8 @@ public interface Config {
 
         String CF_HOST = "cf.client.target.host";
 
+        String CF_INSTANCE_INDEX = "CF_INSTANCE_INDEX";
+
         String CF_PASSWORD = "cf.client.password";
 
         String CF_SERVICE_BROKER_ID = "cf.service.broker.id";
@@ -122,6 +124,10 @@ public interface Config {
 
     Duration DELAY_BEFORE_FIRST_SERVICE_CHECK = Duration.ofSeconds(10);
 
+    int NB_THREAD_FOR_LEASE_HEARTBEAT = 1;
+
+    int NB_THREAD_FOR_MAINTENANCE = 2;
+
     int NB_THREAD_FOR_TASK = 5;
 
     Duration PERIOD_BETWEEN_STATE_CHECKS_DURING_RESTART = Duration.ofSeconds(3);
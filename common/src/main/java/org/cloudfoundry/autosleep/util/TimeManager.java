@@ -31,6 +31,9 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class TimeManager {
 
+    private ScheduledExecutorService maintenanceScheduler =
+            Executors.newScheduledThreadPool(Config.NB_THREAD_FOR_MAINTENANCE);
+
     private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Config.NB_THREAD_FOR_TASK);
 
     public ScheduledFuture<?> schedule(Runnable command,
@@ -38,6 +41,15 @@ public class TimeManager {
         return scheduler.schedule(command, duration.toMillis(), TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Schedule a periodic infrastructure task (feed poll, sweep, flush...) on its own threads, so that it is never
+     * delayed by application checks and stops.
+     */
+    public ScheduledFuture<?> scheduleMaintenance(Runnable command,
+                                                  Duration duration) {
+        return maintenanceScheduler.schedule(command, duration.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
     public void sleep(Duration duration) throws InterruptedException {
         Thread.sleep(duration.toMillis());
     }
@@ -0,0 +1,110 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EntityCacheTest {
+
+    private EntityCache<String, String> cache;
+
+    private Clock clock;
+
+    private AtomicInteger loads = new AtomicInteger();
+
+    private Map<String, String> stored = new HashMap<>();
+
+    @Before
+    public void init() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        stored.put("id", "value");
+        cache = new EntityCache<>(id -> {
+            loads.incrementAndGet();
+            return stored.get(id);
+        }, Duration.ofSeconds(10), clock);
+    }
+
+    @Test
+    public void test_entity_is_loaded_once() {
+        //given an entity is read once
+        assertThat(cache.get("id"), is(equalTo("value")));
+        //when it is read again
+        String value = cache.get("id");
+        //then it comes from cache
+        assertThat(value, is(equalTo("value")));
+        assertThat(loads.get(), is(equalTo(1)));
+        assertThat(cache.getHits(), is(equalTo(1L)));
+        assertThat(cache.getMisses(), is(equalTo(1L)));
+        assertThat(cache.getHitRatio(), is(equalTo(0.5)));
+    }
+
+    @Test
+    public void test_evicted_entity_is_reloaded() {
+        //given an entity is cached
+        cache.get("id");
+        //and it is modified and evicted
+        stored.put("id", "updated");
+        cache.evict("id");
+        //when it is read
+        String value = cache.get("id");
+        //then the new value is loaded
+        assertThat(value, is(equalTo("updated")));
+        assertThat(loads.get(), is(equalTo(2)));
+    }
+
+    @Test
+    public void test_expired_entity_is_reloaded() {
+        //given an entity is cached
+        cache.get("id");
+        //when its time to live is over
+        when(clock.millis()).thenReturn(Duration.ofSeconds(11).toMillis());
+        cache.get("id");
+        //then it is reloaded
+        assertThat(loads.get(), is(equalTo(2)));
+    }
+
+    @Test
+    public void test_missing_entity_is_not_cached() {
+        //given an entity does not exist
+        assertThat(cache.get("unknown"), is(nullValue()));
+        //when it is created and read
+        stored.put("unknown", "created");
+        String value = cache.get("unknown");
+        //then it is found
+        assertThat(value, is(equalTo("created")));
+        assertThat(cache.size(), is(equalTo(2)));
+    }
+
+}
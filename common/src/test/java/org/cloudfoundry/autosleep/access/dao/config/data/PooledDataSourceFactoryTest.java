@@ -0,0 +1,81 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.config.data;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.cloudfoundry.autosleep.config.Config;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PooledDataSourceFactoryTest {
+
+    private PooledDataSourceFactory factory;
+
+    @Before
+    public void init() {
+        factory = new PooledDataSourceFactory();
+        ReflectionTestUtils.setField(factory, "maxIdle", -1);
+        ReflectionTestUtils.setField(factory, "maxWait", "PT1S");
+        ReflectionTestUtils.setField(factory, "requestConcurrency", 4);
+        ReflectionTestUtils.setField(factory, "validationInterval", "PT1M");
+        ReflectionTestUtils.setField(factory, "validationQuery", "SELECT 1");
+    }
+
+    @Test
+    public void test_pool_size_is_derived_from_concurrency() {
+        //given no maximum size is configured
+        ReflectionTestUtils.setField(factory, "maxActive", 0);
+        //when a data source is created
+        InstrumentedDataSource dataSource = (InstrumentedDataSource) factory.create("org.h2.Driver",
+                "jdbc:h2:mem:pool-derived", "sa", "");
+        //then pool size covers worker threads and requests
+        assertThat(dataSource.getTargetDataSource(), is(instanceOf(BasicDataSource.class)));
+        BasicDataSource pool = (BasicDataSource) dataSource.getTargetDataSource();
+        assertThat(pool.getMaxActive(), is(equalTo(Config.NB_THREAD_FOR_TASK
+                + Config.NB_THREAD_FOR_MAINTENANCE + Config.NB_THREAD_FOR_LEASE_HEARTBEAT + 4 + 2)));
+        assertThat(pool.getMaxIdle(), is(equalTo(pool.getMaxActive())));
+        assertThat(pool.getMaxWait(), is(equalTo(1000L)));
+    }
+
+    @Test
+    public void test_connection_acquisition_is_measured() throws Exception {
+        //given a configured pool
+        ReflectionTestUtils.setField(factory, "maxActive", 3);
+        InstrumentedDataSource dataSource = (InstrumentedDataSource) factory.create("org.h2.Driver",
+                "jdbc:h2:mem:pool-measured", "sa", "");
+        assertThat(((BasicDataSource) dataSource.getTargetDataSource()).getMaxActive(), is(equalTo(3)));
+        //when a connection is acquired
+        try (Connection ignored = dataSource.getConnection()) {
+            //then it is counted
+            assertThat(dataSource.getAcquisitions(), is(equalTo(1L)));
+        }
+        assertThat(dataSource.getAcquisitionFailures(), is(equalTo(0L)));
+        assertThat(factory.getDataSources().size(), is(equalTo(1)));
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.config.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ReadReplicaRoutingDataSourceTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private EmbeddedDatabase primary;
+
+    private TransactionTemplate readOnlyTemplate;
+
+    private TransactionTemplate readWriteTemplate;
+
+    private EmbeddedDatabase replica;
+
+    private static EmbeddedDatabase buildDatabase(String name) {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName(name)
+                .build();
+        JdbcTemplate template = new JdbcTemplate(database);
+        template.execute("CREATE TABLE origin (name VARCHAR(20))");
+        template.update("INSERT INTO origin VALUES (?)", name);
+        return database;
+    }
+
+    @Before
+    public void buildDataSources() {
+        primary = buildDatabase("primary");
+        replica = buildDatabase("replica");
+        DataSource dataSource = new LazyConnectionDataSourceProxy(new ReadReplicaRoutingDataSource(primary, replica));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readOnlyTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTemplate.setReadOnly(true);
+        readWriteTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    private String readOrigin(TransactionTemplate template) {
+        return template.execute(status -> jdbcTemplate.queryForObject("SELECT name FROM origin", String.class));
+    }
+
+    @After
+    public void shutdown() {
+        primary.shutdown();
+        replica.shutdown();
+    }
+
+    @Test
+    public void test_read_only_transaction_goes_to_primary_by_default() {
+        //given the thread did not opt in replica reads
+        //when it reads in a read-only transaction
+        String origin = readOrigin(readOnlyTemplate);
+        //then the primary is used
+        assertThat(origin, is(equalTo("primary")));
+    }
+
+    @Test
+    public void test_read_only_transaction_goes_to_replica() {
+        //given the thread opted in replica reads
+        //when it reads in a read-only transaction
+        String origin = ReadReplicaRoutingDataSource.withReplicaReads(() -> readOrigin(readOnlyTemplate));
+        //then the replica is used
+        assertThat(origin, is(equalTo("replica")));
+    }
+
+    @Test
+    public void test_read_write_transaction_stays_on_primary() {
+        //given the thread opted in replica reads
+        //when it reads in a read-write transaction
+        String origin = ReadReplicaRoutingDataSource.withReplicaReads(() -> readOrigin(readWriteTemplate));
+        //then the primary is used
+        assertThat(origin, is(equalTo("primary")));
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.feed;
+
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
+import org.cloudfoundry.autosleep.access.dao.repositories.ChangeEventRepository;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ChangeFeedTest {
+
+    @InjectMocks
+    private ChangeFeed changeFeed;
+
+    @Mock
+    private ChangeEventRepository changeEventRepository;
+
+    @Mock
+    private ChangeListener listener;
+
+    @Mock
+    private ChangeListener otherListener;
+
+    @Mock
+    private TimeManager timeManager;
+
+    private ChangeEvent event(long id, String origin, long createdAt) {
+        ChangeEvent event = ChangeEvent.builder()
+                .createdAt(createdAt)
+                .entityId("entity" + id)
+                .entityType(EntityType.BINDING)
+                .operation(Operation.DELETE)
+                .origin(origin)
+                .build();
+        ReflectionTestUtils.setField(event, "id", id);
+        return event;
+    }
+
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(changeFeed, "batchSize", 10);
+        ReflectionTestUtils.setField(changeFeed, "enabled", true);
+        ReflectionTestUtils.setField(changeFeed, "listeners", Arrays.asList(listener, otherListener));
+        ReflectionTestUtils.setField(changeFeed, "pollPeriod", "PT2S");
+        ReflectionTestUtils.setField(changeFeed, "retention", "PT1H");
+        ReflectionTestUtils.setField(changeFeed, "settleDelay", "PT5S");
+        when(changeEventRepository.findFirstByOrderByIdDesc()).thenReturn(event(3L, "other", 0L));
+        changeFeed.init();
+    }
+
+    @Test
+    public void test_announce_is_appended_and_not_notified() {
+        //given this process publishes proxy map entries
+        changeFeed.announcePublisherOf(EntityType.PROXY_MAP_ENTRY);
+        //when the feed is polled twice
+        changeFeed.poll();
+        changeFeed.poll();
+        //then the announce is appended once within the retention
+        ArgumentCaptor<ChangeEvent> captor = ArgumentCaptor.forClass(ChangeEvent.class);
+        verify(changeEventRepository, times(1)).save(captor.capture());
+        assertThat(captor.getValue().getEntityType(), is(equalTo(EntityType.PROXY_MAP_ENTRY)));
+        assertThat(captor.getValue().getOperation(), is(equalTo(Operation.ANNOUNCE)));
+
+        //when another process announce is read
+        ChangeEvent announce = ChangeEvent.builder()
+                .createdAt(0L)
+                .entityId("other")
+                .entityType(EntityType.PROXY_MAP_ENTRY)
+                .operation(Operation.ANNOUNCE)
+                .origin("other")
+                .build();
+        ReflectionTestUtils.setField(announce, "id", 4L);
+        when(changeEventRepository.findByIdGreaterThanOrderByIdAsc(eq(3L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(announce));
+        changeFeed.poll();
+        //then listeners are not notified
+        verify(listener, never()).onChange(any(ChangeEvent.class));
+    }
+
+    @Test
+    public void test_failing_listener_does_not_prevent_others() {
+        //given a listener that fails
+        ChangeEvent event = event(4L, "other", 0L);
+        when(changeEventRepository.findByIdGreaterThanOrderByIdAsc(eq(3L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(event));
+        doThrow(new IllegalStateException("failure")).when(listener).onChange(event);
+        //when the feed is polled
+        changeFeed.poll();
+        //then the other listener is still notified
+        verify(otherListener, times(1)).onChange(event);
+        //and old entries are purged
+        verify(changeEventRepository, times(1)).deleteOlderThan(anyLong());
+    }
+
+    @Test
+    public void test_has_publisher_only_when_announced_and_enabled() {
+        //given a publisher announced proxy map entries
+        when(changeEventRepository.countByEntityTypeAndOperation(EntityType.PROXY_MAP_ENTRY, Operation.ANNOUNCE))
+                .thenReturn(1L);
+        //then it is reported while the feed is enabled
+        assertThat(changeFeed.hasPublisherOf(EntityType.PROXY_MAP_ENTRY), is(true));
+        assertThat(changeFeed.hasPublisherOf(EntityType.BINDING), is(false));
+        //when the feed is disabled
+        ReflectionTestUtils.setField(changeFeed, "enabled", false);
+        //then no publisher is reported
+        assertThat(changeFeed.hasPublisherOf(EntityType.PROXY_MAP_ENTRY), is(false));
+    }
+
+    @Test
+    public void test_own_changes_are_not_notified() {
+        //given an entry published by this process
+        String origin = (String) ReflectionTestUtils.getField(changeFeed, "origin");
+        ChangeEvent own = event(4L, origin, 0L);
+        when(changeEventRepository.findByIdGreaterThanOrderByIdAsc(eq(3L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(own));
+        //when the feed is polled
+        changeFeed.poll();
+        //then listeners are not notified
+        verify(listener, never()).onChange(any(ChangeEvent.class));
+    }
+
+    @Test
+    public void test_poll_reads_after_last_entry_at_start() {
+        //given entries appended by another process after start
+        ChangeEvent first = event(4L, "other", 0L);
+        ChangeEvent second = event(5L, "other", 0L);
+        when(changeEventRepository.findByIdGreaterThanOrderByIdAsc(eq(3L), any(Pageable.class)))
+                .thenReturn(Arrays.asList(first, second));
+        //when the feed is polled
+        changeFeed.poll();
+        //then every listener is notified of both, in order
+        verify(listener, times(1)).onChange(first);
+        verify(listener, times(1)).onChange(second);
+        verify(otherListener, times(1)).onChange(second);
+        //and the cursor moved past them
+        assertThat(ReflectionTestUtils.getField(changeFeed, "cursor"), is(equalTo(5L)));
+    }
+
+    @Test
+    public void test_publish_failure_is_not_propagated() {
+        //given the database is unavailable
+        when(changeEventRepository.save(any(ChangeEvent.class))).thenThrow(new IllegalStateException("down"));
+        //when a change is published
+        boolean published = changeFeed.publish(EntityType.PROXY_MAP_ENTRY, "host", Operation.DELETE);
+        //then the failure is reported to the caller
+        assertThat(published, is(false));
+        //and the entry was attempted
+        ArgumentCaptor<ChangeEvent> captor = ArgumentCaptor.forClass(ChangeEvent.class);
+        verify(changeEventRepository, times(1)).save(captor.capture());
+        assertThat(captor.getValue().getEntityId(), is(equalTo("host")));
+    }
+
+    @Test
+    public void test_recent_entries_are_delivered_once_settled() {
+        //given a settled entry followed by one appended just now
+        ChangeEvent settled = event(4L, "other", 0L);
+        ChangeEvent recent = event(5L, "other", Instant.now().toEpochMilli());
+        when(changeEventRepository.findByIdGreaterThanOrderByIdAsc(eq(3L), any(Pageable.class)))
+                .thenReturn(Arrays.asList(settled, recent));
+        //when the feed is polled
+        changeFeed.poll();
+        //then only the settled one is notified and the cursor stays before the recent one
+        verify(listener, times(1)).onChange(settled);
+        verify(listener, never()).onChange(recent);
+        assertThat(ReflectionTestUtils.getField(changeFeed, "cursor"), is(equalTo(4L)));
+
+        //when the recent one settled and the feed is polled again
+        ChangeEvent settledLater = event(5L, "other", 0L);
+        when(changeEventRepository.findByIdGreaterThanOrderByIdAsc(eq(4L), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(settledLater));
+        changeFeed.poll();
+        //then it is notified once, and the settled one is not notified again
+        verify(listener, times(1)).onChange(settledLater);
+        verify(listener, times(1)).onChange(settled);
+        assertThat(ReflectionTestUtils.getField(changeFeed, "cursor"), is(equalTo(5L)));
+    }
+
+}
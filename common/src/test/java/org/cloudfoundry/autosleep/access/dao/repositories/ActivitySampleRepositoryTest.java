@@ -0,0 +1,122 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.repositories;
+
+import org.cloudfoundry.autosleep.access.dao.config.RepositoryConfig;
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample;
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample.Resolution;
+import org.cloudfoundry.autosleep.util.ApplicationConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {ApplicationConfiguration.class, RepositoryConfig.class, EnableJpaConfiguration.class})
+public abstract class ActivitySampleRepositoryTest {
+
+    private static final long HOUR = 3600000L;
+
+    @Autowired
+    private ActivitySampleRepository repository;
+
+    private static ActivitySample build(String appUuid, Resolution resolution, long periodStart) {
+        return ActivitySample.builder()
+                .appUuid(appUuid)
+                .resolution(resolution)
+                .periodStart(periodStart)
+                .samples(2)
+                .activeSamples(1)
+                .build();
+    }
+
+    @Before
+    @After
+    public void clearDao() {
+        repository.deleteAll();
+    }
+
+    @Test
+    public void test_delete_older_than() {
+        //Given db contains daily buckets of different ages
+        repository.save(Arrays.asList(build("app", Resolution.DAILY, 0L),
+                build("app", Resolution.DAILY, 24 * HOUR),
+                build("app", Resolution.HOURLY, 0L)));
+        //When we delete daily buckets older than a day
+        int deleted = repository.deleteOlderThan(Resolution.DAILY, 24 * HOUR);
+        //Then only the oldest daily bucket is deleted
+        assertThat(deleted, is(equalTo(1)));
+        assertThat(repository.count(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void test_find_by_app_is_ordered() {
+        //Given db contains samples of two applications
+        repository.save(Arrays.asList(build("app", Resolution.RAW, 2 * HOUR),
+                build("app", Resolution.HOURLY, HOUR),
+                build("other", Resolution.RAW, 0L)));
+        //When we retrieve the history of one of them
+        List<ActivitySample> history = repository.findByAppUuidOrderByPeriodStartAsc("app");
+        //Then we get its samples, oldest first
+        assertThat(history.size(), is(equalTo(2)));
+        assertThat(history.get(0).getResolution(), is(equalTo(Resolution.HOURLY)));
+        assertThat(history.get(1).getResolution(), is(equalTo(Resolution.RAW)));
+    }
+
+    @Test
+    public void test_find_old_samples_by_resolution() {
+        //Given db contains raw samples
+        repository.save(Arrays.asList(build("app", Resolution.RAW, 0L),
+                build("app", Resolution.RAW, HOUR),
+                build("app", Resolution.RAW, 2 * HOUR)));
+        //When we look for the ones older than 2 hours, one at a time
+        List<ActivitySample> page = repository.findByResolutionAndPeriodStartLessThan(Resolution.RAW, 2 * HOUR,
+                new PageRequest(0, 1));
+        //Then we get a single one
+        assertThat(page.size(), is(equalTo(1)));
+        assertThat(repository.findByResolutionAndPeriodStartLessThan(Resolution.RAW, 2 * HOUR,
+                new PageRequest(0, 10)).size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void test_stored_sample_is_updated() {
+        //Given db contains a bucket
+        repository.save(build("app", Resolution.HOURLY, 0L));
+        //When it is reloaded, incremented and saved
+        ActivitySample stored = repository.findOne(ActivitySample.buildId("app", Resolution.HOURLY, 0L));
+        stored.add(build("app", Resolution.RAW, 10L));
+        repository.save(stored);
+        //Then it is updated rather than inserted again
+        assertThat(repository.count(), is(equalTo(1L)));
+        assertThat(repository.findOne(stored.getId()).getSamples(), is(equalTo(4)));
+    }
+
+}
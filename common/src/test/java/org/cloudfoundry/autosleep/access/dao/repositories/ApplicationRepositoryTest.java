@@ -22,6 +22,8 @@ package org.cloudfoundry.autosleep.access.dao.repositories;
 import lombok.extern.slf4j.Slf4j;
 import org.cloudfoundry.autosleep.access.dao.config.RepositoryConfig;
 import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationSummary;
+import org.cloudfoundry.autosleep.access.dao.model.Binding.ResourceType;
 import org.cloudfoundry.autosleep.config.Config.CloudFoundryAppState;
 import org.cloudfoundry.autosleep.util.ApplicationConfiguration;
 import org.cloudfoundry.autosleep.util.BeanGenerator;
@@ -34,8 +36,11 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
@@ -50,6 +55,9 @@ public abstract class ApplicationRepositoryTest extends CrudRepositoryTest<Appli
     @Autowired
     private ApplicationRepository applicationRepository;
 
+    @Autowired
+    private BindingRepository bindingRepository;
+
     @Override
     protected ApplicationInfo build(String id) {
         ApplicationInfo result = BeanGenerator.createAppInfoLinkedToService(id, "APTestServiceId");
@@ -98,6 +106,7 @@ public abstract class ApplicationRepositoryTest extends CrudRepositoryTest<Appli
     public void setAndClearDao() {
         setDao(applicationRepository);
         applicationRepository.deleteAll();
+        bindingRepository.deleteAll();
     }
 
     @Test
@@ -112,4 +121,98 @@ public abstract class ApplicationRepositoryTest extends CrudRepositoryTest<Appli
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test_update_diagnostic_info_leaves_enrollment_untouched() {
+        //Given db contains an application enrolled by a service
+        String uuid = UUID.randomUUID().toString();
+        applicationRepository.save(build(uuid));
+        //and a diagnostic computed from a copy that does not know about this enrollment
+        ApplicationInfo checked = BeanGenerator.createAppInfoWithDiagnostic(uuid, "newName",
+                CloudFoundryAppState.STOPPED);
+        //When we write the diagnostic
+        int updated = applicationRepository.updateDiagnosticInfo(checked);
+        //Then diagnostic columns are written
+        assertThat(updated, is(equalTo(1)));
+        ApplicationInfo reloaded = applicationRepository.findOne(uuid);
+        assertThat(reloaded.getName(), is(equalTo("newName")));
+        assertThat(reloaded.getDiagnosticInfo(), is(equalTo(checked.getDiagnosticInfo())));
+        //and the enrollment is the stored one
+        assertThat(reloaded.getEnrollmentState().isEnrolledByService("serviceId"), is(true));
+    }
+
+    @Test
+    public void test_update_diagnostic_info_does_not_create_application() {
+        //Given db does not contain an application
+        ApplicationInfo checked = BeanGenerator.createAppInfoWithDiagnostic(UUID.randomUUID().toString(), "name",
+                CloudFoundryAppState.STARTED);
+        //When we write its diagnostic
+        int updated = applicationRepository.updateDiagnosticInfo(checked);
+        //Then nothing is written
+        assertThat(updated, is(equalTo(0)));
+        assertThat(applicationRepository.count(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void test_find_summaries() {
+        //Given db contains an application with a diagnostic
+        String uuid = UUID.randomUUID().toString();
+        ApplicationInfo stored = applicationRepository.save(build(uuid));
+        //When we read summaries
+        List<ApplicationSummary> summaries = applicationRepository.findSummaries();
+        //Then diagnostic columns are projected
+        assertThat(summaries.size(), is(equalTo(1)));
+        ApplicationSummary summary = summaries.get(0);
+        assertThat(summary.getUuid(), is(equalTo(uuid)));
+        assertThat(summary.getName(), is(equalTo("appName")));
+        assertThat(summary.getDiagnosticInfo().getAppState(), is(equalTo(CloudFoundryAppState.STARTED)));
+        assertThat(summary.getDiagnosticInfo().getLastLog(),
+                is(equalTo(stored.getDiagnosticInfo().getLastLog())));
+        assertThat(summary.getDiagnosticInfo().getLastEvent(),
+                is(equalTo(stored.getDiagnosticInfo().getLastEvent())));
+    }
+
+    @Test
+    public void test_find_summaries_bound_to() {
+        //Given db contains two applications, only one being bound to a service
+        String serviceId = "summaryServiceId";
+        String boundId = UUID.randomUUID().toString();
+        String otherId = UUID.randomUUID().toString();
+        applicationRepository.save(Arrays.asList(build(boundId), build(otherId)));
+        bindingRepository.save(BeanGenerator.createBinding(serviceId, null, boundId));
+        //When we read summaries of applications bound to the service
+        List<ApplicationSummary> summaries = applicationRepository.findSummariesBoundTo(serviceId,
+                ResourceType.Application);
+        //Then only the bound one is returned
+        assertThat(summaries.size(), is(equalTo(1)));
+        assertThat(summaries.get(0).getUuid(), is(equalTo(boundId)));
+    }
+
+    @Test
+    public void test_find_summaries_opted_out_of() {
+        //Given db contains an application blacklisting a service, but still enrolled by another one
+        String serviceId = "optedOutServiceId";
+        String optedOutId = UUID.randomUUID().toString();
+        ApplicationInfo optedOut = build(optedOutId);
+        optedOut.getEnrollmentState().updateEnrollment(serviceId, true);
+        //and an application blacklisting it, enrolled by no one
+        String ignoredId = UUID.randomUUID().toString();
+        ApplicationInfo ignored = BeanGenerator.createAppInfoLinkedToService(ignoredId, null);
+        ignored.getEnrollmentState().updateEnrollment(serviceId, true);
+        //and an application bound to it, and one it does not know
+        String boundId = UUID.randomUUID().toString();
+        ApplicationInfo bound = build(boundId);
+        bound.getEnrollmentState().addEnrollmentState(serviceId);
+        applicationRepository.save(Arrays.asList(optedOut, ignored, bound, build(UUID.randomUUID().toString())));
+        bindingRepository.save(BeanGenerator.createBinding(serviceId, null, boundId));
+        //When we read summaries of applications that opted out of the service
+        List<ApplicationSummary> summaries = applicationRepository.findSummariesOptedOutOf(serviceId,
+                ResourceType.Application);
+        //Then only the blacklisting ones are returned
+        assertThat(summaries.stream().map(ApplicationSummary::getUuid).collect(Collectors.toSet()),
+                is(equalTo(new HashSet<>(Arrays.asList(optedOutId, ignoredId)))));
+        //and only the one enrolled by another service is watched
+        assertThat(applicationRepository.findWatchedIdsOptedOutOf(serviceId, ResourceType.Application),
+                is(equalTo(Collections.singletonList(optedOutId))));
+    }
+
+}
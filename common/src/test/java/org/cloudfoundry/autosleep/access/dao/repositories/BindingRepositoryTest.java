@@ -21,9 +21,12 @@ package org.cloudfoundry.autosleep.access.dao.repositories;
 
 import lombok.extern.slf4j.Slf4j;
 import org.cloudfoundry.autosleep.access.dao.config.RepositoryConfig;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
 import org.cloudfoundry.autosleep.access.dao.model.Binding;
 import org.cloudfoundry.autosleep.access.dao.model.Binding.ResourceType;
+import org.cloudfoundry.autosleep.access.dao.model.BoundApplication;
 import org.cloudfoundry.autosleep.util.ApplicationConfiguration;
+import org.cloudfoundry.autosleep.util.BeanGenerator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,12 +35,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -48,9 +53,15 @@ public abstract class BindingRepositoryTest extends CrudRepositoryTest<Binding>
 
     private static final String APP_GUID = "2F5A0947-6468-401B-B12A-963405121937";
 
+    @Autowired
+    private ApplicationRepository applicationRepository;
+
     @Autowired
     private BindingRepository bindingRepository;
 
+    @Autowired
+    private SpaceEnrollerConfigRepository spaceEnrollerConfigRepository;
+
     @Override
     protected Binding build(String id) {
         return Binding.builder()
@@ -76,6 +87,37 @@ public abstract class BindingRepositoryTest extends CrudRepositoryTest<Binding>
     public void setAndClearDao() {
         setDao(bindingRepository);
         bindingRepository.deleteAll();
+        applicationRepository.deleteAll();
+        spaceEnrollerConfigRepository.deleteAll();
+    }
+
+    @Test
+    public void test_find_bound_applications() {
+        //Given two application bindings of a stored service, one of an application already checked
+        spaceEnrollerConfigRepository.save(BeanGenerator.createServiceInstance("service"));
+        Instant nextCheck = Instant.ofEpochMilli(1_000_000L);
+        ApplicationInfo checked = BeanGenerator.createAppInfoLinkedToService(APP_GUID, "service");
+        checked.markAsChecked(nextCheck);
+        applicationRepository.save(Arrays.asList(checked,
+                BeanGenerator.createAppInfoLinkedToService("otherApp", "service")));
+        bindingRepository.save(build("checkedBinding"));
+        bindingRepository.save(BeanGenerator.createBinding("service", "otherBinding", "otherApp"));
+        //and a binding of an unknown service
+        bindingRepository.save(BeanGenerator.createBinding("unknown", "orphanBinding", APP_GUID));
+        //When we retrieve the applications to watch
+        List<BoundApplication> bound = bindingRepository.findBoundApplications(ResourceType.Application);
+        //Then the bindings of the stored service are returned with their service and next check
+        assertThat(bound.size(), is(equalTo(2)));
+        bound.forEach(boundApplication -> {
+            assertThat(boundApplication.getSpaceEnrollerConfig().getId(), is(equalTo("service")));
+            if (boundApplication.getBindingId().equals("checkedBinding")) {
+                assertThat(boundApplication.getApplicationId(), is(equalTo(APP_GUID)));
+                assertThat(boundApplication.getNextCheck(), is(equalTo(nextCheck)));
+            } else {
+                assertThat(boundApplication.getApplicationId(), is(equalTo("otherApp")));
+                assertThat(boundApplication.getNextCheck(), is(nullValue()));
+            }
+        });
     }
 
     @Test
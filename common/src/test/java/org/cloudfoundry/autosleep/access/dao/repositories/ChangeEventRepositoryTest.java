@@ -0,0 +1,121 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.repositories;
+
+import org.cloudfoundry.autosleep.access.dao.config.RepositoryConfig;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
+import org.cloudfoundry.autosleep.util.ApplicationConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {ApplicationConfiguration.class, RepositoryConfig.class, EnableJpaConfiguration.class})
+public abstract class ChangeEventRepositoryTest {
+
+    @Autowired
+    private ChangeEventRepository repository;
+
+    private ChangeEvent append(String entityId, long createdAt) {
+        return repository.save(ChangeEvent.builder()
+                .createdAt(createdAt)
+                .entityId(entityId)
+                .entityType(EntityType.BINDING)
+                .operation(Operation.SAVE)
+                .origin("origin")
+                .build());
+    }
+
+    @Before
+    @After
+    public void clearDao() {
+        repository.deleteAll();
+    }
+
+    @Test
+    public void test_count_by_type_and_operation() {
+        //Given db contains a save and an announce of bindings
+        append("saved", 0L);
+        repository.save(ChangeEvent.builder()
+                .createdAt(0L)
+                .entityId("origin")
+                .entityType(EntityType.BINDING)
+                .operation(Operation.ANNOUNCE)
+                .origin("origin")
+                .build());
+        //When we count the announces
+        //Then only the announce of bindings is counted
+        assertThat(repository.countByEntityTypeAndOperation(EntityType.BINDING, Operation.ANNOUNCE), is(equalTo(1L)));
+        assertThat(repository.countByEntityTypeAndOperation(EntityType.PROXY_MAP_ENTRY, Operation.ANNOUNCE),
+                is(equalTo(0L)));
+    }
+
+    @Test
+    public void test_delete_older_than() {
+        //Given db contains entries of different ages
+        append("old", 10L);
+        append("recent", 20L);
+        //When we delete the ones older than the most recent
+        int deleted = repository.deleteOlderThan(20L);
+        //Then only the oldest is deleted
+        assertThat(deleted, is(equalTo(1)));
+        assertThat(repository.findAll().get(0).getEntityId(), is(equalTo("recent")));
+    }
+
+    @Test
+    public void test_find_after_cursor_is_ordered() {
+        //Given db contains three entries
+        ChangeEvent first = append("first", 0L);
+        append("second", 0L);
+        append("third", 0L);
+        //When we read two of the ones appended after the first
+        List<ChangeEvent> page = repository.findByIdGreaterThanOrderByIdAsc(first.getId(), new PageRequest(0, 2));
+        //Then we get them in order
+        assertThat(page.size(), is(equalTo(2)));
+        assertThat(page.get(0).getEntityId(), is(equalTo("second")));
+        assertThat(page.get(1).getEntityId(), is(equalTo("third")));
+    }
+
+    @Test
+    public void test_find_last() {
+        //Given db is empty
+        assertThat(repository.findFirstByOrderByIdDesc(), is(nullValue()));
+        //When two entries are appended
+        append("first", 0L);
+        ChangeEvent last = append("last", 0L);
+        //Then the last one is found
+        assertThat(repository.findFirstByOrderByIdDesc().getId(), is(equalTo(last.getId())));
+    }
+
+}
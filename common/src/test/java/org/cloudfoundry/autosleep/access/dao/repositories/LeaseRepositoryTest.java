@@ -0,0 +1,124 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.access.dao.repositories;
+
+import org.cloudfoundry.autosleep.access.dao.config.RepositoryConfig;
+import org.cloudfoundry.autosleep.access.dao.model.Lease;
+import org.cloudfoundry.autosleep.util.ApplicationConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {ApplicationConfiguration.class, RepositoryConfig.class, EnableJpaConfiguration.class})
+public abstract class LeaseRepositoryTest {
+
+    @Autowired
+    private LeaseRepository repository;
+
+    @Before
+    @After
+    public void clearDao() {
+        repository.deleteAll();
+    }
+
+    private void insert(String name, String owner, long expiresAt) {
+        repository.saveAndFlush(Lease.builder().name(name).owner(owner).expiresAt(expiresAt).token(1L).build());
+    }
+
+    @Test
+    public void test_delete_released_before() {
+        //Given a lease released long ago, and one held
+        insert("released", null, 10L);
+        insert("held", "owner", 10L);
+        //When released leases are purged
+        int deleted = repository.deleteReleasedBefore(20L);
+        //Then only the released one is deleted
+        assertThat(deleted, is(equalTo(1)));
+        assertThat(repository.findNamesHeldBy("owner", 0L), is(equalTo(Collections.singletonList("held"))));
+    }
+
+    @Test
+    public void test_find_held_names() {
+        //Given members held, released and expired, and another lease
+        insert("member:held", "owner", 200L);
+        insert("member:released", null, 200L);
+        insert("member:expired", "owner", 50L);
+        insert("application:app", "owner", 200L);
+        //When live members are read
+        //Then only the held one is returned
+        assertThat(repository.findHeldNames("member:%", 100L),
+                is(equalTo(Collections.singletonList("member:held"))));
+    }
+
+    @Test
+    public void test_release_requires_token() {
+        //Given a lease taken over since it was acquired with token 1
+        insert("lease", "owner", 100L);
+        repository.takeOver("lease", "owner", 200L, 300L);
+        //When its previous holding is released
+        int released = repository.release("lease", "owner", 1L, 200L);
+        //Then nothing is released
+        assertThat(released, is(equalTo(0)));
+        assertThat(repository.findToken("lease", "owner"), is(equalTo(2L)));
+    }
+
+    @Test
+    public void test_renew_all_skips_expired() {
+        //Given a lease still valid and one expired
+        insert("valid", "owner", 200L);
+        insert("expired", "owner", 50L);
+        //When the owner renews its leases
+        int renewed = repository.renewAll("owner", 100L, 300L);
+        //Then only the valid one is renewed
+        assertThat(renewed, is(equalTo(1)));
+        assertThat(repository.findOne("valid").getExpiresAt(), is(equalTo(300L)));
+        //and the expired one is no longer held
+        assertThat(repository.findNamesHeldBy("owner", 100L), is(equalTo(Collections.singletonList("valid"))));
+    }
+
+    @Test
+    public void test_take_over() {
+        //Given a lease held by an instance
+        insert("lease", "first", 100L);
+        //When another one tries to take it before it expires
+        int taken = repository.takeOver("lease", "second", 50L, 150L);
+        //Then it fails
+        assertThat(taken, is(equalTo(0)));
+        assertThat(repository.findToken("lease", "second"), is(nullValue()));
+        //When it tries after expiry
+        taken = repository.takeOver("lease", "second", 150L, 250L);
+        //Then it holds the lease with a new token
+        assertThat(taken, is(equalTo(1)));
+        assertThat(repository.findToken("lease", "second"), is(equalTo(2L)));
+    }
+
+}
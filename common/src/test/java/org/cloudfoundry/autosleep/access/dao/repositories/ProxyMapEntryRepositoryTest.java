@@ -25,11 +25,18 @@ import org.cloudfoundry.autosleep.access.dao.model.ProxyMapEntry;
 import org.cloudfoundry.autosleep.util.ApplicationConfiguration;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
@@ -61,4 +68,38 @@ public abstract class ProxyMapEntryRepositoryTest extends CrudRepositoryTest<Pro
         repository.deleteAll();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test_delete_if_exists_counts_deleted() {
+        //given an entry stored
+        repository.save(build("host1"));
+        //when it is deleted twice
+        //then only the first delete removes it
+        assertThat(repository.deleteIfExists("host1"), is(equalTo(1)));
+        assertThat(repository.deleteIfExists("host1"), is(equalTo(0)));
+    }
+
+    @Test
+    public void test_find_all_hosts() {
+        repository.save(Arrays.asList(build("host1"), build("host2")));
+        List<String> hosts = repository.findAllHosts();
+        assertThat(hosts.size(), is(equalTo(2)));
+        assertThat(hosts.containsAll(Arrays.asList("host1", "host2")), is(true));
+    }
+
+    @Test
+    public void test_find_mark_and_delete_unverified() {
+        //given three entries stored
+        repository.save(Arrays.asList(build("host1"), build("host2"), build("host3")));
+        long after = Instant.now().plusSeconds(1).toEpochMilli();
+        //when one is verified later and another deleted
+        repository.markVerified(Collections.singletonList("host1"), after);
+        int deleted = repository.deleteByHosts(Collections.singletonList("host2"));
+        //then only the remaining unverified one is found
+        assertThat(deleted, is(equalTo(1)));
+        List<ProxyMapEntry> unverified = repository.findByLastVerifiedLessThanOrderByLastVerifiedAsc(after,
+                new PageRequest(0, 10));
+        assertThat(unverified.size(), is(equalTo(1)));
+        assertThat(unverified.get(0).getHost(), is(equalTo("host3")));
+    }
+
+}
@@ -22,15 +22,19 @@ package org.cloudfoundry.autosleep.ui.servicebroker.service;
 import lombok.extern.slf4j.Slf4j;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
+import org.cloudfoundry.autosleep.access.dao.cache.EntityCacheService;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
 import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
 import org.cloudfoundry.autosleep.access.dao.model.Binding;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
 import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
-import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
 import org.cloudfoundry.autosleep.access.dao.repositories.BindingRepository;
-import org.cloudfoundry.autosleep.access.dao.repositories.SpaceEnrollerConfigRepository;
 import org.cloudfoundry.autosleep.config.Config;
 import org.cloudfoundry.autosleep.config.DeployedApplicationConfig;
+import org.cloudfoundry.autosleep.util.ApplicationLockTimeoutException;
 import org.cloudfoundry.autosleep.util.ApplicationLocker;
+import org.cloudfoundry.autosleep.util.ApplicationUpdater;
 import org.cloudfoundry.autosleep.worker.WorkerManagerService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
@@ -54,10 +58,10 @@ import static org.cloudfoundry.autosleep.access.dao.model.Binding.ResourceType.R
 public class AutosleepBindingService implements ServiceInstanceBindingService {
 
     @Autowired
-    private ApplicationRepository appRepository;
+    private ApplicationLocker applicationLocker;
 
     @Autowired
-    private ApplicationLocker applicationLocker;
+    private ApplicationUpdater applicationUpdater;
 
     @Autowired
     private BindingRepository bindingRepository;
@@ -65,11 +69,14 @@ public class AutosleepBindingService implements ServiceInstanceBindingService {
     @Autowired
     private CloudFoundryApiService cfApi;
 
+    @Autowired
+    private ChangeFeed changeFeed;
+
     @Autowired
     private DeployedApplicationConfig.Deployment deployment;
 
     @Autowired
-    private SpaceEnrollerConfigRepository spaceEnrollerConfigRepository;
+    private EntityCacheService entityCache;
 
     @Autowired
     private WorkerManagerService workerManager;
@@ -83,7 +90,7 @@ public class AutosleepBindingService implements ServiceInstanceBindingService {
         final String configId = request.getServiceInstanceId();
 
         log.debug("createServiceInstanceBinding - {}", bindingId);
-        SpaceEnrollerConfig spaceEnrollerConfig = spaceEnrollerConfigRepository.findOne(configId);
+        SpaceEnrollerConfig spaceEnrollerConfig = entityCache.getSpaceEnrollerConfig(configId);
 
         String targetAppId = (String) request.getBindResource()
                 .get(ServiceBindingResource.BIND_RESOURCE_KEY_APP.toString());
@@ -98,19 +105,22 @@ public class AutosleepBindingService implements ServiceInstanceBindingService {
             log.info("Creating binding {} for app {}", bindingId, targetAppId);
             bindingBuilder.resourceId(targetAppId)
                     .resourceType(Application);
-            applicationLocker.executeThreadSafe(targetAppId, () -> {
-                ApplicationInfo appInfo = appRepository.findOne(targetAppId);
-                if (appInfo == null) {
-                    appInfo = ApplicationInfo.builder()
-                            .uuid(targetAppId)
-                            .build();
-                }
-
-                appInfo.getEnrollmentState().addEnrollmentState(configId);
-
+            executeThreadSafe(targetAppId, () -> {
                 //retrieve service to return its params as credentials
-                bindingRepository.save(bindingBuilder.build());
-                appRepository.save(appInfo);
+                Binding binding = bindingBuilder.build();
+                bindingRepository.save(binding);
+                entityCache.putBinding(binding);
+                changeFeed.publish(EntityType.BINDING, bindingId, Operation.SAVE);
+                applicationUpdater.update(targetAppId, appInfo -> {
+                    ApplicationInfo result = appInfo;
+                    if (result == null) {
+                        result = ApplicationInfo.builder()
+                                .uuid(targetAppId)
+                                .build();
+                    }
+                    result.getEnrollmentState().addEnrollmentState(configId);
+                    return result;
+                });
                 workerManager.registerApplicationStopper(spaceEnrollerConfig, targetAppId, bindingId);
             });
             return new CreateServiceInstanceAppBindingResponse().withCredentials(Collections.singletonMap(
@@ -136,7 +146,7 @@ public class AutosleepBindingService implements ServiceInstanceBindingService {
         final String serviceId = request.getServiceInstanceId();
         log.debug("deleteServiceInstanceBinding - {} on service {}", bindingId, serviceId);
 
-        final Binding binding = bindingRepository.findOne(bindingId);
+        final Binding binding = entityCache.getBinding(bindingId);
         if (binding == null) {
             log.error("Trying to delete unknown binding {}, letting it pass", bindingId);
             return;
@@ -145,7 +155,7 @@ public class AutosleepBindingService implements ServiceInstanceBindingService {
             log.info("Unbinding app {} (binding {})", binding.getResourceId(), bindingId);
             final String appId = binding.getResourceId();
 
-            SpaceEnrollerConfig serviceInstance = spaceEnrollerConfigRepository.findOne(request.getServiceInstanceId());
+            SpaceEnrollerConfig serviceInstance = entityCache.getSpaceEnrollerConfig(request.getServiceInstanceId());
             log.debug("serviceInstance {}", serviceInstance);
             //TODO check if need to add in lock
             try {
@@ -167,28 +177,29 @@ public class AutosleepBindingService implements ServiceInstanceBindingService {
                                     log.error("Autosleep was unable to clear related route binding {}.",
                                             linkedRouteBinding.getServiceBindingId());
                                     bindingRepository.delete(linkedRouteBinding.getServiceBindingId());
+                                    entityCache.evictBinding(linkedRouteBinding.getServiceBindingId());
+                                    changeFeed.publish(EntityType.BINDING, linkedRouteBinding.getServiceBindingId(),
+                                            Operation.DELETE);
                                 }
                             });
                 }
-                applicationLocker.executeThreadSafe(appId,
+                executeThreadSafe(appId,
                         () -> {
                             log.debug("deleteServiceInstanceBinding on app {}", appId);
-                            ApplicationInfo appInfo = appRepository.findOne(appId);
-                            if (appInfo != null) {
+                            applicationUpdater.update(appId, appInfo -> {
+                                if (appInfo == null) {
+                                    log.error("Deleting a binding with no related application info. "
+                                            + "This should never happen.");
+                                    return null;
+                                }
                                 appInfo.getEnrollmentState()
                                         .updateEnrollment(serviceInstance.getId(),
                                                 !serviceInstance.isForcedAutoEnrollment());
-                                if (appInfo.getEnrollmentState().getStates().isEmpty()) {
-                                    appRepository.delete(appId);
-                                    applicationLocker.removeApplication(appId);
-                                } else {
-                                    appRepository.save(appInfo);
-                                }
-                            } else {
-                                log.error("Deleting a binding with no related application info. "
-                                        + "This should never happen.");
-                            }
+                                return appInfo.getEnrollmentState().getStates().isEmpty() ? null : appInfo;
+                            });
                             bindingRepository.delete(bindingId);
+                            entityCache.evictBinding(bindingId);
+                            changeFeed.publish(EntityType.BINDING, bindingId, Operation.DELETE);
 
                             //task launched will cancel by itself
                         });
@@ -199,6 +210,20 @@ public class AutosleepBindingService implements ServiceInstanceBindingService {
         } else if (binding.getResourceType() == Route) {
             log.info("Unbinding route {} (binding {})", binding.getResourceId(), bindingId);
             bindingRepository.delete(bindingId);
+            entityCache.evictBinding(bindingId);
+            changeFeed.publish(EntityType.BINDING, bindingId, Operation.DELETE);
+        }
+    }
+
+    /**
+     * Fail the broker request, rather than holding it, when the application stays locked (by a stopper waiting for
+     * a slow cloudfoundry call for instance). The cloud controller retries it later.
+     */
+    private void executeThreadSafe(String applicationId, Runnable task) {
+        try {
+            applicationLocker.executeThreadSafe(applicationId, task);
+        } catch (ApplicationLockTimeoutException a) {
+            throw new ServiceBrokerException("Application " + applicationId + " is busy, try again later", a);
         }
     }
 
@@ -24,12 +24,17 @@ import org.cloudfoundry.autosleep.ui.servicebroker.service.InvalidParameterExcep
 import org.cloudfoundry.autosleep.config.Config;
 import org.cloudfoundry.autosleep.config.Config.ServiceInstanceParameters;
 import org.cloudfoundry.autosleep.config.DeployedApplicationConfig;
-import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.cache.EntityCacheService;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
 import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
 import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
 import org.cloudfoundry.autosleep.access.dao.repositories.SpaceEnrollerConfigRepository;
 import org.cloudfoundry.autosleep.ui.servicebroker.service.parameters.ParameterReader;
+import org.cloudfoundry.autosleep.util.ApplicationLockTimeoutException;
 import org.cloudfoundry.autosleep.util.ApplicationLocker;
+import org.cloudfoundry.autosleep.util.ApplicationUpdater;
 import org.cloudfoundry.autosleep.worker.WorkerManagerService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -51,7 +56,9 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
@@ -66,13 +73,22 @@ public class AutosleepServiceInstanceService implements ServiceInstanceService {
     @Autowired
     private ApplicationLocker applicationLocker;
 
+    @Autowired
+    private ApplicationUpdater applicationUpdater;
+
     @Autowired
     @Qualifier(Config.ServiceInstanceParameters.AUTO_ENROLLMENT)
     private ParameterReader<Config.ServiceInstanceParameters.Enrollment> autoEnrollmentReader;
 
+    @Autowired
+    private ChangeFeed changeFeed;
+
     @Autowired
     private DeployedApplicationConfig.Deployment deployment;
 
+    @Autowired
+    private EntityCacheService entityCache;
+
     @Autowired
     private Environment environment;
 
@@ -161,6 +177,7 @@ public class AutosleepServiceInstanceService implements ServiceInstanceService {
             // save in repository before calling cloudfoundry because otherwise local service binding controller will
             // fail retrieving the service
             spaceEnrollerConfigRepository.save(spaceEnrollerConfig);
+            changeFeed.publish(EntityType.SPACE_ENROLLER_CONFIG, spaceEnrollerConfig.getId(), Operation.SAVE);
             workerManager.registerSpaceEnroller(spaceEnrollerConfig);
 
             String firstUri = deployment.getFirstUri();
@@ -186,6 +203,8 @@ public class AutosleepServiceInstanceService implements ServiceInstanceService {
                         + "enrollment mode. Switch back to normal enrollment mode to allow its deletion.");
             } else {
                 spaceEnrollerConfigRepository.delete(spaceEnrollerConfigId);
+                entityCache.evictSpaceEnrollerConfig(spaceEnrollerConfigId);
+                changeFeed.publish(EntityType.SPACE_ENROLLER_CONFIG, spaceEnrollerConfigId, Operation.DELETE);
             }
 
         } else {
@@ -194,22 +213,35 @@ public class AutosleepServiceInstanceService implements ServiceInstanceService {
         }
 
         //clean stored app linked to the service (already unbound)
+        List<String> busyApplicationIds = new ArrayList<>();
         appRepository.findAll()
-                .forEach(
-                        aInfo -> applicationLocker.executeThreadSafe(aInfo.getUuid(),
-                                () -> {
-                                    ApplicationInfo applicationInfoReloaded = appRepository.findOne(aInfo.getUuid());
-                                    if (applicationInfoReloaded != null
-                                            && !applicationInfoReloaded.getEnrollmentState()
-                                            .isCandidate(spaceEnrollerConfigId)) {
-                                        applicationInfoReloaded.getEnrollmentState()
-                                                .updateEnrollment(spaceEnrollerConfigId, false);
-                                        if (applicationInfoReloaded.getEnrollmentState().getStates().isEmpty()) {
-                                            appRepository.delete(applicationInfoReloaded);
-                                            applicationLocker.removeApplication(applicationInfoReloaded.getUuid());
-                                        }
-                                    }
-                                }));
+                .forEach(aInfo -> {
+                    try {
+                        applicationLocker.executeThreadSafe(aInfo.getUuid(),
+                                () -> applicationUpdater.update(aInfo.getUuid(),
+                                        applicationInfoReloaded -> {
+                                            if (applicationInfoReloaded != null
+                                                    && !applicationInfoReloaded.getEnrollmentState()
+                                                    .isCandidate(spaceEnrollerConfigId)) {
+                                                applicationInfoReloaded.getEnrollmentState()
+                                                        .updateEnrollment(spaceEnrollerConfigId, false);
+                                                if (applicationInfoReloaded.getEnrollmentState().getStates()
+                                                        .isEmpty()) {
+                                                    return null;
+                                                }
+                                            }
+                                            return applicationInfoReloaded;
+                                        }));
+                    } catch (ApplicationLockTimeoutException a) {
+                        log.warn("deleteServiceInstance - {} - application {} busy", spaceEnrollerConfigId,
+                                aInfo.getUuid());
+                        busyApplicationIds.add(aInfo.getUuid());
+                    }
+                });
+        if (!busyApplicationIds.isEmpty()) {
+            //the service is already deleted, the retried request cleans the remaining applications
+            throw new ServiceBrokerException("Applications " + busyApplicationIds + " are busy, try again later");
+        }
         return new DeleteServiceInstanceResponse().withAsync(false);
     }
 
@@ -265,6 +297,8 @@ public class AutosleepServiceInstanceService implements ServiceInstanceService {
                 spaceEnrollerConfig.setForcedAutoEnrollment(
                         autoEnrollment == Config.ServiceInstanceParameters.Enrollment.forced);
                 spaceEnrollerConfigRepository.save(spaceEnrollerConfig);
+                entityCache.evictSpaceEnrollerConfig(spaceEnrollerConfigId);
+                changeFeed.publish(EntityType.SPACE_ENROLLER_CONFIG, spaceEnrollerConfigId, Operation.SAVE);
             }
             return new UpdateServiceInstanceResponse().withAsync(false);
         }
@@ -0,0 +1,64 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.web.configuration;
+
+import org.cloudfoundry.autosleep.access.dao.config.data.ReadReplicaRoutingDataSource;
+import org.cloudfoundry.autosleep.config.Config;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Lets read-only transactions of GET requests on the API and the dashboard go to the read replica, when one is
+ * configured.
+ */
+@Configuration
+public class ReplicaReadsConfiguration extends WebMvcConfigurerAdapter {
+
+    private static class ReplicaReadsInterceptor extends HandlerInterceptorAdapter {
+
+        @Override
+        public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                    Exception ex) {
+            ReadReplicaRoutingDataSource.endReplicaReads();
+        }
+
+        @Override
+        public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+            if (HttpMethod.GET.matches(request.getMethod())) {
+                ReadReplicaRoutingDataSource.startReplicaReads();
+            }
+            return true;
+        }
+
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ReplicaReadsInterceptor())
+                .addPathPatterns(Config.Path.API_CONTEXT + "/**", Config.Path.DASHBOARD_CONTEXT + "/**");
+    }
+
+}
@@ -20,9 +20,8 @@
 package org.cloudfoundry.autosleep.ui.web.controller;
 
 import lombok.extern.slf4j.Slf4j;
-import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
-import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.ApplicationInfoBuilder;
-import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.DiagnosticInfo;
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationSummary;
 import org.cloudfoundry.autosleep.access.dao.model.Binding;
 import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
 import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
@@ -33,11 +32,13 @@ import org.cloudfoundry.autosleep.ui.security.SecurityManager;
 import org.cloudfoundry.autosleep.ui.security.SecurityManager.Authority;
 import org.cloudfoundry.autosleep.ui.web.model.ServerResponse;
 import org.cloudfoundry.autosleep.util.ApplicationLocker;
+import org.cloudfoundry.autosleep.worker.ActivityHistory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -45,13 +46,20 @@ import org.springframework.web.bind.annotation.ResponseBody;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import static org.cloudfoundry.autosleep.access.dao.model.Binding.ResourceType.Application;
 
 @Controller
 @RequestMapping(Config.Path.API_CONTEXT)
 @Slf4j
 public class ApiController {
 
+    @Autowired
+    private ActivityHistory activityHistory;
+
     @Autowired
     private BindingRepository applicationBindingRepository;
 
@@ -73,58 +81,60 @@ public class ApiController {
         applicationLocker.executeThreadSafe(applicationId,
                 () -> {
                     applicationRepository.delete(applicationId);
-                    applicationLocker.removeApplication(applicationId);
                     log.debug("deleteApplication - deleted");
                 });
 
         return new ResponseEntity<>("{}", HttpStatus.NO_CONTENT);
     }
 
-    private ApplicationInfo filterApplicationInformations(ApplicationInfo applicationInfo, boolean sendLogAndEvent) {
-        ApplicationInfoBuilder builder = ApplicationInfo.builder()
-                .name(applicationInfo.getName())
-                .uuid(applicationInfo.getUuid())
-                .enrollmentState(applicationInfo.getEnrollmentState());
-        DiagnosticInfo diagnosticInfo = applicationInfo.getDiagnosticInfo();
-        DiagnosticInfo.DiagnosticInfoBuilder diagnosticInfoBuilder = DiagnosticInfo.builder()
-                .appState(diagnosticInfo.getAppState())
-                .lastCheck(diagnosticInfo.getLastCheck().toEpochMilli())
-                .nextCheck(diagnosticInfo.getNextCheck().toEpochMilli());
-        if (sendLogAndEvent) {
-            diagnosticInfoBuilder.lastLog(diagnosticInfo.getLastLog())
-                    .lastEvent(diagnosticInfo.getLastEvent());
-        }
-        builder.diagnosticInfo(diagnosticInfoBuilder.build());
-        return builder.build();
+    @RequestMapping(value = Config.Path.APPLICATIONS_SUB_PATH + "{applicationId}/history")
+    @ResponseBody
+    @Transactional(readOnly = true)
+    public ServerResponse<List<ActivitySample>> getApplicationHistory(
+            @PathVariable("applicationId") String applicationId) {
+        log.debug("getApplicationHistory - {}", applicationId);
+        return new ServerResponse<>(activityHistory.getHistory(applicationId), Instant.now());
     }
 
     @RequestMapping(value = Config.Path.APPLICATIONS_SUB_PATH)
     @ResponseBody
-    public ServerResponse<List<ApplicationInfo>> listApplications() {
+    @Transactional(readOnly = true)
+    public ServerResponse<List<ApplicationSummary>> listApplications() {
         log.debug("listApplications");
-        List<ApplicationInfo> result = new ArrayList<>();
-        applicationRepository.findAll().forEach(result::add);
+        Set<String> watchedApplications = new HashSet<>(applicationBindingRepository.findResourceIds(Application));
+        List<ApplicationSummary> result = applicationRepository.findSummaries();
+        result.forEach(application -> application.setWatched(watchedApplications.contains(application.getUuid())));
         return new ServerResponse<>(result, Instant.now());
     }
 
     @RequestMapping(value = Config.Path.SERVICES_SUB_PATH + "{instanceId}/applications/")
     @ResponseBody
-    public ServerResponse<List<ApplicationInfo>> listApplicationsById(
+    @Transactional(readOnly = true)
+    public ServerResponse<List<ApplicationSummary>> listApplicationsById(
             @PathVariable("instanceId") String serviceInstanceId) {
-        List<ApplicationInfo> result = new ArrayList<>();
         boolean sendLogAndEvent = securityManager.hasAuthority(Authority.Admin);
         log.debug("listApplicationsById - isAdmin={}", sendLogAndEvent);
-        applicationRepository.findAll()
-                .forEach(app -> {
-                    if (app.getEnrollmentState().getStates().keySet().contains(serviceInstanceId)) {
-                        result.add(filterApplicationInformations(app, sendLogAndEvent));
-                    }
+        //bound applications are enrolled by this service
+        List<ApplicationSummary> result = new ArrayList<>(
+                applicationRepository.findSummariesBoundTo(serviceInstanceId, Application));
+        result.forEach(application -> application.setWatched(true));
+        //the others may have opted out of it, and are still watched if another service enrolled them
+        Set<String> watched = new HashSet<>(
+                applicationRepository.findWatchedIdsOptedOutOf(serviceInstanceId, Application));
+        applicationRepository.findSummariesOptedOutOf(serviceInstanceId, Application)
+                .forEach(application -> {
+                    application.setWatched(watched.contains(application.getUuid()));
+                    result.add(application);
                 });
+        if (!sendLogAndEvent) {
+            result.forEach(ApplicationSummary::hideLogAndEvent);
+        }
         return new ServerResponse<>(result, Instant.now());
     }
 
     @RequestMapping(Config.Path.SERVICES_SUB_PATH + "{instanceId}/bindings/")
     @ResponseBody
+    @Transactional(readOnly = true)
     public ServerResponse<List<Binding>> listBindings(@PathVariable("instanceId") String serviceInstanceId)
             throws ServiceInstanceDoesNotExistException {
         log.debug("listServiceBindings - {}", serviceInstanceId);
@@ -140,6 +150,7 @@ public class ApiController {
 
     @RequestMapping(Config.Path.SERVICES_SUB_PATH)
     @ResponseBody
+    @Transactional(readOnly = true)
     public ServerResponse<List<SpaceEnrollerConfig>> listInstances() {
         log.debug("listServiceInstances");
         List<SpaceEnrollerConfig> result = new ArrayList<>();
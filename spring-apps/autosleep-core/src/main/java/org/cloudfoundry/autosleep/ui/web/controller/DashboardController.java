@@ -30,6 +30,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -52,6 +53,7 @@ public class DashboardController {
     private SpaceEnrollerConfigRepository spaceEnrollerConfigRepository;
 
     @RequestMapping("/{serviceInstanceId}")
+    @Transactional(readOnly = true)
     public ModelAndView appForService(@PathVariable("serviceInstanceId") String serviceInstanceId)
             throws ServiceInstanceDoesNotExistException {
         SpaceEnrollerConfig serviceInstance = spaceEnrollerConfigRepository.findOne(serviceInstanceId);
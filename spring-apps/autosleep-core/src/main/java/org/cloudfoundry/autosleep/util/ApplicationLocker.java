@@ -19,40 +19,148 @@
 
 package org.cloudfoundry.autosleep.util;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.Lock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Serializes the work done on an application. A lock is only kept while a thread holds or waits for it, so that memory
+ * does not grow with every application ever seen. The {@link LockProvider} extends the lock to other instances.
+ */
 @Service
-public class ApplicationLocker {
+public class ApplicationLocker implements PublicMetrics {
+
+    private static class CountedLock {
+
+        private final ReentrantLock lock = new ReentrantLock(false);
+
+        /**
+         * Threads holding or waiting for the lock, only updated within the map compute methods.
+         */
+        private int users;
+
+    }
+
+    private final LongAdder acquisitions = new LongAdder();
+
+    private final LongAdder contentions = new LongAdder();
 
-    private Map<String, Lock> locks = new HashMap<>();
+    @Autowired
+    private LockProvider lockProvider;
+
+    private final ConcurrentMap<String, CountedLock> locks = new ConcurrentHashMap<>();
+
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Long::max, 0L);
+
+    @Value("${autosleep.locker.timeout:PT30S}")
+    private String timeout;
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder waitNanos = new LongAdder();
+
+    private CountedLock acquire(String applicationId) {
+        return locks.compute(applicationId, (id, counted) -> {
+            CountedLock result = counted == null ? new CountedLock() : counted;
+            result.users++;
+            return result;
+        });
+    }
 
+    /**
+     * Run the task with the application locked, waiting for the lock at most autosleep.locker.timeout.
+     *
+     * @throws ApplicationLockTimeoutException if the lock was not taken in time, the task being not run
+     */
     public void executeThreadSafe(String applicationId, Runnable reneEbel) {
-        Lock lock = locks.get(applicationId);
-        if (lock == null) {
-            synchronized (locks) {
-                lock = locks.get(applicationId);
-                if (lock == null) {
-                    lock = new ReentrantLock(false);
-                    locks.put(applicationId, lock);
-                }
-            }
+        if (!tryExecuteThreadSafe(applicationId, Duration.parse(timeout), reneEbel)) {
+            throw new ApplicationLockTimeoutException(applicationId);
+        }
+    }
+
+    private boolean lock(ReentrantLock lock, Duration timeout) {
+        acquisitions.increment();
+        if (lock.tryLock()) {
+            return true;
         }
-        lock.lock();
+        contentions.increment();
+        long start = System.nanoTime();
         try {
-            reneEbel.run();
+            return lock.tryLock(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException i) {
+            Thread.currentThread().interrupt();
+            return false;
         } finally {
-            lock.unlock();
+            long waited = System.nanoTime() - start;
+            waitNanos.add(waited);
+            maxWaitNanos.accumulate(waited);
         }
     }
 
-    public void removeApplication(String applicationId) {
-        synchronized (locks) {
-            locks.remove(applicationId);
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<>("autosleep.locker.acquisitions", acquisitions.sum()));
+        result.add(new Metric<>("autosleep.locker.contentions", contentions.sum()));
+        result.add(new Metric<>("autosleep.locker.locks", locks.size()));
+        result.add(new Metric<>("autosleep.locker.timeouts", timeouts.sum()));
+        result.add(new Metric<>("autosleep.locker.wait.time", TimeUnit.NANOSECONDS.toMillis(waitNanos.sum())));
+        result.add(new Metric<>("autosleep.locker.wait.time.max",
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get())));
+        return result;
+    }
+
+    private void release(String applicationId) {
+        locks.computeIfPresent(applicationId, (id, counted) -> --counted.users == 0 ? null : counted);
+    }
+
+    /**
+     * Run the task with the application locked, if the lock can be taken within the timeout.
+     *
+     * @return false if the lock was not taken in time, the task being not run
+     */
+    public boolean tryExecuteThreadSafe(String applicationId, Duration timeout, Runnable reneEbel) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        CountedLock counted = acquire(applicationId);
+        try {
+            if (!lock(counted.lock, timeout)) {
+                timeouts.increment();
+                return false;
+            }
+            try {
+                //reentrant calls already hold the shared lock
+                boolean first = counted.lock.getHoldCount() == 1;
+                if (first && !lockProvider.tryLock(applicationId,
+                        Duration.ofNanos(Math.max(0L, deadline - System.nanoTime())))) {
+                    timeouts.increment();
+                    return false;
+                }
+                try {
+                    reneEbel.run();
+                } finally {
+                    if (first) {
+                        lockProvider.unlock(applicationId);
+                    }
+                }
+                return true;
+            } finally {
+                counted.lock.unlock();
+            }
+        } finally {
+            release(applicationId);
         }
     }
 
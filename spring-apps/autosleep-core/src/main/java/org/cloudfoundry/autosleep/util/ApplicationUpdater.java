@@ -0,0 +1,91 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Read-modify-write of {@link ApplicationInfo} arbitrated by the database: the version column rejects an update
+ * made on a stale copy, in which case the application is read again and the update re-applied.
+ */
+@Slf4j
+@Service
+public class ApplicationUpdater {
+
+    @Autowired
+    private ApplicationRepository applicationRepository;
+
+    @Value("${autosleep.optimistic.retry.max.attempts:5}")
+    private int maxAttempts;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ApplicationInfo attempt(String applicationId, UnaryOperator<ApplicationInfo> update) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            ApplicationInfo stored = applicationRepository.findOne(applicationId);
+            ApplicationInfo updated = update.apply(stored);
+            if (updated != null) {
+                return applicationRepository.save(updated);
+            } else {
+                if (stored != null) {
+                    applicationRepository.delete(applicationId);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Apply an update to the stored version of an application, retrying on concurrent modification.
+     * The update may be called several times and must only depend on the application it is given.
+     *
+     * @param applicationId id of the application
+     * @param update        receives the stored application (null if unknown), returns the application to save, or
+     *                      null to delete it
+     * @return the saved application, null if deleted
+     * @throws OptimisticLockingFailureException if every attempt conflicted
+     */
+    public ApplicationInfo update(String applicationId, UnaryOperator<ApplicationInfo> update) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return attempt(applicationId, update);
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= maxAttempts) {
+                    log.error("update - application {} still conflicting after {} attempts", applicationId,
+                            attempt);
+                    throw e;
+                }
+                log.debug("update - concurrent modification of application {}, retrying", applicationId);
+            }
+        }
+    }
+
+}
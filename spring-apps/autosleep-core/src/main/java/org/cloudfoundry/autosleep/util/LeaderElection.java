@@ -0,0 +1,81 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Elect a single instance among the ones sharing the database for a given role. The leader holds a lease renewed by
+ * the lease heartbeat; if it dies, another instance takes over once the lease expired.
+ */
+@Slf4j
+@Service
+public class LeaderElection {
+
+    private static final String LEADER_PREFIX = "leader:";
+
+    @Value("${autosleep.leader.election.enabled:false}")
+    private boolean enabled;
+
+    @Autowired
+    private LeaseManager leaseManager;
+
+    @Value("${autosleep.leader.election.retry.period:PT30S}")
+    private String retryPeriod;
+
+    /**
+     * How long a follower waits before trying again to become leader.
+     */
+    public Duration getRetryPeriod() {
+        return Duration.parse(retryPeriod);
+    }
+
+    /**
+     * Whether this instance leads the given role, becoming leader if nobody else does. Always true when election is
+     * disabled.
+     */
+    public boolean isLeader(String role) {
+        if (!enabled) {
+            return true;
+        }
+        String name = LEADER_PREFIX + role;
+        try {
+            return leaseManager.isHeld(name) || leaseManager.tryAcquire(name).isPresent();
+        } catch (RuntimeException r) {
+            log.error("isLeader - cannot elect leader of {}", role, r);
+            return false;
+        }
+    }
+
+    /**
+     * Give up the given role, if led, so that another instance can take it over without waiting.
+     */
+    public void resign(String role) {
+        if (enabled) {
+            leaseManager.release(LEADER_PREFIX + role);
+        }
+    }
+
+}
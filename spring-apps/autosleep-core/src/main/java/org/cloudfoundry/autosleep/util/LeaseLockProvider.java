@@ -0,0 +1,75 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Provider for several autosleep instances sharing a database: each lock is a lease of the lease table.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "autosleep.lock.provider", havingValue = "lease")
+public class LeaseLockProvider implements LockProvider {
+
+    private static final String PREFIX = "application:";
+
+    @Autowired
+    private LeaseManager leaseManager;
+
+    @Value("${autosleep.lease.retry.delay:PT0.2S}")
+    private String retryDelay;
+
+    @Autowired
+    private TimeManager timeManager;
+
+    @Override
+    public boolean tryLock(String name, Duration timeout) {
+        Duration delay = Duration.parse(retryDelay);
+        Instant deadline = Instant.now().plus(timeout);
+        while (!leaseManager.tryAcquire(PREFIX + name).isPresent()) {
+            if (!Instant.now().isBefore(deadline)) {
+                log.debug("tryLock - {} still held by another instance, giving up", name);
+                return false;
+            }
+            log.debug("tryLock - {} held by another instance, waiting", name);
+            try {
+                timeManager.sleep(delay);
+            } catch (InterruptedException i) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void unlock(String name) {
+        leaseManager.release(PREFIX + name);
+    }
+
+}
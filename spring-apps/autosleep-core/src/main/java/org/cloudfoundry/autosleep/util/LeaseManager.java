@@ -0,0 +1,208 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.util;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.model.Lease;
+import org.cloudfoundry.autosleep.access.dao.repositories.LeaseRepository;
+import org.cloudfoundry.autosleep.config.Config;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leases held by this instance in the lease table. Held leases are renewed by a heartbeat, well before they expire;
+ * an instance that stops renewing (crash, network partition) loses them once expired. The heartbeat runs on its own
+ * thread, so that busy worker tasks cannot delay it past expiry.
+ */
+@Slf4j
+@Service
+public class LeaseManager {
+
+    private static class HeldLease {
+
+        /**
+         * Expiry written by the last successful acquisition or renewal.
+         */
+        private volatile long expiresAt;
+
+        private final long token;
+
+        private HeldLease(long token, long expiresAt) {
+            this.expiresAt = expiresAt;
+            this.token = token;
+        }
+
+    }
+
+    private static final Duration PURGE_PERIOD = Duration.ofHours(1);
+
+    @Value("${autosleep.lease.duration:PT30S}")
+    private String duration;
+
+    /**
+     * Held leases, with the token they were acquired with, used to release them.
+     */
+    private final Map<String, HeldLease> held = new ConcurrentHashMap<>();
+
+    @Value("${autosleep.lease.heartbeat.period:PT10S}")
+    private String heartbeatPeriod;
+
+    private ScheduledExecutorService heartbeatScheduler;
+
+    private long lastPurge;
+
+    @Autowired
+    private LeaseRepository leaseRepository;
+
+    @Getter
+    private final String owner = UUID.randomUUID().toString();
+
+    @Value("${autosleep.lease.retention:P1D}")
+    private String retention;
+
+    /**
+     * Renew every lease held, forget the ones lost, and delete leases released long ago.
+     */
+    public void heartbeat() {
+        long now = Instant.now().toEpochMilli();
+        try {
+            if (!held.isEmpty()) {
+                long expiresAt = now + Duration.parse(duration).toMillis();
+                //leases acquired meanwhile are left as they are
+                Map<String, HeldLease> renewing = new HashMap<>(held);
+                leaseRepository.renewAll(owner, now, expiresAt);
+                //expired before being renewed, some other instance may hold them now
+                Set<String> renewed = new HashSet<>(leaseRepository.findNamesHeldBy(owner, now));
+                renewing.forEach((name, lease) -> {
+                    if (renewed.contains(name)) {
+                        lease.expiresAt = expiresAt;
+                    } else if (held.remove(name, lease)) {
+                        log.error("heartbeat - lease {} lost", name);
+                    }
+                });
+            }
+            if (now - lastPurge > PURGE_PERIOD.toMillis()) {
+                lastPurge = now;
+                leaseRepository.deleteReleasedBefore(now - Duration.parse(retention).toMillis());
+            }
+        } catch (RuntimeException r) {
+            log.error("heartbeat - failed", r);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        long period = Duration.parse(heartbeatPeriod).toMillis();
+        heartbeatScheduler = Executors.newScheduledThreadPool(Config.NB_THREAD_FOR_LEASE_HEARTBEAT);
+        heartbeatScheduler.scheduleWithFixedDelay(this::heartbeat, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Whether the given lease is held. A lease that could not be renewed before its expiry is no longer held, even if
+     * the heartbeat did not notice it yet (database unreachable...): another instance may have taken it over.
+     */
+    public boolean isHeld(String name) {
+        HeldLease lease = held.get(name);
+        if (lease == null) {
+            return false;
+        } else if (lease.expiresAt <= Instant.now().toEpochMilli()) {
+            if (held.remove(name, lease)) {
+                log.error("isHeld - lease {} expired before being renewed", name);
+            }
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    /**
+     * Release the given lease, if held.
+     */
+    public void release(String name) {
+        HeldLease lease = held.remove(name);
+        if (lease != null) {
+            leaseRepository.release(name, owner, lease.token, Instant.now().toEpochMilli());
+        }
+    }
+
+    @PreDestroy
+    public void releaseAll() {
+        if (heartbeatScheduler != null) {
+            heartbeatScheduler.shutdownNow();
+        }
+        if (!held.isEmpty()) {
+            held.clear();
+            leaseRepository.releaseAll(owner, Instant.now().toEpochMilli());
+        }
+    }
+
+    /**
+     * Take a lease if it is free, released or expired. Does not wait.
+     *
+     * @param name name of the lease
+     * @return the token of the lease if taken, empty if held by another instance. It is incremented by each take
+     * over, so that a former holder cannot release the lease; writes done while holding it are not checked against
+     * it
+     */
+    public OptionalLong tryAcquire(String name) {
+        long now = Instant.now().toEpochMilli();
+        long expiresAt = now + Duration.parse(duration).toMillis();
+        Long token = null;
+        if (leaseRepository.takeOver(name, owner, now, expiresAt) == 1) {
+            token = leaseRepository.findToken(name, owner);
+        } else if (!leaseRepository.exists(name)) {
+            try {
+                token = leaseRepository.saveAndFlush(Lease.builder()
+                        .name(name)
+                        .owner(owner)
+                        .expiresAt(expiresAt)
+                        .token(1L)
+                        .build()).getToken();
+            } catch (DataIntegrityViolationException d) {
+                log.debug("tryAcquire - lease {} created concurrently", name);
+            }
+        }
+        if (token == null) {
+            return OptionalLong.empty();
+        } else {
+            held.put(name, new HeldLease(token, expiresAt));
+            return OptionalLong.of(token);
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.util;
+
+import java.time.Duration;
+
+/**
+ * Lock shared with the other autosleep instances, taken by {@link ApplicationLocker} once the application is locked
+ * within this instance.
+ */
+public interface LockProvider {
+
+    /**
+     * Wait until this instance holds the lock, at most for the given timeout.
+     *
+     * @param name    name of the lock
+     * @param timeout maximum time to wait
+     * @return whether the lock is held
+     */
+    boolean tryLock(String name, Duration timeout);
+
+    void unlock(String name);
+
+}
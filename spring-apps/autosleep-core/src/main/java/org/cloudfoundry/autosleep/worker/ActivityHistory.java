@@ -0,0 +1,210 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample;
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample.Resolution;
+import org.cloudfoundry.autosleep.access.dao.repositories.ActivitySampleRepository;
+import org.cloudfoundry.autosleep.util.LeaderElection;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps, for each application, how many checks found it active. Samples are buffered and inserted in batches, then
+ * compacted in the background: raw samples into hourly buckets, hourly into daily ones, and daily buckets are dropped
+ * after their retention, which bounds the storage per application. Compaction merges samples into shared buckets, so
+ * only the leader of the compaction role runs it.
+ */
+@Service
+@Slf4j
+public class ActivityHistory {
+
+    static final String COMPACTION_ROLE = "history-compaction";
+
+    @Autowired
+    private ActivitySampleRepository activitySampleRepository;
+
+    @Value("${autosleep.history.compaction.batch.size:500}")
+    private int compactionBatchSize;
+
+    @Value("${autosleep.history.compaction.period:PT1H}")
+    private String compactionPeriod;
+
+    @Value("${autosleep.history.daily.retention:P90D}")
+    private String dailyRetention;
+
+    @Value("${autosleep.history.enabled:true}")
+    private boolean enabled;
+
+    @Value("${autosleep.history.flush.period:PT10S}")
+    private String flushPeriod;
+
+    @Value("${autosleep.history.hourly.retention:P7D}")
+    private String hourlyRetention;
+
+    @Autowired
+    private LeaderElection leaderElection;
+
+    private final List<ActivitySample> pending = new ArrayList<>();
+
+    @Value("${autosleep.history.raw.retention:P1D}")
+    private String rawRetention;
+
+    @Autowired
+    private TimeManager timeManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * Compact samples older than retention periods, and drop the oldest daily buckets.
+     */
+    public void compact() {
+        if (!leaderElection.isLeader(COMPACTION_ROLE)) {
+            log.debug("compact - compaction run by another instance");
+            return;
+        }
+        long now = Instant.now().toEpochMilli();
+        try {
+            int raw = compact(Resolution.RAW, Resolution.HOURLY,
+                    Resolution.HOURLY.truncate(now - Duration.parse(rawRetention).toMillis()));
+            int hourly = compact(Resolution.HOURLY, Resolution.DAILY,
+                    Resolution.DAILY.truncate(now - Duration.parse(hourlyRetention).toMillis()));
+            int dropped = activitySampleRepository.deleteOlderThan(Resolution.DAILY,
+                    now - Duration.parse(dailyRetention).toMillis());
+            log.debug("compact - {} raw and {} hourly samples compacted, {} daily dropped", raw, hourly, dropped);
+        } catch (RuntimeException r) {
+            log.error("compact - failed", r);
+        }
+    }
+
+    private int compact(Resolution from, Resolution to, long before) {
+        int total = 0;
+        int compacted;
+        do {
+            compacted = new TransactionTemplate(transactionManager).execute(status -> {
+                List<ActivitySample> samples = activitySampleRepository
+                        .findByResolutionAndPeriodStartLessThan(from, before, new PageRequest(0, compactionBatchSize));
+                Map<String, ActivitySample> buckets = new LinkedHashMap<>();
+                samples.forEach(sample -> {
+                    String bucketId = ActivitySample.buildId(sample.getAppUuid(), to,
+                            to.truncate(sample.getPeriodStart()));
+                    buckets.computeIfAbsent(bucketId, id -> {
+                        ActivitySample stored = activitySampleRepository.findOne(id);
+                        return stored != null ? stored : ActivitySample.builder()
+                                .appUuid(sample.getAppUuid())
+                                .resolution(to)
+                                .periodStart(sample.getPeriodStart())
+                                .build();
+                    }).add(sample);
+                });
+                activitySampleRepository.save(buckets.values());
+                activitySampleRepository.delete(samples);
+                return samples.size();
+            });
+            total += compacted;
+        } while (compacted == compactionBatchSize);
+        return total;
+    }
+
+    /**
+     * Insert buffered samples.
+     */
+    public void flush() {
+        List<ActivitySample> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        try {
+            activitySampleRepository.save(batch);
+        } catch (RuntimeException r) {
+            log.error("flush - failed to write {} activity samples", batch.size(), r);
+        }
+    }
+
+    public List<ActivitySample> getHistory(String appUuid) {
+        return activitySampleRepository.findByAppUuidOrderByPeriodStartAsc(appUuid);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            schedule(this::flush, Duration.parse(flushPeriod));
+            schedule(this::compact, Duration.parse(compactionPeriod));
+        }
+    }
+
+    /**
+     * Record the result of an application check.
+     *
+     * @param appUuid   application checked
+     * @param checkTime time of the check
+     * @param active    whether the application was found active
+     */
+    public void record(String appUuid, Instant checkTime, boolean active) {
+        if (enabled) {
+            ActivitySample sample = ActivitySample.builder()
+                    .appUuid(appUuid)
+                    .resolution(Resolution.RAW)
+                    .periodStart(checkTime.toEpochMilli())
+                    .samples(1)
+                    .activeSamples(active ? 1 : 0)
+                    .build();
+            synchronized (pending) {
+                pending.add(sample);
+            }
+        }
+    }
+
+    private void schedule(Runnable task, Duration period) {
+        timeManager.scheduleMaintenance(() -> {
+            try {
+                task.run();
+            } finally {
+                schedule(task, period);
+            }
+        }, period);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+}
@@ -24,7 +24,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
 import org.cloudfoundry.autosleep.access.cloudfoundry.model.ApplicationActivity;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
 import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
 import org.cloudfoundry.autosleep.access.dao.model.ProxyMapEntry;
 import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
 import org.cloudfoundry.autosleep.access.dao.repositories.ProxyMapEntryRepository;
@@ -36,11 +39,16 @@ import org.cloudfoundry.autosleep.worker.scheduling.Clock;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 class ApplicationStopper extends AbstractPeriodicTask {
 
+    private final ActivityHistory activityHistory;
+
     private final String appUid;
 
     private final ApplicationLocker applicationLocker;
@@ -49,14 +57,26 @@ class ApplicationStopper extends AbstractPeriodicTask {
 
     private final String bindingId;
 
+    private final ChangeFeed changeFeed;
+
     private final CloudFoundryApiService cloudFoundryApi;
 
+    private final DiagnosticWriteBehind diagnosticWriteBehind;
+
     private final Boolean ignoreRouteBindingError;
 
+    private final Duration lockRetryDelay;
+
+    private final Duration lockTimeout;
+
     private final ProxyMapEntryRepository proxyMap;
 
+    private final ShardManager shardManager;
+
     private final String spaceEnrollerConfigId;
 
+    private final StandbyManager standbyManager;
+
     @Builder
     ApplicationStopper(Clock clock,
                        Duration period,
@@ -66,8 +86,15 @@ class ApplicationStopper extends AbstractPeriodicTask {
                        CloudFoundryApiService cloudFoundryApi,
                        ApplicationRepository applicationRepository,
                        ApplicationLocker applicationLocker,
+                       DiagnosticWriteBehind diagnosticWriteBehind,
                        boolean ignoreRouteBindingError,
-                       ProxyMapEntryRepository proxyMap) {
+                       ProxyMapEntryRepository proxyMap,
+                       ActivityHistory activityHistory,
+                       ChangeFeed changeFeed,
+                       ShardManager shardManager,
+                       StandbyManager standbyManager,
+                       Duration lockTimeout,
+                       Duration lockRetryDelay) {
         super(clock, period);
         this.appUid = appUid;
         this.spaceEnrollerConfigId = spaceEnrollerConfigId;
@@ -75,31 +102,28 @@ class ApplicationStopper extends AbstractPeriodicTask {
         this.cloudFoundryApi = cloudFoundryApi;
         this.applicationRepository = applicationRepository;
         this.applicationLocker = applicationLocker;
+        this.diagnosticWriteBehind = diagnosticWriteBehind;
         this.ignoreRouteBindingError = ignoreRouteBindingError;
         this.proxyMap = proxyMap;
+        this.activityHistory = activityHistory;
+        this.changeFeed = changeFeed;
+        this.shardManager = shardManager;
+        this.standbyManager = standbyManager;
+        this.lockTimeout = lockTimeout;
+        this.lockRetryDelay = lockRetryDelay;
     }
 
-    private Duration checkActiveApplication(ApplicationInfo applicationInfo, ApplicationActivity applicationActivity)
-            throws CloudFoundryException {
-        //retrieve updated info
-        Duration delta = null;
+    private Instant computeNextIdleTime(ApplicationActivity applicationActivity) {
         Instant lastEvent = LastDateComputer.computeLastDate(
                 applicationActivity.getLastLog(),
                 applicationActivity.getLastEvent());
         if (lastEvent != null) {
-            Instant nextIdleTime = lastEvent.plus(getPeriod());
             log.debug("last event:  {}", lastEvent.toString());
-
-            if (nextIdleTime.isBefore(Instant.now())) {
-                putApplicationToSleep(applicationInfo, applicationActivity);
-            } else {
-                //rescheduled itself
-                delta = Duration.between(Instant.now(), nextIdleTime);
-            }
+            return lastEvent.plus(getPeriod());
         } else {
             log.error("cannot find last event");
+            return null;
         }
-        return delta;
     }
 
     @Override
@@ -111,11 +135,13 @@ class ApplicationStopper extends AbstractPeriodicTask {
         log.debug("Known application, but ignored (blacklisted). Cancelling task.");
         stopTask();
         applicationInfo.clearCheckInformation();
-        applicationRepository.save(applicationInfo);
+        diagnosticWriteBehind.saveNow(applicationInfo);
     }
 
     protected void handleApplicationEnrolled(ApplicationInfo applicationInfo) {
         Duration rescheduleDelta = null;
+        boolean active = false;
+        boolean putToSleep = false;
         try {
             ApplicationActivity applicationActivity = cloudFoundryApi.getApplicationActivity(appUid);
             log.debug("Checking on app {} state", appUid);
@@ -128,21 +154,36 @@ class ApplicationStopper extends AbstractPeriodicTask {
             if (CloudFoundryAppState.STOPPED.equals(applicationActivity.getState())) {
                 log.debug("App already stopped.");
             } else {
-                rescheduleDelta = checkActiveApplication(applicationInfo, applicationActivity);
+                Instant nextIdleTime = computeNextIdleTime(applicationActivity);
+                if (nextIdleTime != null && !nextIdleTime.isBefore(Instant.now())) {
+                    //rescheduled itself
+                    active = true;
+                    rescheduleDelta = Duration.between(Instant.now(), nextIdleTime);
+                } else if (nextIdleTime != null) {
+                    putToSleep = putApplicationToSleep(applicationInfo, applicationActivity);
+                    if (!putToSleep) {
+                        log.debug("App {} modified or busy during the check, stop deferred", appUid);
+                        rescheduleDelta = lockRetryDelay;
+                    }
+                }
             }
+            activityHistory.record(appUid, Instant.now(), active);
         } catch (CloudFoundryException c) {
             log.error("error while requesting cloudfoundry api", c);
         } catch (Throwable t) {
             log.error("unsuspected error", t);
         } finally {
-            Instant nextCheckTime;
-            if (rescheduleDelta == null) {
-                nextCheckTime = rescheduleWithDefaultPeriod();
-            } else {
-                nextCheckTime = reschedule(rescheduleDelta);
+            //an application put to sleep was rescheduled and saved with the lock held
+            if (!putToSleep) {
+                Instant nextCheckTime;
+                if (rescheduleDelta == null) {
+                    nextCheckTime = rescheduleWithDefaultPeriod();
+                } else {
+                    nextCheckTime = reschedule(rescheduleDelta);
+                }
+                applicationInfo.markAsChecked(nextCheckTime);
+                diagnosticWriteBehind.save(applicationInfo);
             }
-            applicationInfo.markAsChecked(nextCheckTime);
-            applicationRepository.save(applicationInfo);
         }
 
     }
@@ -152,12 +193,18 @@ class ApplicationStopper extends AbstractPeriodicTask {
         stopTask();
     }
 
-    private void putApplicationToSleep(ApplicationInfo applicationInfo, ApplicationActivity applicationActivity) throws
-            CloudFoundryException {
-        log.info("Stopping app [{} / {}], last event: {}, last log: {}",
-                applicationActivity.getApplication().getName(), appUid,
-                applicationActivity.getLastEvent(), applicationActivity.getLastLog());
+    /**
+     * Make sure, with the application locked, that its enrollment did not change since it was read before the
+     * cloudfoundry calls (unbound, blacklisted...). Diagnostic writes are ignored, they do not touch the enrollment.
+     */
+    private boolean isUnchanged(ApplicationInfo applicationInfo) {
+        ApplicationInfo stored = applicationRepository.findOne(appUid);
+        return stored != null
+                && stored.getEnrollmentState().equals(applicationInfo.getEnrollmentState())
+                && stored.getEnrollmentState().isEnrolledByService(spaceEnrollerConfigId);
+    }
 
+    private List<String> listHosts() throws CloudFoundryException {
         //retrieve all routes for this app
         List<String> routeIds = cloudFoundryApi.listApplicationRoutes(appUid);
         /*TODO uncomment whenever route services handle stopped apps
@@ -171,35 +218,87 @@ class ApplicationStopper extends AbstractPeriodicTask {
             }
         }*/
 
+        List<String> hosts = new ArrayList<>();
         routeIds.forEach(id -> {
             try {
                 String host = cloudFoundryApi.getHost(id);
                 log.debug("Got host {}", host);
-                proxyMap.save(new ProxyMapEntry(host, appUid));
+                hosts.add(host);
             } catch (CloudFoundryException e) {
                 log.error("Couldn't get host corresponding to a route ", e);
             }
         });
+        return hosts;
+    }
 
-        cloudFoundryApi.stopApplication(appUid);
-        applicationInfo.markAsPutToSleep();
+    /**
+     * Routes are resolved without holding the application lock. The check that the application was not modified, the
+     * stop and the write of its new state are then made with the lock held, so that they are ordered with any other
+     * modification of the application.
+     *
+     * @return false if the application was modified or locked by someone else, and not stopped
+     */
+    private boolean putApplicationToSleep(ApplicationInfo applicationInfo, ApplicationActivity applicationActivity)
+            throws CloudFoundryException {
+        List<String> hosts = listHosts();
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        AtomicReference<CloudFoundryException> failure = new AtomicReference<>();
+        boolean locked = applicationLocker.tryExecuteThreadSafe(appUid, lockTimeout, () -> {
+            if (!isUnchanged(applicationInfo)) {
+                return;
+            }
+            log.info("Stopping app [{} / {}], last event: {}, last log: {}",
+                    applicationActivity.getApplication().getName(), appUid,
+                    applicationActivity.getLastEvent(), applicationActivity.getLastLog());
+            List<String> saved = new ArrayList<>();
+            for (String host : hosts) {
+                proxyMap.save(new ProxyMapEntry(host, appUid));
+                saved.add(host);
+                if (!changeFeed.publish(EntityType.PROXY_MAP_ENTRY, host, Operation.SAVE)) {
+                    //the proxies filter unknown hosts with the feed, they would not wake the application up
+                    log.error("Host {} of app {} not published, stop deferred", host, appUid);
+                    //the application keeps running, its hosts must not be routed to the proxy
+                    proxyMap.deleteByHosts(saved);
+                    saved.forEach(savedHost -> changeFeed.publish(EntityType.PROXY_MAP_ENTRY, savedHost,
+                            Operation.DELETE));
+                    return;
+                }
+            }
+            try {
+                cloudFoundryApi.stopApplication(appUid);
+            } catch (CloudFoundryException c) {
+                failure.set(c);
+                return;
+            }
+            applicationInfo.markAsPutToSleep();
+            applicationInfo.markAsChecked(rescheduleWithDefaultPeriod());
+            diagnosticWriteBehind.saveNow(applicationInfo);
+            stopped.set(true);
+        });
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return locked && stopped.get();
     }
 
     @Override
     public void run() {
-        applicationLocker.executeThreadSafe(this.appUid,
-                () -> {
-                    ApplicationInfo applicationInfo = applicationRepository.findOne(appUid);
-                    if (applicationInfo == null) {
-                        handleApplicationNotFound();
-                    } else {
-                        if (applicationInfo.getEnrollmentState().isEnrolledByService(spaceEnrollerConfigId)) {
-                            handleApplicationEnrolled(applicationInfo);
-                        } else {
-                            handleApplicationBlackListed(applicationInfo);
-                        }
-                    }
-                });
+        if (!standbyManager.isActive() || !shardManager.owns(appUid)) {
+            log.debug("Application {} now watched by another instance. Cancelling task.", appUid);
+            stopTask();
+            return;
+        }
+        //cloudfoundry calls are made without holding the application lock, see isUnchanged
+        ApplicationInfo applicationInfo = applicationRepository.findOne(appUid);
+        if (applicationInfo == null) {
+            handleApplicationNotFound();
+        } else {
+            if (applicationInfo.getEnrollmentState().isEnrolledByService(spaceEnrollerConfigId)) {
+                handleApplicationEnrolled(applicationInfo);
+            } else {
+                handleApplicationBlackListed(applicationInfo);
+            }
+        }
     }
 
 }
@@ -0,0 +1,169 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffers diagnostic updates (last check, next check, last log/event) made by the application stoppers, and writes
+ * them in a single batched transaction, either when the buffer is full or periodically.
+ * Transitions that matter (putting an app to sleep, clearing check information) must go through {@link #saveNow}.
+ * Writes only touch the diagnostic columns, an application deleted in the meantime is not re-created.
+ */
+@Service
+@Slf4j
+public class DiagnosticWriteBehind {
+
+    @Autowired
+    private ApplicationRepository applicationRepository;
+
+    @Value("${autosleep.write.behind.batch.size:100}")
+    private int batchSize;
+
+    @Value("${autosleep.write.behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${autosleep.write.behind.flush.period:PT5S}")
+    private String flushPeriod;
+
+    private final Map<String/*uuid*/, ApplicationInfo> pending = new LinkedHashMap<>();
+
+    @Autowired
+    private TimeManager timeManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * Held while writing, so that a batch drained by a flush cannot be written after a more recent saveNow.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Write every pending diagnostic update in a single transaction.
+     * Entities are reloaded so that only diagnostic information is applied, other fields are left as stored.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            List<ApplicationInfo> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+            log.debug("flush - {} diagnostic updates", batch.size());
+            try {
+                new TransactionTemplate(transactionManager).execute(status -> {
+                    Map<String, ApplicationInfo> updates = new LinkedHashMap<>();
+                    batch.forEach(applicationInfo -> updates.put(applicationInfo.getUuid(), applicationInfo));
+                    applicationRepository.findAll(updates.keySet())
+                            .forEach(stored -> stored.copyDiagnosticInfo(updates.get(stored.getUuid())));
+                    return null;
+                });
+            } catch (RuntimeException r) {
+                log.error("flush - failed to write {} diagnostic updates", batch.size(), r);
+            }
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            log.info("Write-behind of diagnostic updates enabled (batch size {}, flush period {})", batchSize,
+                    flushPeriod);
+            scheduleFlush(Duration.parse(flushPeriod));
+        }
+    }
+
+    /**
+     * Save the diagnostic information of an application. Buffered if write-behind is enabled.
+     *
+     * @param applicationInfo application checked
+     */
+    public void save(ApplicationInfo applicationInfo) {
+        if (!enabled) {
+            write(applicationInfo);
+        } else {
+            boolean full;
+            synchronized (pending) {
+                pending.put(applicationInfo.getUuid(), applicationInfo);
+                full = pending.size() >= batchSize;
+            }
+            if (full) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Write through an application, discarding any pending diagnostic update for it. A flush in progress is waited
+     * for, so that its older update of the application cannot overwrite this one.
+     *
+     * @param applicationInfo application that went through a transition (put to sleep, enrollment...)
+     */
+    public void saveNow(ApplicationInfo applicationInfo) {
+        synchronized (writeLock) {
+            synchronized (pending) {
+                pending.remove(applicationInfo.getUuid());
+            }
+            write(applicationInfo);
+        }
+    }
+
+    private void scheduleFlush(Duration period) {
+        timeManager.scheduleMaintenance(() -> {
+            try {
+                flush();
+            } finally {
+                scheduleFlush(period);
+            }
+        }, period);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void write(ApplicationInfo applicationInfo) {
+        if (applicationRepository.updateDiagnosticInfo(applicationInfo) == 0) {
+            log.debug("write - {} no longer stored, diagnostic dropped", applicationInfo.getUuid());
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
+import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
+import org.cloudfoundry.autosleep.access.dao.model.ProxyMapEntry;
+import org.cloudfoundry.autosleep.access.dao.repositories.ProxyMapEntryRepository;
+import org.cloudfoundry.autosleep.config.Config.CloudFoundryAppState;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Removes proxy map entries left behind by applications restarted without going through the proxy, or deleted.
+ * Entries not verified for a while are checked against cloudfoundry by batches, the ones whose application is still
+ * stopped are marked as verified, the others are deleted.
+ */
+@Service
+@Slf4j
+public class ProxyMapSweeper {
+
+    @Value("${autosleep.proxy.map.sweep.batch.size:100}")
+    private int batchSize;
+
+    @Autowired
+    private ChangeFeed changeFeed;
+
+    @Autowired
+    private CloudFoundryApiService cloudFoundryApi;
+
+    @Value("${autosleep.proxy.map.sweep.enabled:true}")
+    private boolean enabled;
+
+    @Value("${autosleep.proxy.map.sweep.period:PT15M}")
+    private String period;
+
+    @Autowired
+    private ProxyMapEntryRepository proxyMap;
+
+    @Autowired
+    private TimeManager timeManager;
+
+    @Value("${autosleep.proxy.map.ttl:PT1H}")
+    private String ttl;
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            schedule(Duration.parse(period));
+        }
+    }
+
+    private void schedule(Duration period) {
+        timeManager.scheduleMaintenance(() -> {
+            try {
+                sweep();
+            } finally {
+                schedule(period);
+            }
+        }, period);
+    }
+
+    /**
+     * Check every entry not verified within the ttl.
+     *
+     * @return the number of entries removed
+     */
+    public int sweep() {
+        long now = Instant.now().toEpochMilli();
+        long before = now - Duration.parse(ttl).toMillis();
+        int removed = 0;
+        int checked;
+        try {
+            do {
+                List<ProxyMapEntry> entries = proxyMap.findByLastVerifiedLessThanOrderByLastVerifiedAsc(before,
+                        new PageRequest(0, batchSize));
+                checked = entries.size();
+                if (checked > 0) {
+                    Map<String, String> states = cloudFoundryApi.getApplicationStates(entries.stream()
+                            .map(ProxyMapEntry::getAppId)
+                            .distinct()
+                            .collect(Collectors.toList()));
+                    Map<Boolean, List<String>> stillSleeping = entries.stream()
+                            .collect(Collectors.partitioningBy(
+                                    entry -> CloudFoundryAppState.STOPPED.equals(states.get(entry.getAppId())),
+                                    Collectors.mapping(ProxyMapEntry::getHost, Collectors.toList())));
+                    if (!stillSleeping.get(false).isEmpty()) {
+                        removed += proxyMap.deleteByHosts(stillSleeping.get(false));
+                        stillSleeping.get(false).forEach(host ->
+                                changeFeed.publish(EntityType.PROXY_MAP_ENTRY, host, Operation.DELETE));
+                    }
+                    if (!stillSleeping.get(true).isEmpty()) {
+                        proxyMap.markVerified(stillSleeping.get(true), now);
+                    }
+                }
+            } while (checked == batchSize);
+            log.debug("sweep - {} stale proxy map entries removed", removed);
+        } catch (CloudFoundryException | RuntimeException e) {
+            log.error("sweep - failed, {} entries removed so far", removed, e);
+        }
+        return removed;
+    }
+
+}
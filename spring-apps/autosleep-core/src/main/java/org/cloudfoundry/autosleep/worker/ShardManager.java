@@ -0,0 +1,160 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.repositories.LeaseRepository;
+import org.cloudfoundry.autosleep.config.Config;
+import org.cloudfoundry.autosleep.util.LeaseManager;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Splits applications between the autosleep instances sharing the database. Each instance holds a member lease,
+ * renewed by the lease heartbeat; live members are placed on a consistent hash ring, and each application is owned by
+ * a single member. When members join or leave, listeners are told to pick up the applications they now own.
+ */
+@Slf4j
+@Service
+public class ShardManager {
+
+    static final String MEMBER_PREFIX = "member:";
+
+    @Getter
+    @Value("${autosleep.sharding.enabled:false}")
+    private boolean enabled;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private LeaseManager leaseManager;
+
+    @Autowired
+    private LeaseRepository leaseRepository;
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    @Getter
+    private String memberId;
+
+    @Value("${autosleep.sharding.refresh.period:PT15S}")
+    private String refreshPeriod;
+
+    private volatile ConsistentHashRing ring;
+
+    @Autowired
+    private TimeManager timeManager;
+
+    @Value("${autosleep.sharding.virtual.nodes:100}")
+    private int virtualNodes;
+
+    public void addRebalanceListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    Set<String> getMembers() {
+        ConsistentHashRing current = ring;
+        return current == null ? Collections.emptySet() : current.getMembers();
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            join();
+            refresh();
+            schedule(Duration.parse(refreshPeriod));
+        }
+    }
+
+    /**
+     * Take a member lease, named after the instance index when cloudfoundry provides one so that a restarted
+     * instance gets back the same applications.
+     */
+    private void join() {
+        String index = environment.getProperty(Config.EnvKey.CF_INSTANCE_INDEX);
+        if (index != null && leaseManager.tryAcquire(MEMBER_PREFIX + "index-" + index).isPresent()) {
+            memberId = "index-" + index;
+        } else {
+            memberId = leaseManager.getOwner();
+            leaseManager.tryAcquire(MEMBER_PREFIX + memberId);
+        }
+        log.info("join - instance sharding as {}", memberId);
+    }
+
+    /**
+     * @param applicationId id of the application
+     * @return whether this instance checks the application; always true when sharding is disabled, false until the
+     * members could be read
+     */
+    public boolean owns(String applicationId) {
+        ConsistentHashRing current = ring;
+        return !enabled || current != null && memberId.equals(current.ownerOf(applicationId));
+    }
+
+    /**
+     * Read live members, and rebuild the ring if they changed.
+     */
+    public void refresh() {
+        try {
+            if (!leaseManager.isHeld(MEMBER_PREFIX + memberId)) {
+                join();
+            }
+            Set<String> members = leaseRepository.findHeldNames(MEMBER_PREFIX + "%", Instant.now().toEpochMilli())
+                    .stream()
+                    .map(name -> name.substring(MEMBER_PREFIX.length()))
+                    .collect(Collectors.toSet());
+            members.add(memberId);
+            ConsistentHashRing current = ring;
+            if (current == null || !current.getMembers().equals(members)) {
+                log.info("refresh - members are now {}", members);
+                ring = new ConsistentHashRing(members, virtualNodes);
+                //including the first ring, applications skipped until the members could be read are picked up
+                listeners.forEach(Runnable::run);
+            }
+        } catch (RuntimeException r) {
+            log.error("refresh - failed", r);
+        }
+    }
+
+    private void schedule(Duration period) {
+        timeManager.scheduleMaintenance(() -> {
+            try {
+                refresh();
+            } finally {
+                schedule(period);
+            }
+        }, period);
+    }
+
+}
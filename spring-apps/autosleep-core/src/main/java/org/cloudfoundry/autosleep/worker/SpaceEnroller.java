@@ -21,13 +21,14 @@ package org.cloudfoundry.autosleep.worker;
 
 import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.cache.EntityCacheService;
 import org.cloudfoundry.autosleep.config.DeployedApplicationConfig;
 import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
 import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
-import org.cloudfoundry.autosleep.access.dao.repositories.SpaceEnrollerConfigRepository;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
 import org.cloudfoundry.autosleep.access.cloudfoundry.model.ApplicationIdentity;
+import org.cloudfoundry.autosleep.util.LeaderElection;
 import org.cloudfoundry.autosleep.worker.scheduling.AbstractPeriodicTask;
 import org.cloudfoundry.autosleep.worker.scheduling.Clock;
 
@@ -44,9 +45,13 @@ class SpaceEnroller extends AbstractPeriodicTask {
 
     private final CloudFoundryApiService cloudFoundryApi;
 
+    private final EntityCacheService entityCache;
+
+    private final LeaderElection leaderElection;
+
     private final String spaceEnrollerConfigId;
 
-    private final SpaceEnrollerConfigRepository spaceEnrollerConfigRepository;
+    private final StandbyManager standbyManager;
 
     private DeployedApplicationConfig.Deployment deployment;
 
@@ -55,15 +60,23 @@ class SpaceEnroller extends AbstractPeriodicTask {
                   Duration period,
                   String spaceEnrollerConfigId,
                   CloudFoundryApiService cloudFoundryApi,
-                  SpaceEnrollerConfigRepository spaceEnrollerConfigRepository,
+                  EntityCacheService entityCache,
                   ApplicationRepository applicationRepository,
-                  DeployedApplicationConfig.Deployment deployment) {
+                  DeployedApplicationConfig.Deployment deployment,
+                  LeaderElection leaderElection,
+                  StandbyManager standbyManager) {
         super(clock, period);
         this.spaceEnrollerConfigId = spaceEnrollerConfigId;
         this.cloudFoundryApi = cloudFoundryApi;
-        this.spaceEnrollerConfigRepository = spaceEnrollerConfigRepository;
+        this.entityCache = entityCache;
         this.applicationRepository = applicationRepository;
         this.deployment = deployment;
+        this.leaderElection = leaderElection;
+        this.standbyManager = standbyManager;
+    }
+
+    private String getLeaderRole() {
+        return "space-enroller:" + spaceEnrollerConfigId;
     }
 
     @Override
@@ -73,8 +86,20 @@ class SpaceEnroller extends AbstractPeriodicTask {
 
     @Override
     public void run() {
-        SpaceEnrollerConfig serviceInstance = spaceEnrollerConfigRepository.findOne(spaceEnrollerConfigId);
+        if (!standbyManager.isActive()) {
+            log.debug("Instance now passive. Cancelling task");
+            stopTask();
+            return;
+        }
+        SpaceEnrollerConfig serviceInstance = entityCache.getSpaceEnrollerConfig(spaceEnrollerConfigId);
         if (serviceInstance != null) {
+            if (!leaderElection.isLeader(getLeaderRole())) {
+                //another instance enrolls this space, try again soon to take over quickly if it dies
+                log.debug("Space enrolled by another instance");
+                Duration retryPeriod = leaderElection.getRetryPeriod();
+                reschedule(retryPeriod.compareTo(getPeriod()) < 0 ? retryPeriod : getPeriod());
+                return;
+            }
             try {
                 Set<String> watchedOrIgnoredApplications = new HashSet<>();
                 applicationRepository.findAll()
@@ -109,6 +134,7 @@ class SpaceEnroller extends AbstractPeriodicTask {
         } else {
             log.debug("service has been removed. Cancelling task");
             stopTask();
+            leaderElection.resign(getLeaderRole());
         }
     }
 
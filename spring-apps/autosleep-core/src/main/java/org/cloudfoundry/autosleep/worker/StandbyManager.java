@@ -0,0 +1,125 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.util.LeaseManager;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Standby: among the autosleep instances sharing the database, only the one holding the active lease checks
+ * applications. Passive instances poll the lease, and one of them takes over once the active instance stopped
+ * renewing it. Listeners are then told to resume the checks.
+ * <p>
+ * Takeover is cold: passive instances keep no stopper ready, the one taking over reads the bindings and their
+ * persisted next checks from the database when activated. Everything a stopper needs is in the database, so this
+ * only adds that read to the lease expiry and poll period it already waits for.
+ */
+@Slf4j
+@Service
+public class StandbyManager {
+
+    static final String ACTIVE_LEASE = "standby:active";
+
+    private volatile boolean active;
+
+    @Getter
+    @Value("${autosleep.standby.enabled:false}")
+    private boolean enabled;
+
+    @Autowired
+    private LeaseManager leaseManager;
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    @Value("${autosleep.standby.poll.period:PT5S}")
+    private String pollPeriod;
+
+    @Autowired
+    private TimeManager timeManager;
+
+    public void addActivationListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            poll();
+            log.info("Standby enabled, instance starts {}", active ? "active" : "passive");
+            schedule(Duration.parse(pollPeriod));
+        }
+    }
+
+    /**
+     * @return whether this instance checks applications; always true when standby is disabled
+     */
+    public boolean isActive() {
+        return !enabled || active;
+    }
+
+    /**
+     * Take the active lease if free or expired, notice when it was lost.
+     */
+    public void poll() {
+        boolean nowActive;
+        try {
+            nowActive = leaseManager.isHeld(ACTIVE_LEASE) || leaseManager.tryAcquire(ACTIVE_LEASE).isPresent();
+        } catch (RuntimeException r) {
+            log.error("poll - failed", r);
+            return;
+        }
+        if (nowActive != active) {
+            active = nowActive;
+            if (nowActive) {
+                log.info("poll - instance is now active");
+                listeners.forEach(listener -> {
+                    try {
+                        listener.run();
+                    } catch (RuntimeException r) {
+                        log.error("poll - activation failed", r);
+                    }
+                });
+            } else {
+                log.warn("poll - active lease lost, instance is now passive");
+            }
+        }
+    }
+
+    private void schedule(Duration period) {
+        timeManager.scheduleMaintenance(() -> {
+            try {
+                poll();
+            } finally {
+                schedule(period);
+            }
+        }, period);
+    }
+
+}
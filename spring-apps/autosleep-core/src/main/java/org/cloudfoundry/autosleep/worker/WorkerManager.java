@@ -20,27 +20,44 @@
 package org.cloudfoundry.autosleep.worker;
 
 import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.cache.EntityCacheService;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeListener;
+import org.cloudfoundry.autosleep.access.dao.model.Binding;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
 import org.cloudfoundry.autosleep.access.dao.repositories.ProxyMapEntryRepository;
 import org.cloudfoundry.autosleep.config.Config;
 import org.cloudfoundry.autosleep.config.DeployedApplicationConfig;
+import org.cloudfoundry.autosleep.access.dao.model.BoundApplication;
 import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
 import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
 import org.cloudfoundry.autosleep.access.dao.repositories.BindingRepository;
 import org.cloudfoundry.autosleep.access.dao.repositories.SpaceEnrollerConfigRepository;
 import org.cloudfoundry.autosleep.util.ApplicationLocker;
+import org.cloudfoundry.autosleep.util.LeaderElection;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
 import org.cloudfoundry.autosleep.worker.scheduling.Clock;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import static org.cloudfoundry.autosleep.access.dao.model.Binding.ResourceType.Application;
 
 @Slf4j
 @Service
-public class WorkerManager implements WorkerManagerService {
+public class WorkerManager implements ChangeListener, WorkerManagerService {
+
+    @Autowired
+    private ActivityHistory activityHistory;
 
     @Autowired
     private ApplicationLocker applicationLocker;
@@ -51,6 +68,9 @@ public class WorkerManager implements WorkerManagerService {
     @Autowired
     private BindingRepository bindingRepository;
 
+    @Autowired
+    private ChangeFeed changeFeed;
+
     @Autowired
     private Clock clock;
 
@@ -60,60 +80,167 @@ public class WorkerManager implements WorkerManagerService {
     @Autowired
     private DeployedApplicationConfig.Deployment deployment;
 
+    @Autowired
+    private DiagnosticWriteBehind diagnosticWriteBehind;
+
+    @Autowired
+    private EntityCacheService entityCache;
+
+    @Autowired
+    private LeaderElection leaderElection;
+
+    @Value("${autosleep.worker.lock.retry.delay:PT10S}")
+    private String lockRetryDelay;
+
+    @Value("${autosleep.worker.lock.timeout:PT1S}")
+    private String lockTimeout;
+
+    @Autowired
+    private ShardManager shardManager;
+
     @Autowired
     private SpaceEnrollerConfigRepository spaceEnrollerConfigRepository;
 
     @Autowired
-    private ProxyMapEntryRepository proxyMapEntryRepository;
+    private StandbyManager standbyManager;
 
-    @PostConstruct
-    public void init() {
-        log.debug("Initializer watchers for every app already enrolled (except if handle by another instance of "
-                + "autosleep)");
-        bindingRepository.findAllByResourceType(Application).forEach(applicationBinding -> {
-            SpaceEnrollerConfig spaceEnrollerConfig =
-                    spaceEnrollerConfigRepository.findOne(applicationBinding.getServiceInstanceId());
-            if (spaceEnrollerConfig != null) {
-                registerApplicationStopper(spaceEnrollerConfig,
-                        applicationBinding.getResourceId(),
-                        applicationBinding.getServiceBindingId());
-            }
-        });
-        spaceEnrollerConfigRepository.findAll().forEach(this::registerSpaceEnroller);
-    }
+    @Autowired
+    private ProxyMapEntryRepository proxyMapEntryRepository;
 
-    @Override
-    public void registerApplicationStopper(SpaceEnrollerConfig config, String applicationId, String appBindingId) {
-        Duration interval = spaceEnrollerConfigRepository.findOne(config.getId()).getIdleDuration();
+    private ApplicationStopper buildApplicationStopper(SpaceEnrollerConfig config, Duration interval,
+                                                       String applicationId, String appBindingId) {
         log.debug("Initializing a watch on app {}, for an idleDuration of {} ", applicationId,
                 interval.toString());
-        ApplicationStopper checker = ApplicationStopper.builder()
+        return ApplicationStopper.builder()
+                .activityHistory(activityHistory)
                 .applicationLocker(applicationLocker)
                 .applicationRepository(applicationRepository)
                 .appUid(applicationId)
                 .bindingId(appBindingId)
+                .changeFeed(changeFeed)
                 .clock(clock)
                 .cloudFoundryApi(cloudFoundryApi)
+                .diagnosticWriteBehind(diagnosticWriteBehind)
                 .ignoreRouteBindingError(config.isIgnoreRouteServiceError())
                 .period(interval)
                 .spaceEnrollerConfigId(config.getId())
                 .proxyMap(proxyMapEntryRepository)
+                .shardManager(shardManager)
+                .standbyManager(standbyManager)
+                .lockTimeout(Duration.parse(lockTimeout))
+                .lockRetryDelay(Duration.parse(lockRetryDelay))
                 .build();
-        checker.startNow();
+    }
+
+    @PostConstruct
+    public void init() {
+        log.debug("Initializer watchers for every app already enrolled (except if handle by another instance of "
+                + "autosleep)");
+        shardManager.addRebalanceListener(this::startOwnedApplicationStoppers);
+        standbyManager.addActivationListener(this::resume);
+        //stoppers publish the proxy map entries they save, proxies only filter hosts on that promise
+        changeFeed.announcePublisherOf(EntityType.PROXY_MAP_ENTRY);
+        resume();
+    }
+
+    /**
+     * With sharding or standby, pick up applications bound and services created through another instance. Tasks are
+     * otherwise only started by the instance that handled the broker request.
+     */
+    @Override
+    public void onChange(ChangeEvent event) {
+        if (!(shardManager.isEnabled() || standbyManager.isEnabled())
+                || event.getOperation() != Operation.SAVE
+                || clock.listTaskIds().contains(event.getEntityId())) {
+            return;
+        }
+        if (event.getEntityType() == EntityType.BINDING) {
+            Binding binding = bindingRepository.findOne(event.getEntityId());
+            if (binding != null && binding.getResourceType() == Application) {
+                SpaceEnrollerConfig config = entityCache.getSpaceEnrollerConfig(binding.getServiceInstanceId());
+                if (config != null) {
+                    registerApplicationStopper(config, binding.getResourceId(), binding.getServiceBindingId());
+                }
+            }
+        } else if (event.getEntityType() == EntityType.SPACE_ENROLLER_CONFIG) {
+            SpaceEnrollerConfig config = spaceEnrollerConfigRepository.findOne(event.getEntityId());
+            if (config != null) {
+                registerSpaceEnroller(config);
+            }
+        }
+    }
+
+    @Override
+    public void registerApplicationStopper(SpaceEnrollerConfig config, String applicationId, String appBindingId) {
+        if (!standbyManager.isActive() || !shardManager.owns(applicationId)) {
+            log.debug("Application {} is watched by another instance", applicationId);
+            return;
+        }
+        Duration interval = entityCache.getSpaceEnrollerConfig(config.getId()).getIdleDuration();
+        buildApplicationStopper(config, interval, applicationId, appBindingId).startNow();
     }
 
     @Override
     public void registerSpaceEnroller(SpaceEnrollerConfig service) {
+        if (!standbyManager.isActive()) {
+            log.debug("Passive instance, space of service {} enrolled by the active one", service.getId());
+            return;
+        }
         SpaceEnroller spaceEnroller = SpaceEnroller.builder()
                 .clock(clock)
                 .period(service.getIdleDuration())
                 .spaceEnrollerConfigId(service.getId())
-                .spaceEnrollerConfigRepository(spaceEnrollerConfigRepository)
+                .entityCache(entityCache)
                 .cloudFoundryApi(cloudFoundryApi)
                 .applicationRepository(applicationRepository)
                 .deployment(deployment)
+                .leaderElection(leaderElection)
+                .standbyManager(standbyManager)
                 .build();
         spaceEnroller.start(Config.DELAY_BEFORE_FIRST_SERVICE_CHECK);
     }
 
+    /**
+     * Start the tasks of this instance, at startup or when it becomes active. Stoppers resume at the check time
+     * persisted by the previous active instance.
+     */
+    private void resume() {
+        if (standbyManager.isActive()) {
+            startOwnedApplicationStoppers();
+            spaceEnrollerConfigRepository.findAll().forEach(this::registerSpaceEnroller);
+        } else {
+            log.info("Passive instance, applications are checked by the active one");
+        }
+    }
+
+    /**
+     * Start the stoppers of the applications owned by this instance that are not already started. Stoppers of
+     * applications no longer owned cancel themselves on their next run.
+     */
+    private void startOwnedApplicationStoppers() {
+        if (!standbyManager.isActive()) {
+            return;
+        }
+        Instant start = Instant.now();
+        Set<String> started = new HashSet<>(clock.listTaskIds());
+        List<BoundApplication> boundApplications = bindingRepository.findBoundApplications(Application);
+        int count = 0;
+        for (BoundApplication boundApplication : boundApplications) {
+            if (!started.contains(boundApplication.getBindingId())
+                    && shardManager.owns(boundApplication.getApplicationId())) {
+                SpaceEnrollerConfig config = boundApplication.getSpaceEnrollerConfig();
+                //resume at the check time persisted before the restart, rather than checking every application now
+                Instant nextCheck = boundApplication.getNextCheck();
+                Duration delay = nextCheck == null || nextCheck.isBefore(start)
+                        ? Duration.ofSeconds(0) : Duration.between(start, nextCheck);
+                buildApplicationStopper(config, config.getIdleDuration(), boundApplication.getApplicationId(),
+                        boundApplication.getBindingId())
+                        .start(delay);
+                count++;
+            }
+        }
+        log.info("{} application watchers started out of {} bindings in {}", count, boundApplications.size(),
+                Duration.between(start, Instant.now()));
+    }
+
 }
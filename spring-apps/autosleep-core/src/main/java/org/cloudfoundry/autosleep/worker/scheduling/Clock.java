@@ -26,9 +26,9 @@ import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 
 @Service
@@ -38,7 +38,7 @@ public class Clock {
     @Autowired
     private TimeManager timeManager;
 
-    private final Map<String/*taskId*/, ScheduledFuture<?>> tasks = new HashMap<>();
+    private final Map<String/*taskId*/, ScheduledFuture<?>> tasks = new ConcurrentHashMap<>();
 
     /**
      * Access to the task ids.
@@ -22,15 +22,20 @@ package org.cloudfoundry.autosleep.ui.servicebroker.service;
 import lombok.extern.slf4j.Slf4j;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
+import org.cloudfoundry.autosleep.access.dao.cache.EntityCacheService;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
 import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
 import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo.EnrollmentState.State;
 import org.cloudfoundry.autosleep.access.dao.model.Binding;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
 import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
 import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
 import org.cloudfoundry.autosleep.access.dao.repositories.BindingRepository;
-import org.cloudfoundry.autosleep.access.dao.repositories.SpaceEnrollerConfigRepository;
 import org.cloudfoundry.autosleep.config.DeployedApplicationConfig;
+import org.cloudfoundry.autosleep.util.ApplicationLockTimeoutException;
 import org.cloudfoundry.autosleep.util.ApplicationLocker;
+import org.cloudfoundry.autosleep.util.ApplicationUpdater;
 import org.cloudfoundry.autosleep.util.BeanGenerator;
 import org.cloudfoundry.autosleep.worker.WorkerManagerService;
 import org.junit.Before;
@@ -49,6 +54,7 @@ import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.UUID;
+import java.util.function.UnaryOperator;
 
 import static java.util.Collections.singletonList;
 import static org.cloudfoundry.autosleep.access.dao.model.Binding.ResourceType.Application;
@@ -85,6 +91,9 @@ public class AutosleepBindingServiceTest {
     @Mock
     private ApplicationLocker applicationLocker;
 
+    @Mock
+    private ApplicationUpdater applicationUpdater;
+
     @Mock
     private BindingRepository bindingRepository;
 
@@ -94,6 +103,9 @@ public class AutosleepBindingServiceTest {
     @Mock
     private CloudFoundryApiService cfApi;
 
+    @Mock
+    private ChangeFeed changeFeed;
+
     private CreateServiceInstanceBindingRequest createAppBindingTemplate;
 
     private CreateServiceInstanceBindingRequest createRouteBindingTemplate;
@@ -102,13 +114,13 @@ public class AutosleepBindingServiceTest {
     private DeployedApplicationConfig.Deployment deployment;
 
     @Mock
-    private ApplicationInfo.EnrollmentState enrollmentState;
+    private EntityCacheService entityCache;
 
     @Mock
-    private SpaceEnrollerConfig spaceEnrollerConfig;
+    private ApplicationInfo.EnrollmentState enrollmentState;
 
     @Mock
-    private SpaceEnrollerConfigRepository spaceEnrollerConfigRepository;
+    private SpaceEnrollerConfig spaceEnrollerConfig;
 
     @Mock
     private WorkerManagerService workerManager;
@@ -249,7 +261,7 @@ public class AutosleepBindingServiceTest {
 
         when(applicationInfo.getUuid()).thenReturn(APP_UID);
         when(applicationInfo.getEnrollmentState()).thenReturn(enrollmentState);
-        when(spaceEnrollerConfigRepository.findOne(any(String.class))).thenReturn(spaceEnrollerConfig);
+        when(entityCache.getSpaceEnrollerConfig(any(String.class))).thenReturn(spaceEnrollerConfig);
 
         //avoir nullpointer when getting credentials
         when(spaceEnrollerConfig.getIdleDuration()).thenReturn(Duration.ofSeconds(10));
@@ -258,6 +270,18 @@ public class AutosleepBindingServiceTest {
             ((Runnable) invocationOnMock.getArguments()[1]).run();
             return null;
         }).when(applicationLocker).executeThreadSafe(anyString(), any(Runnable.class));
+        doAnswer(invocationOnMock -> {
+            String applicationId = (String) invocationOnMock.getArguments()[0];
+            @SuppressWarnings("unchecked")
+            ApplicationInfo updated = ((UnaryOperator<ApplicationInfo>) invocationOnMock.getArguments()[1])
+                    .apply(appRepo.findOne(applicationId));
+            if (updated != null) {
+                appRepo.save(updated);
+            } else {
+                appRepo.delete(applicationId);
+            }
+            return updated;
+        }).when(applicationUpdater).update(anyString(), any());
 
     }
 
@@ -277,6 +301,21 @@ public class AutosleepBindingServiceTest {
                 anyString());
     }
 
+    @Test
+    public void new_binding_raise_exception_if_application_stays_locked() {
+        //given the application stays locked
+        doThrow(new ApplicationLockTimeoutException(APP_UID))
+                .when(applicationLocker).executeThreadSafe(eq(APP_UID), any(Runnable.class));
+
+        //when receive a new binding
+
+        //then the broker request fails, so that the cloud controller retries it
+        verifyThrown(() -> bindingService.createServiceInstanceBinding(createAppBindingTemplate
+                .withServiceInstanceId("Sid")
+                .withBindingId("Bid")), ServiceBrokerException.class);
+        verify(bindingRepository, never()).save(any(Binding.class));
+    }
+
     @Test
     public void new_binding_raise_exception_if_unknow_routing_type() {
 
@@ -330,7 +369,7 @@ public class AutosleepBindingServiceTest {
     private DeleteServiceInstanceBindingRequest prepareDeleteAppBindingTest(String serviceId, String bindingId) {
 
         when(appRepo.findOne(APP_UID)).thenReturn(applicationInfo);
-        when(bindingRepository.findOne(bindingId))
+        when(entityCache.getBinding(bindingId))
                 .thenReturn(Binding.builder().serviceBindingId(bindingId)
                         .resourceType(Application)
                         .serviceInstanceId(serviceId)
@@ -343,7 +382,7 @@ public class AutosleepBindingServiceTest {
             routeId) {
 
         when(appRepo.findOne(APP_UID)).thenReturn(applicationInfo);
-        when(bindingRepository.findOne(bindingId))
+        when(entityCache.getBinding(bindingId))
                 .thenReturn(Binding.builder().serviceBindingId(bindingId)
                         .resourceType(Route)
                         .resourceId(routeId).build());
@@ -358,12 +397,16 @@ public class AutosleepBindingServiceTest {
         final DeleteServiceInstanceBindingRequest deleteRequest = prepareDeleteAppRouteTest(testId, testId, testId);
 
         //given that we known the route
-        when(bindingRepository.findOne(testId)).thenReturn(BeanGenerator.createRouteBinding(testId));
+        when(entityCache.getBinding(testId)).thenReturn(BeanGenerator.createRouteBinding(testId));
         //when unbinding the route
         bindingService.deleteServiceInstanceBinding(deleteRequest);
 
         //then it should be cleared from database
         verify(bindingRepository, times(1)).delete(testId);
+        //and from cache
+        verify(entityCache, times(1)).evictBinding(testId);
+        //and other processes are notified
+        verify(changeFeed, times(1)).publish(EntityType.BINDING, testId, Operation.DELETE);
     }
 
 }
\ No newline at end of file
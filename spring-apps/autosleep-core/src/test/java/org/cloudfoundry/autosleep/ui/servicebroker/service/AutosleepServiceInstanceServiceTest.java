@@ -20,7 +20,11 @@
 package org.cloudfoundry.autosleep.ui.servicebroker.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.cache.EntityCacheService;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
 import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
 import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
 import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
 import org.cloudfoundry.autosleep.access.dao.repositories.SpaceEnrollerConfigRepository;
@@ -30,6 +34,8 @@ import org.cloudfoundry.autosleep.config.DeployedApplicationConfig;
 import org.cloudfoundry.autosleep.ui.servicebroker.service.parameters.ParameterReader;
 import org.cloudfoundry.autosleep.ui.servicebroker.service.parameters.ParameterReaderFactory;
 import org.cloudfoundry.autosleep.util.ApplicationLocker;
+import org.cloudfoundry.autosleep.util.ApplicationUpdater;
+import org.cloudfoundry.autosleep.util.ApplicationLockTimeoutException;
 import org.cloudfoundry.autosleep.util.BeanGenerator;
 import org.cloudfoundry.autosleep.worker.WorkerManagerService;
 import org.junit.Before;
@@ -61,6 +67,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.UnaryOperator;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -76,6 +83,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -98,9 +106,15 @@ public class AutosleepServiceInstanceServiceTest {
     @Mock
     private ApplicationLocker applicationLocker;
 
+    @Mock
+    private ApplicationUpdater applicationUpdater;
+
     @Mock
     private ApplicationRepository applicationRepository;
 
+    @Mock
+    private ChangeFeed changeFeed;
+
     private CreateServiceInstanceRequest createRequest;
 
     private DeleteServiceInstanceRequest deleteRequest;
@@ -108,6 +122,9 @@ public class AutosleepServiceInstanceServiceTest {
     @Mock
     private DeployedApplicationConfig.Deployment deployment;
 
+    @Mock
+    private EntityCacheService entityCache;
+
     @Mock
     private Environment environment;
 
@@ -180,6 +197,18 @@ public class AutosleepServiceInstanceServiceTest {
             ((Runnable) invocationOnMock.getArguments()[1]).run();
             return null;
         }).when(applicationLocker).executeThreadSafe(anyString(), any(Runnable.class));
+        doAnswer(invocationOnMock -> {
+            String applicationId = (String) invocationOnMock.getArguments()[0];
+            @SuppressWarnings("unchecked")
+            ApplicationInfo updated = ((UnaryOperator<ApplicationInfo>) invocationOnMock.getArguments()[1])
+                    .apply(applicationRepository.findOne(applicationId));
+            if (updated != null) {
+                applicationRepository.save(updated);
+            } else {
+                applicationRepository.delete(applicationId);
+            }
+            return updated;
+        }).when(applicationUpdater).update(anyString(), any());
         when(passwordEncoder.encode(any(CharSequence.class))).thenReturn(passwordEncoded);
 
         deleteRequest = new DeleteServiceInstanceRequest(SERVICE_INSTANCE_ID, SERVICE_DEFINITION_ID, PLAN_ID, null);
@@ -231,7 +260,26 @@ public class AutosleepServiceInstanceServiceTest {
         //then repository is invoked
         verify(spaceEnrollerConfigRepository, times(1)).delete(SERVICE_INSTANCE_ID);
         //and info on applications are removed
-        verify(applicationRepository, times(3)).delete(any(ApplicationInfo.class));
+        verify(applicationRepository, times(3)).delete(anyString());
+    }
+
+    @Test
+    public void test_busy_applications_fail_deletion_after_others_are_cleaned() throws Exception {
+        //given two applications referencing only the service, one of them locked by a stopper
+        ApplicationInfo busy = BeanGenerator.createAppInfoLinkedToService(SERVICE_INSTANCE_ID);
+        ApplicationInfo free = BeanGenerator.createAppInfoLinkedToService(SERVICE_INSTANCE_ID);
+        when(applicationRepository.findAll()).thenReturn(Arrays.asList(busy, free));
+        when(applicationRepository.findOne(free.getUuid())).thenReturn(free);
+        doThrow(new ApplicationLockTimeoutException(busy.getUuid()))
+                .when(applicationLocker).executeThreadSafe(eq(busy.getUuid()), any(Runnable.class));
+        when(spaceEnrollerConfigRepository.findOne(anyString())).thenReturn(BeanGenerator.createServiceInstance());
+
+        //when delete is asked
+        verifyThrown(() -> instanceService.deleteServiceInstance(deleteRequest), ServiceBrokerException.class);
+
+        //then the free application is still cleaned
+        verify(applicationRepository, times(1)).delete(free.getUuid());
+        verify(applicationRepository, never()).delete(busy.getUuid());
     }
 
     @Test
@@ -290,6 +338,11 @@ public class AutosleepServiceInstanceServiceTest {
 
         //then the repository is invoked
         verify(spaceEnrollerConfigRepository, times(1)).delete(SERVICE_INSTANCE_ID);
+        //and the cached service instance is evicted
+        verify(entityCache, times(1)).evictSpaceEnrollerConfig(SERVICE_INSTANCE_ID);
+        //and other processes are notified
+        verify(changeFeed, times(1)).publish(EntityType.SPACE_ENROLLER_CONFIG, SERVICE_INSTANCE_ID,
+                Operation.DELETE);
         assertThat(response, is(notNullValue()));
     }
 
@@ -19,6 +19,7 @@
 
 package org.cloudfoundry.autosleep.ui.web.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
@@ -26,7 +27,10 @@ import org.cloudfoundry.autosleep.config.Config;
 import org.cloudfoundry.autosleep.config.Config.CloudFoundryAppState;
 import org.cloudfoundry.autosleep.ui.security.SecurityManager;
 import org.cloudfoundry.autosleep.ui.web.controller.ApiController;
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample;
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample.Resolution;
 import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationSummary;
 import org.cloudfoundry.autosleep.access.dao.model.Binding;
 import org.cloudfoundry.autosleep.access.dao.model.Binding.ResourceType;
 import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
@@ -36,6 +40,7 @@ import org.cloudfoundry.autosleep.access.dao.repositories.SpaceEnrollerConfigRep
 import org.cloudfoundry.autosleep.ui.web.model.ServerResponse;
 import org.cloudfoundry.autosleep.util.ApplicationLocker;
 import org.cloudfoundry.autosleep.util.BeanGenerator;
+import org.cloudfoundry.autosleep.worker.ActivityHistory;
 import org.springframework.cloud.servicebroker.model.Catalog;
 import org.springframework.cloud.servicebroker.model.Plan;
 import org.springframework.cloud.servicebroker.model.ServiceDefinition;
@@ -58,6 +63,7 @@ import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.UUID;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
@@ -83,6 +89,9 @@ public class ApiControllerTest {
 
     private static final String serviceInstanceId = "id";
 
+    @Mock
+    private ActivityHistory activityHistory;
+
     @InjectMocks
     private ApiController apiController;
 
@@ -110,14 +119,11 @@ public class ApiControllerTest {
 
     private void checkMvcResultsContainsASingleApplicationWithCorrectId(MvcResult mvcResult, String applicationId)
             throws UnsupportedEncodingException, IOException {
-        ServerResponse<ApplicationInfo[]> applicationInfos = objectMapper
-                .readValue(mvcResult.getResponse().getContentAsString(),
-                        TypeFactory.defaultInstance()
-                                .constructParametrizedType(ServerResponse.class, ServerResponse.class,
-                                        ApplicationInfo[].class));
-        assertThat(applicationInfos.getBody(), is(notNullValue()));
-        assertThat(applicationInfos.getBody().length, is(equalTo(1)));
-        assertThat(applicationInfos.getBody()[0].getUuid(), is(equalTo(applicationId)));
+        JsonNode applicationSummaries = objectMapper.readTree(mvcResult.getResponse().getContentAsString())
+                .get("body");
+        assertThat(applicationSummaries, is(notNullValue()));
+        assertThat(applicationSummaries.size(), is(equalTo(1)));
+        assertThat(applicationSummaries.get(0).get("uuid").asText(), is(equalTo(applicationId)));
     }
 
     @Before
@@ -150,6 +156,28 @@ public class ApiControllerTest {
 
     }
 
+    @Test
+    public void test_get_application_history() throws Exception {
+        //given an application has been checked
+        when(activityHistory.getHistory(applicationId)).thenReturn(Collections.singletonList(ActivitySample.builder()
+                .appUuid(applicationId)
+                .resolution(Resolution.HOURLY)
+                .periodStart(0L)
+                .samples(4)
+                .activeSamples(1)
+                .build()));
+
+        //When its history is requested
+        ResultActions resultActions = mockMvc.perform(
+                get(Config.Path.API_CONTEXT + Config.Path.APPLICATIONS_SUB_PATH + applicationId + "/history")
+                        .accept(MediaType.APPLICATION_JSON));
+        //Then result is ok
+        resultActions = resultActions.andExpect(status().isOk());
+        //And it contains the samples
+        resultActions.andExpect(content().string(containsString("\"resolution\":\"HOURLY\"")))
+                .andExpect(content().string(containsString("\"activeSamples\":1")));
+    }
+
     @Test
     public void test_list_applications() throws Exception {
         //given repository contains an application black listed
@@ -157,7 +185,9 @@ public class ApiControllerTest {
                 CloudFoundryAppState.STARTED);
         applicationInfo.getEnrollmentState().addEnrollmentState("serviceId");
         applicationInfo.getEnrollmentState().updateEnrollment("serviceId", true);
-        when(applicationRepository.findAll()).thenReturn(Collections.singletonList(applicationInfo));
+        when(applicationRepository.findSummaries())
+                .thenReturn(Collections.singletonList(new ApplicationSummary(applicationInfo)));
+        when(bindingRepository.findResourceIds(ResourceType.Application)).thenReturn(Collections.emptyList());
 
         //When listing of application is called
         ResultActions resultActions = mockMvc.perform(
@@ -169,7 +199,7 @@ public class ApiControllerTest {
                 .contentType(new MediaType(MediaType.APPLICATION_JSON,
                         Collections.singletonMap("charset", Charset.forName("UTF-8").toString()))));
         //And repository function was called
-        resultActions = resultActions.andDo(mvcResult -> verify(applicationRepository, times(1)).findAll());
+        resultActions = resultActions.andDo(mvcResult -> verify(applicationRepository, times(1)).findSummaries());
         //And result contains a single application with good id
         resultActions.andDo(mvcResult ->
                 checkMvcResultsContainsASingleApplicationWithCorrectId(mvcResult, applicationId));
@@ -182,7 +212,10 @@ public class ApiControllerTest {
         ApplicationInfo applicationInfo = BeanGenerator.createAppInfoWithDiagnostic(applicationId,
                 "appName", CloudFoundryAppState.STARTED);
         applicationInfo.getEnrollmentState().addEnrollmentState(serviceId);
-        when(applicationRepository.findAll()).thenReturn(Collections.singletonList(applicationInfo));
+        when(applicationRepository.findSummariesBoundTo(serviceId, ResourceType.Application))
+                .thenReturn(Collections.singletonList(new ApplicationSummary(applicationInfo)));
+        when(applicationRepository.findSummariesOptedOutOf(serviceId, ResourceType.Application))
+                .thenReturn(Collections.emptyList());
 
         //When list applications of this service
         ResultActions resultActions = mockMvc.perform(
@@ -195,12 +228,41 @@ public class ApiControllerTest {
                 .contentType(new MediaType(MediaType.APPLICATION_JSON,
                         Collections.singletonMap("charset", Charset.forName("UTF-8").toString()))));
         //And repository function was called
-        resultActions = resultActions.andDo(mvcResult -> verify(applicationRepository, times(1)).findAll());
+        resultActions = resultActions.andDo(mvcResult -> verify(applicationRepository, times(1))
+                .findSummariesBoundTo(serviceId, ResourceType.Application));
         //And it contains a single application info with good id
         resultActions.andDo(mvcResult ->
                 checkMvcResultsContainsASingleApplicationWithCorrectId(mvcResult, applicationId));
     }
 
+    @Test
+    public void test_list_applications_on_a_space_enroller_config_includes_blacklisted() throws Exception {
+        //Given an application opted out of a service
+        String serviceId = "serviceIdBlacklisted";
+        ApplicationInfo applicationInfo = BeanGenerator.createAppInfoWithDiagnostic(applicationId,
+                "appName", CloudFoundryAppState.STARTED);
+        applicationInfo.getEnrollmentState().updateEnrollment(serviceId, true);
+        when(applicationRepository.findSummariesBoundTo(serviceId, ResourceType.Application))
+                .thenReturn(Collections.emptyList());
+        when(applicationRepository.findSummariesOptedOutOf(serviceId, ResourceType.Application))
+                .thenReturn(Collections.singletonList(new ApplicationSummary(applicationInfo)));
+        when(applicationRepository.findWatchedIdsOptedOutOf(serviceId, ResourceType.Application))
+                .thenReturn(Collections.emptyList());
+
+        //When list applications of this service
+        ResultActions resultActions = mockMvc.perform(
+                get(Config.Path.API_CONTEXT + Config.Path.SERVICES_SUB_PATH + serviceId + "/applications/")
+                        .accept(MediaType.APPLICATION_JSON));
+        //Then result is OK
+        resultActions = resultActions.andExpect(status().isOk());
+        //And the opted out summaries were read
+        resultActions = resultActions.andDo(mvcResult -> verify(applicationRepository, times(1))
+                .findSummariesOptedOutOf(serviceId, ResourceType.Application));
+        //And it only contains the blacklisted application
+        resultActions.andDo(mvcResult ->
+                checkMvcResultsContainsASingleApplicationWithCorrectId(mvcResult, applicationId));
+    }
+
     @Test
     public void test_list_bindings_on_exisiting_instance() throws Exception {
         //Given the repository contains a single binding of an instance
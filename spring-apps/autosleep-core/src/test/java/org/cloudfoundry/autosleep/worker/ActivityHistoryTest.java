@@ -0,0 +1,151 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample;
+import org.cloudfoundry.autosleep.access.dao.model.ActivitySample.Resolution;
+import org.cloudfoundry.autosleep.access.dao.repositories.ActivitySampleRepository;
+import org.cloudfoundry.autosleep.util.LeaderElection;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ActivityHistoryTest {
+
+    private static final String APP_UID = UUID.randomUUID().toString();
+
+    @InjectMocks
+    private ActivityHistory activityHistory;
+
+    @Mock
+    private ActivitySampleRepository activitySampleRepository;
+
+    @Mock
+    private LeaderElection leaderElection;
+
+    @Mock
+    private TimeManager timeManager;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private static ActivitySample rawSample(Instant time, boolean active) {
+        return ActivitySample.builder()
+                .appUuid(APP_UID)
+                .resolution(Resolution.RAW)
+                .periodStart(time.toEpochMilli())
+                .samples(1)
+                .activeSamples(active ? 1 : 0)
+                .build();
+    }
+
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(activityHistory, "compactionBatchSize", 10);
+        ReflectionTestUtils.setField(activityHistory, "dailyRetention", "P90D");
+        ReflectionTestUtils.setField(activityHistory, "enabled", true);
+        ReflectionTestUtils.setField(activityHistory, "hourlyRetention", "P7D");
+        ReflectionTestUtils.setField(activityHistory, "rawRetention", "P1D");
+        when(activitySampleRepository.findByResolutionAndPeriodStartLessThan(any(Resolution.class), anyLong(),
+                any(Pageable.class))).thenReturn(Collections.emptyList());
+        when(leaderElection.isLeader(ActivityHistory.COMPACTION_ROLE)).thenReturn(true);
+    }
+
+    @Test
+    public void test_compaction_is_skipped_when_not_leader() {
+        //given another instance leads the compaction
+        when(leaderElection.isLeader(ActivityHistory.COMPACTION_ROLE)).thenReturn(false);
+        //when compaction runs
+        activityHistory.compact();
+        //then no sample is read nor written
+        verify(activitySampleRepository, never()).findByResolutionAndPeriodStartLessThan(any(Resolution.class),
+                anyLong(), any(Pageable.class));
+        verify(activitySampleRepository, never()).deleteOlderThan(any(Resolution.class), anyLong());
+    }
+
+    @Test
+    public void test_old_raw_samples_are_compacted_into_hourly_bucket() {
+        //given two old raw samples in the same hour
+        Instant hour = Instant.ofEpochMilli(Resolution.HOURLY.truncate(
+                Instant.now().minus(Duration.ofDays(2)).toEpochMilli()));
+        List<ActivitySample> raw = Arrays.asList(rawSample(hour.plusSeconds(60), true),
+                rawSample(hour.plusSeconds(120), false));
+        when(activitySampleRepository.findByResolutionAndPeriodStartLessThan(eq(Resolution.RAW), anyLong(),
+                any(Pageable.class))).thenReturn(raw);
+        //when compaction runs
+        activityHistory.compact();
+        //then a single hourly bucket is saved with both samples
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Iterable<ActivitySample>> saved = ArgumentCaptor.forClass((Class) Iterable.class);
+        verify(activitySampleRepository, times(1)).save(saved.capture());
+        List<ActivitySample> buckets = new ArrayList<>();
+        saved.getValue().forEach(buckets::add);
+        assertThat(buckets.size(), is(equalTo(1)));
+        assertThat(buckets.get(0).getResolution(), is(equalTo(Resolution.HOURLY)));
+        assertThat(buckets.get(0).getPeriodStart(), is(equalTo(hour.toEpochMilli())));
+        assertThat(buckets.get(0).getSamples(), is(equalTo(2)));
+        assertThat(buckets.get(0).getActiveSamples(), is(equalTo(1)));
+        //and raw samples are deleted
+        verify(activitySampleRepository, times(1)).delete(raw);
+        //and old daily buckets are dropped
+        verify(activitySampleRepository, times(1)).deleteOlderThan(eq(Resolution.DAILY), anyLong());
+    }
+
+    @Test
+    public void test_samples_are_buffered_until_flush() {
+        //given a check is recorded
+        activityHistory.record(APP_UID, Instant.now(), true);
+        verify(activitySampleRepository, never()).save(anyListOf(ActivitySample.class));
+        //when buffer is flushed
+        activityHistory.flush();
+        //then the sample is inserted
+        verify(activitySampleRepository, times(1)).save(anyListOf(ActivitySample.class));
+    }
+
+}
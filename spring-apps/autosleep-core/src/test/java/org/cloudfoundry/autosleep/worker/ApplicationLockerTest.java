@@ -21,25 +21,40 @@ package org.cloudfoundry.autosleep.worker;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.util.ApplicationLockTimeoutException;
 import org.cloudfoundry.autosleep.util.ApplicationLocker;
+import org.cloudfoundry.autosleep.util.LockProvider;
+import org.junit.Before;
 import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.cloudfoundry.autosleep.util.TestUtils.verifyThrown;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @Slf4j
 public class ApplicationLockerTest {
 
     private ApplicationLocker applicationLocker = spy(new ApplicationLocker());
 
+    private LockProvider lockProvider = mock(LockProvider.class);
+
     @AllArgsConstructor
     private static class SleepingRun implements Runnable {
         private int id;
@@ -72,6 +87,43 @@ public class ApplicationLockerTest {
     }
 
 
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(applicationLocker, "lockProvider", lockProvider);
+        ReflectionTestUtils.setField(applicationLocker, "timeout", "PT0.1S");
+        when(lockProvider.tryLock(anyString(), any(Duration.class))).thenReturn(true);
+    }
+
+    @Test
+    public void test_contention_is_measured() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        //Given a thread holding the lock of an application
+        Thread holder = new Thread(() -> applicationLocker.executeThreadSafe("someId", () -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException i) {
+                log.debug("interrupted");
+            }
+        }));
+        holder.start();
+        locked.await();
+        //When another thread waits for it
+        Thread waiter = new Thread(() -> applicationLocker.executeThreadSafe("someId", () -> log.debug("passed")));
+        waiter.start();
+        while (metric("autosleep.locker.contentions").equals(0L)) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        holder.join();
+        waiter.join();
+        //Then both acquisitions are counted, the second one as contended
+        assertThat(metric("autosleep.locker.acquisitions"), is(equalTo(2L)));
+        assertThat(metric("autosleep.locker.contentions"), is(equalTo(1L)));
+        assertThat(metric("autosleep.locker.locks"), is(equalTo(0)));
+    }
+
     @Test
     public void test_execute_thread_safe_locks_properly() throws Exception {
         Duration duration = Duration.ofMillis(500);
@@ -95,15 +147,66 @@ public class ApplicationLockerTest {
     }
 
     @Test
-    public void test_remove_applications_succeed() throws Exception {
-        Runnable task1 = () -> log.debug("passed");
-        //Given a lock exist
-        applicationLocker.executeThreadSafe("someId", task1);
-        //When we call a remove
-        applicationLocker.removeApplication("someId");
-        //Then no exception is thrown
+    public void test_lock_held_elsewhere_times_out() throws Exception {
+        //Given another instance holds the application
+        when(lockProvider.tryLock(eq("someId"), any(Duration.class))).thenReturn(false);
+        Runnable task = mock(Runnable.class);
+        //When a task is run
+        boolean run = applicationLocker.tryExecuteThreadSafe("someId", Duration.ofMillis(10), task);
+        //Then it gives up without running it
+        assertThat(run, is(false));
+        verify(task, never()).run();
+        verify(lockProvider, never()).unlock("someId");
+        assertThat(metric("autosleep.locker.timeouts"), is(equalTo(1L)));
+        assertThat(metric("autosleep.locker.locks"), is(equalTo(0)));
+    }
+
+    @Test
+    public void test_lock_held_too_long_times_out() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        //Given a thread holding the lock of an application
+        Thread holder = new Thread(() -> applicationLocker.executeThreadSafe("someId", () -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException i) {
+                log.debug("interrupted");
+            }
+        }));
+        holder.start();
+        locked.await();
+        //When another task waits for it longer than the timeout
+        Runnable task = mock(Runnable.class);
+        //Then it fails without being run
+        verifyThrown(() -> applicationLocker.executeThreadSafe("someId", task), ApplicationLockTimeoutException.class);
+        verify(task, never()).run();
+        assertThat(metric("autosleep.locker.timeouts"), is(equalTo(1L)));
+        release.countDown();
+        holder.join();
     }
 
+    @Test
+    public void test_lock_is_released_once_unused() throws Exception {
+        //Given a task that locks the same application again
+        applicationLocker.executeThreadSafe("someId", () -> {
+            applicationLocker.executeThreadSafe("someId", () -> log.debug("passed"));
+            //Then the lock is kept while in use
+            assertThat(metric("autosleep.locker.locks"), is(equalTo(1)));
+        });
+        //And released once the task is done
+        assertThat(metric("autosleep.locker.locks"), is(equalTo(0)));
+        //And the lock shared with other instances is only taken once
+        verify(lockProvider, times(1)).tryLock(eq("someId"), any(Duration.class));
+        verify(lockProvider, times(1)).unlock("someId");
+    }
 
+    private Object metric(String name) {
+        return applicationLocker.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .findFirst()
+                .map(Metric::getValue)
+                .orElse(null);
+    }
 
 }
\ No newline at end of file
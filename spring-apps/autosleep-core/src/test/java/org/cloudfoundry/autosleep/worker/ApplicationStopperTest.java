@@ -24,7 +24,10 @@ import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
 import org.cloudfoundry.autosleep.access.cloudfoundry.model.ApplicationActivity;
 import org.cloudfoundry.autosleep.access.cloudfoundry.model.ApplicationIdentity;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
 import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
 import org.cloudfoundry.autosleep.access.dao.model.ProxyMapEntry;
 import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
 import org.cloudfoundry.autosleep.access.dao.repositories.ProxyMapEntryRepository;
@@ -37,10 +40,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.mockito.Matchers.eq;
@@ -69,6 +74,13 @@ public class ApplicationStopperTest {
 
     private static final Duration INTERVAL = Duration.ofMillis(300);
 
+    private static final Duration LOCK_RETRY_DELAY = Duration.ofSeconds(10);
+
+    private static final Duration LOCK_TIMEOUT = Duration.ofSeconds(1);
+
+    @Mock
+    private ActivityHistory activityHistory;
+
     @Mock
     private ApplicationIdentity application;
 
@@ -85,15 +97,27 @@ public class ApplicationStopperTest {
 
     private ApplicationStopper applicationStopper;
 
+    @Mock
+    private ChangeFeed changeFeed;
+
     @Mock
     private Clock clock;
 
     @Mock
     private CloudFoundryApiService cloudFoundryApi;
 
+    @Mock
+    private DiagnosticWriteBehind diagnosticWriteBehind;
+
     @Mock
     private ProxyMapEntryRepository proxyMapEntryRepository;
 
+    @Mock
+    private ShardManager shardManager;
+
+    @Mock
+    private StandbyManager standbyManager;
+
     /**
      * Build mocks.
      */
@@ -116,24 +140,44 @@ public class ApplicationStopperTest {
         );
 
         doAnswer(invocationOnMock -> {
-            ((Runnable) invocationOnMock.getArguments()[1]).run();
-            return null;
-        }).when(applicationLocker).executeThreadSafe(anyString(), any(Runnable.class));
+            ((Runnable) invocationOnMock.getArguments()[2]).run();
+            return true;
+        }).when(applicationLocker).tryExecuteThreadSafe(anyString(), any(Duration.class), any(Runnable.class));
+
+        when(changeFeed.publish(any(EntityType.class), anyString(), any(Operation.class))).thenReturn(true);
+        when(shardManager.owns(APP_UID)).thenReturn(true);
+        when(standbyManager.isActive()).thenReturn(true);
 
         applicationStopper = spy(ApplicationStopper.builder()
                 .proxyMap(proxyMapEntryRepository)
+                .activityHistory(activityHistory)
                 .applicationLocker(applicationLocker)
                 .applicationRepository(applicationRepository)
                 .appUid(APP_UID)
                 .bindingId(BINDING_ID)
+                .changeFeed(changeFeed)
                 .clock(clock)
                 .cloudFoundryApi(cloudFoundryApi)
+                .diagnosticWriteBehind(diagnosticWriteBehind)
                 .ignoreRouteBindingError(Boolean.TRUE)
+                .lockRetryDelay(LOCK_RETRY_DELAY)
+                .lockTimeout(LOCK_TIMEOUT)
                 .period(INTERVAL)
+                .shardManager(shardManager)
                 .spaceEnrollerConfigId(INSTANCE_ID)
+                .standbyManager(standbyManager)
                 .build());
     }
 
+    private void givenInactiveApplication() throws CloudFoundryException {
+        when(applicationActivity.getState()).thenReturn(CloudFoundryAppState.STARTED);
+        when(applicationActivity.getLastEvent()).thenReturn(BeanGenerator.createCloudEvent(Instant.now().minus(
+                INTERVAL.multipliedBy(2))));
+        when(applicationActivity.getLastLog()).thenReturn(BeanGenerator.createAppLog(Instant.now()
+                .minus(INTERVAL.multipliedBy(2))));
+        when(cloudFoundryApi.listApplicationRoutes(APP_UID)).thenReturn(Arrays.asList("route_1", "route_2"));
+    }
+
     @Test
     public void test_application_is_not_stopped_if_already_stopped() throws Exception {
         //given the application is stopped
@@ -147,7 +191,7 @@ public class ApplicationStopperTest {
         //and it schedules task on default period
         verify(applicationStopper, times(1)).rescheduleWithDefaultPeriod();
         // and application is saved at the end
-        verify(applicationRepository, times(1)).save(any(ApplicationInfo.class));
+        verify(diagnosticWriteBehind, times(1)).save(any(ApplicationInfo.class));
     }
 
     @Test
@@ -164,7 +208,7 @@ public class ApplicationStopperTest {
         //and it rescheduled with default period
         verify(applicationStopper, times(1)).rescheduleWithDefaultPeriod();
         //and application is saved
-        verify(applicationRepository, times(1)).save(any(ApplicationInfo.class));
+        verify(diagnosticWriteBehind, times(1)).save(any(ApplicationInfo.class));
     }
 
     @Test
@@ -184,8 +228,95 @@ public class ApplicationStopperTest {
         verify(clock, times(1)).scheduleTask(any(), anyObject(), any());
         verify(applicationStopper, never()).rescheduleWithDefaultPeriod();
         // and application is saved at the end
-        verify(applicationRepository, times(1)).save(any(ApplicationInfo.class));
+        verify(diagnosticWriteBehind, times(1)).save(any(ApplicationInfo.class));
+        // and an active sample is recorded
+        verify(activityHistory, times(1)).record(eq(APP_UID), any(Instant.class), eq(true));
+
+    }
+
+    @Test
+    public void test_application_is_not_stopped_when_locked() throws Exception {
+        //given the application is inactive
+        givenInactiveApplication();
+        //and it stays locked by a broker request
+        doAnswer(invocationOnMock -> false)
+                .when(applicationLocker).tryExecuteThreadSafe(eq(APP_UID), eq(LOCK_TIMEOUT), any(Runnable.class));
+        //when task is run
+        applicationStopper.run();
+        //then the activity was fetched without the lock
+        verify(cloudFoundryApi, times(1)).getApplicationActivity(APP_UID);
+        //and the stop is deferred
+        verify(cloudFoundryApi, never()).stopApplication(APP_UID);
+        verify(applicationStopper, times(1)).reschedule(LOCK_RETRY_DELAY);
+    }
+
+    @Test
+    public void test_application_is_not_stopped_when_modified_during_check() throws Exception {
+        //given the application is inactive
+        givenInactiveApplication();
+        //and its enrollment was modified by someone else once read
+        ApplicationInfo stored = BeanGenerator.createAppInfoLinkedToService(APP_UID, INSTANCE_ID);
+        ReflectionTestUtils.setField(stored.getEnrollmentState(), "revision",
+                applicationInfo.getEnrollmentState().getRevision() + 1);
+        when(applicationRepository.findOne(APP_UID)).thenReturn(applicationInfo, stored);
+        //when task is run
+        applicationStopper.run();
+        //then the stop is deferred
+        verify(cloudFoundryApi, never()).stopApplication(APP_UID);
+        verify(applicationInfo, never()).markAsPutToSleep();
+        verify(applicationStopper, times(1)).reschedule(LOCK_RETRY_DELAY);
+        //and only the diagnostic is saved
+        verify(diagnosticWriteBehind, times(1)).save(any(ApplicationInfo.class));
+    }
+
+    @Test
+    public void test_application_is_stopped_when_only_diagnostic_was_written_during_check() throws Exception {
+        //given the application is inactive
+        givenInactiveApplication();
+        //and its diagnostic was written once read, which moved its version but not its enrollment
+        ApplicationInfo stored = BeanGenerator.createAppInfoLinkedToService(APP_UID, INSTANCE_ID);
+        ReflectionTestUtils.setField(stored, "version", applicationInfo.getVersion() + 1);
+        when(applicationRepository.findOne(APP_UID)).thenReturn(applicationInfo, stored);
+        //when task is run
+        applicationStopper.run();
+        //then the application is stopped
+        verify(cloudFoundryApi, times(1)).stopApplication(APP_UID);
+        verify(applicationInfo, times(1)).markAsPutToSleep();
+        verify(diagnosticWriteBehind, times(1)).saveNow(any(ApplicationInfo.class));
+    }
+
+    @Test
+    public void test_application_is_not_marked_as_put_to_sleep_when_stop_fails() throws Exception {
+        //given the application is inactive
+        givenInactiveApplication();
+        //and cloudfoundry fails to stop it
+        doThrow(new CloudFoundryException(new Exception("test"))).when(cloudFoundryApi).stopApplication(APP_UID);
+        //when task is run
+        applicationStopper.run();
+        //then it is not marked as put to sleep
+        verify(applicationInfo, never()).markAsPutToSleep();
+        //and the check is rescheduled on default period and saved
+        verify(applicationStopper, times(1)).rescheduleWithDefaultPeriod();
+        verify(diagnosticWriteBehind, never()).saveNow(any(ApplicationInfo.class));
+        verify(diagnosticWriteBehind, times(1)).save(any(ApplicationInfo.class));
+    }
 
+    @Test
+    public void test_application_is_not_stopped_when_its_hosts_cannot_be_published() throws Exception {
+        //given the application is inactive
+        givenInactiveApplication();
+        when(cloudFoundryApi.getHost(anyString())).thenReturn("host");
+        //and the change feed is unavailable
+        when(changeFeed.publish(EntityType.PROXY_MAP_ENTRY, "host", Operation.SAVE)).thenReturn(false);
+        //when task is run
+        applicationStopper.run();
+        //then the application is not stopped, proxies could not learn its hosts
+        verify(cloudFoundryApi, never()).stopApplication(APP_UID);
+        verify(applicationInfo, never()).markAsPutToSleep();
+        //and the entry saved for its host is removed
+        verify(proxyMapEntryRepository, times(1)).deleteByHosts(Collections.singletonList("host"));
+        //and the stop is deferred
+        verify(applicationStopper, times(1)).reschedule(LOCK_RETRY_DELAY);
     }
 
     @Test
@@ -211,7 +342,7 @@ public class ApplicationStopperTest {
         //and it schedules task on default period
         verify(applicationStopper, times(1)).rescheduleWithDefaultPeriod();
         // and application is saved at the end
-        verify(applicationRepository, times(1)).save(any(ApplicationInfo.class));
+        verify(diagnosticWriteBehind, times(1)).saveNow(any(ApplicationInfo.class));
     }
 
     @Test
@@ -228,6 +359,8 @@ public class ApplicationStopperTest {
         applicationStopper.run();
         //then it see the application as monitored
         verify(applicationStopper, times(1)).handleApplicationEnrolled(applicationInfo);
+        //and checked it was not modified, stopped it and saved it with the application locked
+        verify(applicationLocker, times(1)).tryExecuteThreadSafe(eq(APP_UID), eq(LOCK_TIMEOUT), any(Runnable.class));
         //and it list routes
         verify(cloudFoundryApi, times(1)).listApplicationRoutes(APP_UID);
         /*TODO uncomment whenever route service ready to route when app stopped
@@ -235,6 +368,7 @@ public class ApplicationStopperTest {
         verify(cloudFoundryApi, times(1)).bindRoutes(INSTANCE_ID, applicationsRoutes);*/
         verify(cloudFoundryApi, times(2)).getHost(anyString());
         verify(proxyMapEntryRepository, times(2)).save(any(ProxyMapEntry.class));
+        verify(changeFeed, times(2)).publish(eq(EntityType.PROXY_MAP_ENTRY), anyString(), eq(Operation.SAVE));
 
         //and it did stop the application
         verify(cloudFoundryApi, times(1)).stopApplication(APP_UID);
@@ -242,7 +376,9 @@ public class ApplicationStopperTest {
         //and it schedules task on default period
         verify(applicationStopper, times(1)).rescheduleWithDefaultPeriod();
         // and application is saved at the end
-        verify(applicationRepository, times(1)).save(any(ApplicationInfo.class));
+        verify(diagnosticWriteBehind, times(1)).saveNow(any(ApplicationInfo.class));
+        // and an inactive sample is recorded
+        verify(activityHistory, times(1)).record(eq(APP_UID), any(Instant.class), eq(false));
     }
 
     @Test
@@ -262,7 +398,7 @@ public class ApplicationStopperTest {
         //and it removes task from known tasks
         verify(clock, times(1)).removeTask(BINDING_ID);
         //and it saves application current information
-        verify(applicationRepository, times(1)).save(any(ApplicationInfo.class));
+        verify(diagnosticWriteBehind, times(1)).saveNow(any(ApplicationInfo.class));
     }
 
     @Test
@@ -312,7 +448,7 @@ public class ApplicationStopperTest {
         //and task is rescheduled
         verify(applicationStopper, times(1)).rescheduleWithDefaultPeriod();
         //and application is saved
-        verify(applicationRepository, times(1)).save(any(ApplicationInfo.class));
+        verify(diagnosticWriteBehind, times(1)).save(any(ApplicationInfo.class));
     }
 
     @Test
@@ -327,7 +463,29 @@ public class ApplicationStopperTest {
         verify(clock, times(1)).scheduleTask(BINDING_ID, Duration.ofSeconds(0), applicationStopper);
         verify(applicationStopper, times(1)).run();
         // and application is saved at the end
-        verify(applicationRepository, times(1)).save(any(ApplicationInfo.class));
+        verify(diagnosticWriteBehind, times(1)).save(any(ApplicationInfo.class));
+    }
+
+    @Test
+    public void test_task_is_cancelled_when_application_is_owned_by_another_instance() throws Exception {
+        //given the application is now owned by another instance
+        when(shardManager.owns(APP_UID)).thenReturn(false);
+        //when task is run
+        applicationStopper.run();
+        //then it cancels itself without checking the application
+        verify(clock, times(1)).removeTask(BINDING_ID);
+        verify(applicationRepository, never()).findOne(APP_UID);
+    }
+
+    @Test
+    public void test_task_is_cancelled_when_instance_becomes_passive() throws Exception {
+        //given another instance took over
+        when(standbyManager.isActive()).thenReturn(false);
+        //when task is run
+        applicationStopper.run();
+        //then it cancels itself without checking the application
+        verify(clock, times(1)).removeTask(BINDING_ID);
+        verify(applicationRepository, never()).findOne(APP_UID);
     }
 
-}
\ No newline at end of file
+}
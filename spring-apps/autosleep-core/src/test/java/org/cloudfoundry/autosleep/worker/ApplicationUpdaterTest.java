@@ -0,0 +1,125 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
+import org.cloudfoundry.autosleep.util.ApplicationUpdater;
+import org.cloudfoundry.autosleep.util.BeanGenerator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ApplicationUpdaterTest {
+
+    private static final String APP_ID = "appId";
+
+    @Mock
+    private ApplicationRepository applicationRepository;
+
+    @InjectMocks
+    private ApplicationUpdater applicationUpdater;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Before
+    public void buildMocks() {
+        ReflectionTestUtils.setField(applicationUpdater, "maxAttempts", 3);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+    }
+
+    @Test
+    public void test_update_is_retried_on_conflict() {
+        //given the first save conflicts with a concurrent update
+        ApplicationInfo stale = BeanGenerator.createAppInfoLinkedToService(APP_ID, "serviceId");
+        ApplicationInfo fresh = BeanGenerator.createAppInfoLinkedToService(APP_ID, "concurrentServiceId");
+        when(applicationRepository.findOne(APP_ID)).thenReturn(stale, fresh);
+        when(applicationRepository.save(stale)).thenThrow(new OptimisticLockingFailureException("conflict"));
+        when(applicationRepository.save(fresh)).thenReturn(fresh);
+        AtomicInteger calls = new AtomicInteger();
+
+        //when an update is applied
+        ApplicationInfo result = applicationUpdater.update(APP_ID, applicationInfo -> {
+            calls.incrementAndGet();
+            applicationInfo.getEnrollmentState().addEnrollmentState("otherServiceId");
+            return applicationInfo;
+        });
+
+        //then it is applied again on the fresh copy
+        assertThat(calls.get(), is(equalTo(2)));
+        assertThat(result, is(fresh));
+        assertThat(fresh.getEnrollmentState().isEnrolledByService("otherServiceId"), is(true));
+    }
+
+    @Test
+    public void test_update_gives_up_after_max_attempts() {
+        //given every save conflicts
+        ApplicationInfo stale = BeanGenerator.createAppInfoLinkedToService(APP_ID, "serviceId");
+        when(applicationRepository.findOne(APP_ID)).thenReturn(stale);
+        when(applicationRepository.save(stale)).thenThrow(new OptimisticLockingFailureException("conflict"));
+
+        //when an update is applied
+        try {
+            applicationUpdater.update(APP_ID, applicationInfo -> applicationInfo);
+            fail("conflict should have been raised");
+        } catch (OptimisticLockingFailureException e) {
+            //then the conflict is raised after the maximum number of attempts
+            verify(applicationRepository, times(3)).save(stale);
+        }
+    }
+
+    @Test
+    public void test_null_update_deletes_stored_application() {
+        //given the application is stored
+        when(applicationRepository.findOne(APP_ID))
+                .thenReturn(BeanGenerator.createAppInfoLinkedToService(APP_ID, "serviceId"));
+
+        //when the update returns null
+        ApplicationInfo result = applicationUpdater.update(APP_ID, applicationInfo -> null);
+
+        //then the application is deleted
+        assertThat(result, is(nullValue()));
+        verify(applicationRepository, times(1)).delete(APP_ID);
+        verify(applicationRepository, never()).save(any(ApplicationInfo.class));
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ConsistentHashRingTest {
+
+    private static final List<String> KEYS = IntStream.range(0, 3000)
+            .mapToObj(i -> UUID.randomUUID().toString())
+            .collect(Collectors.toList());
+
+    @Test
+    public void test_empty_ring_has_no_owner() {
+        assertThat(new ConsistentHashRing(Arrays.asList(), 10).ownerOf("key"), is(nullValue()));
+    }
+
+    @Test
+    public void test_keys_are_spread_between_members() {
+        //given a ring of three members
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 100);
+        //when keys are assigned
+        Map<String, Long> counts = KEYS.stream()
+                .collect(Collectors.groupingBy(ring::ownerOf, Collectors.counting()));
+        //then every member gets a fair share
+        assertThat(counts.size(), is(equalTo(3)));
+        counts.values().forEach(count -> {
+            assertThat(count, is(greaterThan(600L)));
+            assertThat(count, is(lessThan(1400L)));
+        });
+    }
+
+    @Test
+    public void test_member_leaving_only_moves_its_keys() {
+        //given keys assigned on a ring of three members
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 100);
+        Map<String, String> owners = new HashMap<>();
+        KEYS.forEach(key -> owners.put(key, before.ownerOf(key)));
+        //when a member leaves
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("a", "b"), 100);
+        //then keys of the remaining members stay where they were
+        KEYS.stream()
+                .filter(key -> !owners.get(key).equals("c"))
+                .forEach(key -> assertThat(after.ownerOf(key), is(equalTo(owners.get(key)))));
+    }
+
+}
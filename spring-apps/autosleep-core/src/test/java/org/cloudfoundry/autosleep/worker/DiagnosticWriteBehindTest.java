@@ -0,0 +1,157 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import org.cloudfoundry.autosleep.access.dao.model.ApplicationInfo;
+import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
+import org.cloudfoundry.autosleep.config.Config.CloudFoundryAppState;
+import org.cloudfoundry.autosleep.util.BeanGenerator;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DiagnosticWriteBehindTest {
+
+    @Mock
+    private ApplicationRepository applicationRepository;
+
+    @InjectMocks
+    private DiagnosticWriteBehind diagnosticWriteBehind;
+
+    @Mock
+    private TimeManager timeManager;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private static ApplicationInfo createChecked(String uuid, String state) {
+        return BeanGenerator.createAppInfoWithDiagnostic(uuid, "name", state);
+    }
+
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(diagnosticWriteBehind, "batchSize", 2);
+        ReflectionTestUtils.setField(diagnosticWriteBehind, "flushPeriod", "PT1S");
+    }
+
+    @Test
+    public void test_save_is_written_through_when_disabled() {
+        //given write behind is disabled
+        ReflectionTestUtils.setField(diagnosticWriteBehind, "enabled", false);
+        ApplicationInfo applicationInfo = createChecked(UUID.randomUUID().toString(), CloudFoundryAppState.STARTED);
+        //when a diagnostic is saved
+        diagnosticWriteBehind.save(applicationInfo);
+        //then it is saved immediately
+        verify(applicationRepository, times(1)).updateDiagnosticInfo(applicationInfo);
+    }
+
+    @Test
+    public void test_save_is_buffered_until_batch_is_full() {
+        //given write behind is enabled
+        ReflectionTestUtils.setField(diagnosticWriteBehind, "enabled", true);
+        String uuid = UUID.randomUUID().toString();
+        ApplicationInfo stored = BeanGenerator.createAppInfoLinkedToService(uuid, "serviceId");
+        ApplicationInfo checked = createChecked(uuid, CloudFoundryAppState.STARTED);
+        when(applicationRepository.findAll(anyCollectionOf(String.class)))
+                .thenReturn(Collections.singletonList(stored));
+
+        //when a single diagnostic is saved
+        diagnosticWriteBehind.save(checked);
+        //then nothing is written
+        verify(applicationRepository, never()).findAll(anyCollectionOf(String.class));
+        verify(applicationRepository, never()).updateDiagnosticInfo(any(ApplicationInfo.class));
+
+        //when the batch is full
+        diagnosticWriteBehind.save(createChecked(UUID.randomUUID().toString(), CloudFoundryAppState.STARTED));
+        //then stored entities are reloaded once and updated with the buffered diagnostic
+        verify(applicationRepository, times(1)).findAll(anyCollectionOf(String.class));
+        assertThat(stored.getDiagnosticInfo(), is(equalTo(checked.getDiagnosticInfo())));
+        //and enrollment is left untouched
+        assertThat(stored.getEnrollmentState().isEnrolledByService("serviceId"), is(true));
+    }
+
+    @Test
+    public void test_save_now_waits_for_flush_in_progress() throws Exception {
+        //given write behind is enabled and a flush is writing an older update
+        ReflectionTestUtils.setField(diagnosticWriteBehind, "enabled", true);
+        String uuid = UUID.randomUUID().toString();
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(applicationRepository.findAll(anyCollectionOf(String.class))).then(invocation -> {
+            flushing.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return Collections.emptyList();
+        });
+        diagnosticWriteBehind.save(createChecked(uuid, CloudFoundryAppState.STARTED));
+        Thread flush = new Thread(diagnosticWriteBehind::flush);
+        flush.start();
+        assertThat(flushing.await(10, TimeUnit.SECONDS), is(true));
+        //when the application is written through
+        ApplicationInfo sleeping = createChecked(uuid, CloudFoundryAppState.STOPPED);
+        Thread saveNow = new Thread(() -> diagnosticWriteBehind.saveNow(sleeping));
+        saveNow.start();
+        saveNow.join(200);
+        //then it is only written once the flush is done
+        verify(applicationRepository, never()).updateDiagnosticInfo(sleeping);
+        release.countDown();
+        flush.join(10000);
+        saveNow.join(10000);
+        verify(applicationRepository, times(1)).updateDiagnosticInfo(sleeping);
+    }
+
+    @Test
+    public void test_save_now_discards_pending_update() {
+        //given write behind is enabled and an update is pending
+        ReflectionTestUtils.setField(diagnosticWriteBehind, "enabled", true);
+        String uuid = UUID.randomUUID().toString();
+        diagnosticWriteBehind.save(createChecked(uuid, CloudFoundryAppState.STARTED));
+        //when the application is written through
+        ApplicationInfo sleeping = createChecked(uuid, CloudFoundryAppState.STOPPED);
+        diagnosticWriteBehind.saveNow(sleeping);
+        //then it is saved immediately
+        verify(applicationRepository, times(1)).updateDiagnosticInfo(sleeping);
+        //and nothing remains to be flushed
+        diagnosticWriteBehind.flush();
+        verify(applicationRepository, never()).findAll(anyCollectionOf(String.class));
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import org.cloudfoundry.autosleep.util.LeaderElection;
+import org.cloudfoundry.autosleep.util.LeaseManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.OptionalLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LeaderElectionTest {
+
+    private static final String LEASE = "leader:role";
+
+    private static final String ROLE = "role";
+
+    @InjectMocks
+    private LeaderElection leaderElection;
+
+    @Mock
+    private LeaseManager leaseManager;
+
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(leaderElection, "enabled", true);
+    }
+
+    @Test
+    public void test_every_instance_leads_when_disabled() {
+        ReflectionTestUtils.setField(leaderElection, "enabled", false);
+        assertThat(leaderElection.isLeader(ROLE), is(true));
+        leaderElection.resign(ROLE);
+        verify(leaseManager, never()).tryAcquire(anyString());
+        verify(leaseManager, never()).release(anyString());
+    }
+
+    @Test
+    public void test_follower_when_lease_held_elsewhere() {
+        //given another instance holds the lease
+        when(leaseManager.tryAcquire(LEASE)).thenReturn(OptionalLong.empty());
+        //then the instance does not lead
+        assertThat(leaderElection.isLeader(ROLE), is(false));
+    }
+
+    @Test
+    public void test_follower_when_lease_cannot_be_read() {
+        when(leaseManager.tryAcquire(LEASE)).thenThrow(new IllegalStateException("database down"));
+        assertThat(leaderElection.isLeader(ROLE), is(false));
+    }
+
+    @Test
+    public void test_leader_keeps_its_lease() {
+        //given the instance already holds the lease
+        when(leaseManager.isHeld(LEASE)).thenReturn(true);
+        //then it leads without acquiring it again
+        assertThat(leaderElection.isLeader(ROLE), is(true));
+        verify(leaseManager, never()).tryAcquire(anyString());
+        //and releases it when resigning
+        leaderElection.resign(ROLE);
+        verify(leaseManager, times(1)).release(LEASE);
+    }
+
+    @Test
+    public void test_leader_when_lease_taken() {
+        when(leaseManager.tryAcquire(LEASE)).thenReturn(OptionalLong.of(1L));
+        assertThat(leaderElection.isLeader(ROLE), is(true));
+    }
+
+}
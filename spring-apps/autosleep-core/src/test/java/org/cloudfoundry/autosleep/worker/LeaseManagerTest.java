@@ -0,0 +1,164 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import org.cloudfoundry.autosleep.access.dao.model.Lease;
+import org.cloudfoundry.autosleep.access.dao.repositories.LeaseRepository;
+import org.cloudfoundry.autosleep.util.LeaseManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.OptionalLong;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LeaseManagerTest {
+
+    private static final String NAME = "application:someId";
+
+    @InjectMocks
+    private LeaseManager leaseManager;
+
+    @Mock
+    private LeaseRepository leaseRepository;
+
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(leaseManager, "duration", "PT30S");
+        ReflectionTestUtils.setField(leaseManager, "retention", "P1D");
+    }
+
+    @Test
+    public void test_expired_lease_is_taken_over() {
+        //given the lease exists but expired
+        String owner = leaseManager.getOwner();
+        when(leaseRepository.takeOver(eq(NAME), eq(owner), anyLong(), anyLong())).thenReturn(1);
+        when(leaseRepository.findToken(NAME, owner)).thenReturn(4L);
+        //when it is acquired
+        OptionalLong token = leaseManager.tryAcquire(NAME);
+        //then it is held with its new token
+        assertThat(token.getAsLong(), is(equalTo(4L)));
+        assertThat(leaseManager.isHeld(NAME), is(true));
+        //and released with it
+        leaseManager.release(NAME);
+        verify(leaseRepository, times(1)).release(eq(NAME), eq(owner), eq(4L), anyLong());
+        assertThat(leaseManager.isHeld(NAME), is(false));
+    }
+
+    @Test
+    public void test_lease_not_renewed_before_expiry_is_not_held() {
+        //given a lease acquired, that expires before any renewal succeeds
+        ReflectionTestUtils.setField(leaseManager, "duration", "PT0S");
+        when(leaseRepository.takeOver(eq(NAME), anyString(), anyLong(), anyLong())).thenReturn(1);
+        when(leaseRepository.findToken(eq(NAME), anyString())).thenReturn(1L);
+        leaseManager.tryAcquire(NAME);
+        //when it is checked
+        boolean held = leaseManager.isHeld(NAME);
+        //then it is not held anymore
+        assertThat(held, is(false));
+        //and forgotten, it is not released on shutdown
+        leaseManager.releaseAll();
+        verify(leaseRepository, never()).releaseAll(anyString(), anyLong());
+    }
+
+    @Test
+    public void test_held_lease_is_not_acquired() {
+        //given the lease is held by another instance
+        when(leaseRepository.takeOver(eq(NAME), anyString(), anyLong(), anyLong())).thenReturn(0);
+        when(leaseRepository.exists(NAME)).thenReturn(true);
+        //when it is acquired
+        OptionalLong token = leaseManager.tryAcquire(NAME);
+        //then it is not
+        assertThat(token.isPresent(), is(false));
+        verify(leaseRepository, never()).saveAndFlush(any(Lease.class));
+    }
+
+    @Test
+    public void test_lost_leases_are_forgotten() {
+        //given a lease held
+        when(leaseRepository.takeOver(eq(NAME), anyString(), anyLong(), anyLong())).thenReturn(1);
+        when(leaseRepository.findToken(eq(NAME), anyString())).thenReturn(1L);
+        leaseManager.tryAcquire(NAME);
+        //when it was taken over before being renewed
+        when(leaseRepository.renewAll(anyString(), anyLong(), anyLong())).thenReturn(0);
+        when(leaseRepository.findNamesHeldBy(anyString(), anyLong())).thenReturn(Collections.emptyList());
+        leaseManager.heartbeat();
+        //then it is no longer held
+        assertThat(leaseManager.isHeld(NAME), is(false));
+    }
+
+    @Test
+    public void test_only_renewed_leases_are_kept() {
+        //given two leases held
+        when(leaseRepository.takeOver(anyString(), anyString(), anyLong(), anyLong())).thenReturn(1);
+        when(leaseRepository.findToken(anyString(), anyString())).thenReturn(1L);
+        leaseManager.tryAcquire(NAME);
+        leaseManager.tryAcquire("other");
+        //when only one of them is renewed, the other one expired
+        when(leaseRepository.renewAll(anyString(), anyLong(), anyLong())).thenReturn(1);
+        when(leaseRepository.findNamesHeldBy(anyString(), anyLong())).thenReturn(Collections.singletonList(NAME));
+        leaseManager.heartbeat();
+        //then only the renewed one is still held
+        assertThat(leaseManager.isHeld(NAME), is(true));
+        assertThat(leaseManager.isHeld("other"), is(false));
+    }
+
+    @Test
+    public void test_new_lease_is_created() {
+        //given the lease does not exist
+        when(leaseRepository.exists(NAME)).thenReturn(false);
+        when(leaseRepository.saveAndFlush(any(Lease.class))).thenAnswer(invocation -> invocation.getArguments()[0]);
+        //when it is acquired
+        OptionalLong token = leaseManager.tryAcquire(NAME);
+        //then it is inserted with a first token
+        assertThat(token.getAsLong(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void test_new_lease_created_concurrently_is_not_acquired() {
+        //given another instance creates the lease at the same time
+        when(leaseRepository.exists(NAME)).thenReturn(false);
+        when(leaseRepository.saveAndFlush(any(Lease.class))).thenThrow(new DataIntegrityViolationException("dup"));
+        //when it is acquired
+        OptionalLong token = leaseManager.tryAcquire(NAME);
+        //then it is not
+        assertThat(token.isPresent(), is(false));
+        assertThat(leaseManager.isHeld(NAME), is(false));
+    }
+
+}
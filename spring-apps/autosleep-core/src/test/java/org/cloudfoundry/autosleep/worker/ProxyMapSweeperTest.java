@@ -0,0 +1,128 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
+import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
+import org.cloudfoundry.autosleep.access.dao.model.ProxyMapEntry;
+import org.cloudfoundry.autosleep.access.dao.repositories.ProxyMapEntryRepository;
+import org.cloudfoundry.autosleep.config.Config.CloudFoundryAppState;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProxyMapSweeperTest {
+
+    @Mock
+    private ChangeFeed changeFeed;
+
+    @Mock
+    private CloudFoundryApiService cloudFoundryApi;
+
+    @Mock
+    private ProxyMapEntryRepository proxyMap;
+
+    @InjectMocks
+    private ProxyMapSweeper proxyMapSweeper;
+
+    @Mock
+    private TimeManager timeManager;
+
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(proxyMapSweeper, "batchSize", 2);
+        ReflectionTestUtils.setField(proxyMapSweeper, "ttl", "PT1H");
+    }
+
+    @Test
+    public void test_sweep_removes_entries_of_restarted_or_deleted_applications() throws Exception {
+        //given three entries not verified recently, checked by batches of two
+        ProxyMapEntry sleeping = new ProxyMapEntry("sleeping.host", "sleepingApp");
+        ProxyMapEntry restarted = new ProxyMapEntry("restarted.host", "restartedApp");
+        ProxyMapEntry deleted = new ProxyMapEntry("deleted.host", "deletedApp");
+        when(proxyMap.findByLastVerifiedLessThanOrderByLastVerifiedAsc(anyLong(), any(Pageable.class)))
+                .thenReturn(Arrays.asList(sleeping, restarted), Collections.singletonList(deleted));
+        //and only the first application is still stopped, the last one no longer exists
+        Map<String, String> states = new HashMap<>();
+        states.put("sleepingApp", CloudFoundryAppState.STOPPED);
+        states.put("restartedApp", CloudFoundryAppState.STARTED);
+        when(cloudFoundryApi.getApplicationStates(anyListOf(String.class)))
+                .thenReturn(states, Collections.emptyMap());
+        when(proxyMap.deleteByHosts(anyCollectionOf(String.class))).thenReturn(1);
+
+        //when the sweeper runs
+        int removed = proxyMapSweeper.sweep();
+
+        //then entries of the restarted and deleted applications are removed
+        assertThat(removed, is(equalTo(2)));
+        verify(proxyMap, times(1)).deleteByHosts(Collections.singletonList("restarted.host"));
+        verify(proxyMap, times(1)).deleteByHosts(Collections.singletonList("deleted.host"));
+        verify(changeFeed, times(1)).publish(EntityType.PROXY_MAP_ENTRY, "restarted.host", Operation.DELETE);
+        verify(changeFeed, times(1)).publish(EntityType.PROXY_MAP_ENTRY, "deleted.host", Operation.DELETE);
+        //and the one of the sleeping application is kept
+        verify(proxyMap, times(1)).markVerified(eq(Collections.singletonList("sleeping.host")), anyLong());
+    }
+
+    @Test
+    public void test_sweep_keeps_entries_when_cloudfoundry_fails() throws Exception {
+        //given an entry not verified recently
+        when(proxyMap.findByLastVerifiedLessThanOrderByLastVerifiedAsc(anyLong(), any(Pageable.class)))
+                .thenReturn(Collections.singletonList(new ProxyMapEntry("some.host", "someApp")));
+        //and cloudfoundry does not answer
+        when(cloudFoundryApi.getApplicationStates(anyListOf(String.class)))
+                .thenThrow(new CloudFoundryException(new RuntimeException("timeout")));
+
+        //when the sweeper runs
+        int removed = proxyMapSweeper.sweep();
+
+        //then nothing is removed
+        assertThat(removed, is(equalTo(0)));
+        verify(proxyMap, never()).deleteByHosts(anyCollectionOf(String.class));
+    }
+
+}
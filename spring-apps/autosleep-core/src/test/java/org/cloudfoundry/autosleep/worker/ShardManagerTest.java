@@ -0,0 +1,143 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import org.cloudfoundry.autosleep.access.dao.repositories.LeaseRepository;
+import org.cloudfoundry.autosleep.config.Config;
+import org.cloudfoundry.autosleep.util.LeaseManager;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.core.env.Environment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.OptionalLong;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShardManagerTest {
+
+    @Mock
+    private Environment environment;
+
+    @Mock
+    private LeaseManager leaseManager;
+
+    @Mock
+    private LeaseRepository leaseRepository;
+
+    @InjectMocks
+    private ShardManager shardManager;
+
+    @Mock
+    private TimeManager timeManager;
+
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(shardManager, "enabled", true);
+        ReflectionTestUtils.setField(shardManager, "refreshPeriod", "PT15S");
+        ReflectionTestUtils.setField(shardManager, "virtualNodes", 100);
+        when(environment.getProperty(Config.EnvKey.CF_INSTANCE_INDEX)).thenReturn("0");
+        when(leaseManager.tryAcquire(anyString())).thenReturn(OptionalLong.of(1L));
+        when(leaseManager.isHeld(anyString())).thenReturn(true);
+    }
+
+    @Test
+    public void test_applications_are_split_between_members() {
+        //given two live members
+        when(leaseRepository.findHeldNames(anyString(), anyLong()))
+                .thenReturn(Arrays.asList("member:index-0", "member:index-1"));
+        //when the instance joins
+        shardManager.init();
+        //then it is named after its index
+        assertThat(shardManager.getMemberId(), is(equalTo("index-0")));
+        assertThat(shardManager.getMembers(), is(equalTo(new HashSet<>(Arrays.asList("index-0", "index-1")))));
+        //and owns the applications the ring gives it
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("index-0", "index-1"), 100);
+        Arrays.asList("app1", "app2", "app3", "app4").forEach(appId ->
+                assertThat(shardManager.owns(appId), is(equalTo(ring.ownerOf(appId).equals("index-0")))));
+    }
+
+    @Test
+    public void test_listeners_are_notified_when_members_change() {
+        //given the instance is alone
+        when(leaseRepository.findHeldNames(anyString(), anyLong()))
+                .thenReturn(Collections.singletonList("member:index-0"));
+        shardManager.init();
+        Runnable listener = mock(Runnable.class);
+        shardManager.addRebalanceListener(listener);
+        //when refreshed with the same members
+        shardManager.refresh();
+        //then nothing happens
+        verify(listener, never()).run();
+        //when another instance joins
+        when(leaseRepository.findHeldNames(anyString(), anyLong()))
+                .thenReturn(Arrays.asList("member:index-0", "member:index-1"));
+        shardManager.refresh();
+        //then listeners are notified
+        verify(listener, times(1)).run();
+    }
+
+    @Test
+    public void test_owns_nothing_until_members_are_read() {
+        //given members cannot be read at startup
+        when(leaseRepository.findHeldNames(anyString(), anyLong())).thenThrow(new IllegalStateException("down"));
+        shardManager.init();
+        Runnable listener = mock(Runnable.class);
+        shardManager.addRebalanceListener(listener);
+        //then the instance owns no application
+        assertThat(shardManager.owns("someApp"), is(false));
+        //when they can be read again
+        reset(leaseRepository);
+        when(leaseRepository.findHeldNames(anyString(), anyLong()))
+                .thenReturn(Collections.singletonList("member:index-0"));
+        shardManager.refresh();
+        //then it owns its applications and listeners pick them up
+        assertThat(shardManager.owns("someApp"), is(true));
+        verify(listener, times(1)).run();
+    }
+
+    @Test
+    public void test_owns_everything_when_disabled() {
+        ReflectionTestUtils.setField(shardManager, "enabled", false);
+        shardManager.init();
+        assertThat(shardManager.owns("someApp"), is(true));
+        verify(leaseManager, never()).tryAcquire(anyString());
+    }
+
+}
@@ -22,11 +22,12 @@ package org.cloudfoundry.autosleep.worker;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
 import org.cloudfoundry.autosleep.access.cloudfoundry.model.ApplicationIdentity;
+import org.cloudfoundry.autosleep.access.dao.cache.EntityCacheService;
 import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
 import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
-import org.cloudfoundry.autosleep.access.dao.repositories.SpaceEnrollerConfigRepository;
 import org.cloudfoundry.autosleep.config.DeployedApplicationConfig;
 import org.cloudfoundry.autosleep.util.BeanGenerator;
+import org.cloudfoundry.autosleep.util.LeaderElection;
 import org.cloudfoundry.autosleep.worker.scheduling.Clock;
 import org.junit.Before;
 import org.junit.Test;
@@ -80,6 +81,12 @@ public class SpaceEnrollerTest {
     @Mock
     private DeployedApplicationConfig.Deployment deployment;
 
+    @Mock
+    private EntityCacheService entityCache;
+
+    @Mock
+    private LeaderElection leaderElection;
+
     private List<String> remoteApplicationIds = Arrays.asList(UUID.randomUUID().toString(),
             UUID.randomUUID().toString(),
             NEW_APP_ID,
@@ -91,7 +98,7 @@ public class SpaceEnrollerTest {
     private SpaceEnrollerConfig spaceEnrollerConfig;
 
     @Mock
-    private SpaceEnrollerConfigRepository spaceEnrollerConfigRepository;
+    private StandbyManager standbyManager;
 
     private <T> ArgumentMatcher<List<T>> anyListOfSize(final int expectedSize) {
         return new ArgumentMatcher<List<T>>() {
@@ -110,22 +117,27 @@ public class SpaceEnrollerTest {
         when(spaceEnrollerConfig.getId()).thenReturn(SERVICE_ID);
 
         when(deployment.getApplicationId()).thenReturn(APP_ID);
+        when(leaderElection.isLeader(anyString())).thenReturn(true);
+        when(leaderElection.getRetryPeriod()).thenReturn(Duration.ofMillis(100));
+        when(standbyManager.isActive()).thenReturn(true);
 
         spaceEnroller = spy(SpaceEnroller.builder()
                 .clock(clock)
                 .period(INTERVAL)
                 .spaceEnrollerConfigId(SERVICE_ID)
-                .spaceEnrollerConfigRepository(spaceEnrollerConfigRepository)
+                .entityCache(entityCache)
                 .cloudFoundryApi(cloudFoundryApi)
                 .applicationRepository(applicationRepository)
                 .deployment(deployment)
+                .leaderElection(leaderElection)
+                .standbyManager(standbyManager)
                 .build());
     }
 
     @Test
     public void test_enroller_bind_applications_bound_to_other_service_but_not_itself() throws Exception {
         //Given the service exist
-        when(spaceEnrollerConfigRepository.findOne(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
+        when(entityCache.getSpaceEnrollerConfig(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
         //And it does not exlude any application
         when(spaceEnrollerConfig.getExcludeFromAutoEnrollment()).thenReturn(null);
         //And we localy have all cloudfoundry bound to another service
@@ -156,7 +168,7 @@ public class SpaceEnrollerTest {
     @Test
     public void test_enroller_bind_new_application_but_not_itself() throws Exception {
         //Given the service exist
-        when(spaceEnrollerConfigRepository.findOne(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
+        when(entityCache.getSpaceEnrollerConfig(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
         //And it does not exlude any application
         when(spaceEnrollerConfig.getExcludeFromAutoEnrollment()).thenReturn(null);
         //And we locally have all cloudfoundry but the local one and another one
@@ -185,14 +197,27 @@ public class SpaceEnrollerTest {
 
     }
 
+    @Test
+    public void test_enroller_deletes_itself_when_instance_becomes_passive() throws Exception {
+        //Given another instance took over
+        when(standbyManager.isActive()).thenReturn(false);
+        //When task runs
+        spaceEnroller.run();
+        //Then it removes itself without listing applications
+        verify(clock, times(1)).removeTask(eq(SERVICE_ID));
+        verify(cloudFoundryApi, never()).listAliveApplications(anyString(), any(Pattern.class));
+    }
+
     @Test
     public void test_enroller_deletes_itself_when_service_does_not_exist_anymore() {
         //Given the service attached to tasks does not exist
-        when(spaceEnrollerConfigRepository.findOne(eq(SERVICE_ID))).thenReturn(null);
+        when(entityCache.getSpaceEnrollerConfig(eq(SERVICE_ID))).thenReturn(null);
         //When task runs
         spaceEnroller.run();
         //Then it removes itself
         verify(clock, times(1)).removeTask(eq(SERVICE_ID));
+        //And gives up the space
+        verify(leaderElection, times(1)).resign("space-enroller:" + SERVICE_ID);
         //And does not reschedule
         verify(spaceEnroller, never()).rescheduleWithDefaultPeriod();
     }
@@ -200,7 +225,7 @@ public class SpaceEnrollerTest {
     @Test
     public void test_enroller_does_not_bind_itself_when_none_is_found_and_reschedule() throws Exception {
         //Given the service exist
-        when(spaceEnrollerConfigRepository.findOne(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
+        when(entityCache.getSpaceEnrollerConfig(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
         //it will return every ids except local one
         when(applicationRepository.findAll()).thenReturn(remoteApplicationIds.stream()
                 //do not return local app id
@@ -226,11 +251,26 @@ public class SpaceEnrollerTest {
 
     }
 
+    @Test
+    public void test_enroller_does_nothing_when_another_instance_leads() throws Exception {
+        //Given the service exist
+        when(entityCache.getSpaceEnrollerConfig(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
+        //And another instance enrolls the space
+        when(leaderElection.isLeader(anyString())).thenReturn(false);
+        //When we run the task
+        spaceEnroller.run();
+        //Then it does not list applications
+        verify(cloudFoundryApi, never()).listAliveApplications(anyString(), any(Pattern.class));
+        //And tries again after the retry period rather than the default one
+        verify(spaceEnroller, times(1)).reschedule(Duration.ofMillis(100));
+        verify(spaceEnroller, never()).rescheduleWithDefaultPeriod();
+    }
+
     @Test
     public void test_enroller_reschedule_itself_when_remote_error_occurs_on_binding()
             throws CloudFoundryException {
         //Given the service exist
-        when(spaceEnrollerConfigRepository.findOne(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
+        when(entityCache.getSpaceEnrollerConfig(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
         //And local repository is empty
         when(applicationRepository.findAll()).thenReturn(Collections.emptyList());
         //And list of application returns some applications
@@ -256,7 +296,7 @@ public class SpaceEnrollerTest {
     public void test_enroller_reschedule_itself_when_remote_error_occurs_on_remote_application_list()
             throws CloudFoundryException {
         //Given the service exist
-        when(spaceEnrollerConfigRepository.findOne(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
+        when(entityCache.getSpaceEnrollerConfig(eq(SERVICE_ID))).thenReturn(spaceEnrollerConfig);
         //And local repository is empty
         when(applicationRepository.findAll()).thenReturn(Collections.emptyList());
         //And list of application will fail
@@ -0,0 +1,102 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.worker;
+
+import org.cloudfoundry.autosleep.util.LeaseManager;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.OptionalLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StandbyManagerTest {
+
+    @Mock
+    private LeaseManager leaseManager;
+
+    @InjectMocks
+    private StandbyManager standbyManager;
+
+    @Mock
+    private TimeManager timeManager;
+
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(standbyManager, "enabled", true);
+        ReflectionTestUtils.setField(standbyManager, "pollPeriod", "PT5S");
+    }
+
+    @Test
+    public void test_active_instance_losing_its_lease_becomes_passive() {
+        //given the instance is active
+        when(leaseManager.tryAcquire(StandbyManager.ACTIVE_LEASE)).thenReturn(OptionalLong.of(1L));
+        standbyManager.init();
+        assertThat(standbyManager.isActive(), is(true));
+        //when its lease is lost and taken by another instance
+        when(leaseManager.tryAcquire(StandbyManager.ACTIVE_LEASE)).thenReturn(OptionalLong.empty());
+        standbyManager.poll();
+        //then it is passive
+        assertThat(standbyManager.isActive(), is(false));
+    }
+
+    @Test
+    public void test_active_when_disabled() {
+        ReflectionTestUtils.setField(standbyManager, "enabled", false);
+        standbyManager.init();
+        assertThat(standbyManager.isActive(), is(true));
+        verify(leaseManager, never()).tryAcquire(anyString());
+    }
+
+    @Test
+    public void test_passive_instance_takes_over() {
+        //given another instance is active
+        when(leaseManager.tryAcquire(StandbyManager.ACTIVE_LEASE)).thenReturn(OptionalLong.empty());
+        standbyManager.init();
+        Runnable listener = mock(Runnable.class);
+        standbyManager.addActivationListener(listener);
+        assertThat(standbyManager.isActive(), is(false));
+        //when its lease expired
+        when(leaseManager.tryAcquire(StandbyManager.ACTIVE_LEASE)).thenReturn(OptionalLong.of(2L));
+        standbyManager.poll();
+        //then the instance is active and listeners resume the checks
+        assertThat(standbyManager.isActive(), is(true));
+        verify(listener, times(1)).run();
+        //and only once
+        when(leaseManager.isHeld(StandbyManager.ACTIVE_LEASE)).thenReturn(true);
+        standbyManager.poll();
+        verify(listener, times(1)).run();
+    }
+
+}
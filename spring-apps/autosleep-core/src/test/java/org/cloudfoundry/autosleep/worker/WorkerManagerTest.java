@@ -20,14 +20,20 @@
 package org.cloudfoundry.autosleep.worker;
 
 import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.cache.EntityCacheService;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
 import org.cloudfoundry.autosleep.config.Config;
 import org.cloudfoundry.autosleep.config.DeployedApplicationConfig;
-import org.cloudfoundry.autosleep.access.dao.model.Binding;
+import org.cloudfoundry.autosleep.access.dao.model.BoundApplication;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
 import org.cloudfoundry.autosleep.access.dao.model.SpaceEnrollerConfig;
 import org.cloudfoundry.autosleep.access.dao.repositories.ApplicationRepository;
 import org.cloudfoundry.autosleep.access.dao.repositories.BindingRepository;
 import org.cloudfoundry.autosleep.access.dao.repositories.SpaceEnrollerConfigRepository;
 import org.cloudfoundry.autosleep.util.ApplicationLocker;
+import org.cloudfoundry.autosleep.util.LeaderElection;
 import org.cloudfoundry.autosleep.util.BeanGenerator;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
@@ -36,12 +42,15 @@ import org.cloudfoundry.autosleep.worker.scheduling.Clock;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
@@ -49,11 +58,14 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static org.cloudfoundry.autosleep.access.dao.model.Binding.ResourceType.Application;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.isA;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -69,6 +81,9 @@ public class WorkerManagerTest {
     @Mock
     private ApplicationLocker applicationLocker;
 
+    @Mock
+    private ChangeFeed changeFeed;
+
     @Mock
     private Clock clock;
 
@@ -78,6 +93,12 @@ public class WorkerManagerTest {
     @Mock
     private DeployedApplicationConfig.Deployment deployment;
 
+    @Mock
+    private EntityCacheService entityCache;
+
+    @Mock
+    private LeaderElection leaderElection;
+
     @Mock
     private ApplicationRepository mockAppRepo;
 
@@ -90,6 +111,12 @@ public class WorkerManagerTest {
     @Mock
     private SpaceEnrollerConfigRepository mockServiceRepo;
 
+    @Mock
+    private ShardManager shardManager;
+
+    @Mock
+    private StandbyManager standbyManager;
+
     private List<UUID> remoteApplications = Arrays.asList(UUID.randomUUID(), UUID.randomUUID());
 
     private List<String> serviceIds = Arrays.asList("serviceId1", "serviceId2");
@@ -98,6 +125,8 @@ public class WorkerManagerTest {
     @Spy
     private WorkerManager spyWatcher;
 
+    private Instant nextCheck = Instant.now().plus(Duration.ofHours(1));
+
     private List<String> unattachedBinding = Arrays.asList("unattached01", "unattached02");
 
     @Before
@@ -107,17 +136,20 @@ public class WorkerManagerTest {
             return null;
         }).when(applicationLocker).executeThreadSafe(anyString(), any(Runnable.class));
 
-        //init mock binding repository with unattached binding
-        List<Binding> storedBindings = unattachedBinding.stream()
-                .map(id -> BeanGenerator.createBinding())
-                .collect(Collectors.toList());
-
-        when(mockBindingRepo.findAllByResourceType(Application)).thenReturn(storedBindings);
+        when(shardManager.owns(anyString())).thenReturn(true);
+        when(standbyManager.isActive()).thenReturn(true);
+        ReflectionTestUtils.setField(spyWatcher, "lockRetryDelay", "PT10S");
+        ReflectionTestUtils.setField(spyWatcher, "lockTimeout", "PT1S");
 
         //init mock serviceRepo
         SpaceEnrollerConfig mockService = mock(SpaceEnrollerConfig.class);
         when(mockService.getIdleDuration()).thenReturn(INTERVAL);
-        when(mockServiceRepo.findOne(any())).thenReturn(mockService);
+        when(entityCache.getSpaceEnrollerConfig(any())).thenReturn(mockService);
+
+        //init mock binding repository with bindings, one of them already checked
+        when(mockBindingRepo.findBoundApplications(Application)).thenReturn(Arrays.asList(
+                new BoundApplication(unattachedBinding.get(0), APPLICATION_ID, mockService, nextCheck),
+                new BoundApplication(unattachedBinding.get(1), APPLICATION_ID, mockService, null)));
 
         List<SpaceEnrollerConfig> fakeServices = serviceIds.stream()
                 .map(BeanGenerator::createServiceInstance)
@@ -137,11 +169,34 @@ public class WorkerManagerTest {
     @Test
     public void testInit() {
         spyWatcher.init();
-        verify(spyWatcher, times(unattachedBinding.size()))
-                .registerApplicationStopper(any(SpaceEnrollerConfig.class), anyString(), anyString());
+        //stoppers are started without querying service instances one by one
+        verify(mockServiceRepo, never()).findOne(anyString());
+        //an application already checked is resumed at its next check
+        ArgumentCaptor<Duration> delay = ArgumentCaptor.forClass(Duration.class);
+        verify(clock).scheduleTask(eq(unattachedBinding.get(0)), delay.capture(), any(ApplicationStopper.class));
+        assertTrue(delay.getValue().compareTo(Duration.ofMinutes(59)) > 0);
+        //whereas one never checked is checked now
+        verify(clock).scheduleTask(eq(unattachedBinding.get(1)), eq(Duration.ofSeconds(0)),
+                any(ApplicationStopper.class));
         verify(spyWatcher, times(serviceIds.size())).registerSpaceEnroller(any(SpaceEnrollerConfig.class));
     }
 
+    @Test
+    public void test_binding_made_through_another_instance_is_watched() {
+        //given sharding is enabled
+        when(shardManager.isEnabled()).thenReturn(true);
+        when(mockBindingRepo.findOne("remoteBinding"))
+                .thenReturn(BeanGenerator.createBinding("serviceId", "remoteBinding", APPLICATION_ID));
+        //when another instance reports a new binding
+        spyWatcher.onChange(ChangeEvent.builder()
+                .entityId("remoteBinding")
+                .entityType(EntityType.BINDING)
+                .operation(Operation.SAVE)
+                .build());
+        //then its application is watched
+        verify(clock).scheduleTask(eq("remoteBinding"), eq(Duration.ofSeconds(0)), any(ApplicationStopper.class));
+    }
+
     @Test
     public void test_enrollment_task_is_scheduled() throws Exception {
         String serviceId = "serviceId";
@@ -158,4 +213,52 @@ public class WorkerManagerTest {
                 any(ApplicationStopper.class));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test_passive_instance_resumes_tasks_when_activated() {
+        //given the instance starts passive
+        when(standbyManager.isActive()).thenReturn(false);
+        spyWatcher.init();
+        //then nothing is scheduled
+        verify(clock, never()).scheduleTask(anyString(), any(Duration.class), any(Runnable.class));
+        ArgumentCaptor<Runnable> activation = ArgumentCaptor.forClass(Runnable.class);
+        verify(standbyManager).addActivationListener(activation.capture());
+        //when it takes over
+        when(standbyManager.isActive()).thenReturn(true);
+        activation.getValue().run();
+        //then stoppers resume at their persisted next check
+        ArgumentCaptor<Duration> delay = ArgumentCaptor.forClass(Duration.class);
+        verify(clock).scheduleTask(eq(unattachedBinding.get(0)), delay.capture(), isA(ApplicationStopper.class));
+        assertTrue(delay.getValue().compareTo(Duration.ofMinutes(59)) > 0);
+        //and spaces are enrolled
+        verify(clock, times(serviceIds.size())).scheduleTask(anyString(), eq(Config.DELAY_BEFORE_FIRST_SERVICE_CHECK),
+                isA(SpaceEnroller.class));
+    }
+
+    @Test
+    public void test_service_created_through_another_instance_is_enrolled() {
+        //given standby is enabled
+        when(standbyManager.isEnabled()).thenReturn(true);
+        when(mockServiceRepo.findOne("remoteService")).thenReturn(BeanGenerator.createServiceInstance("remoteService"));
+        //when another instance reports a new service
+        spyWatcher.onChange(ChangeEvent.builder()
+                .entityId("remoteService")
+                .entityType(EntityType.SPACE_ENROLLER_CONFIG)
+                .operation(Operation.SAVE)
+                .build());
+        //then its space is enrolled
+        verify(clock).scheduleTask(eq("remoteService"), eq(Config.DELAY_BEFORE_FIRST_SERVICE_CHECK),
+                isA(SpaceEnroller.class));
+    }
+
+    @Test
+    public void test_task_of_stop_is_not_scheduled_when_owned_by_another_instance() {
+        //given the application is owned by another instance
+        when(shardManager.owns(APPLICATION_ID)).thenReturn(false);
+        //when its stopper is registered, or watchers are started
+        spyWatcher.registerApplicationStopper(BeanGenerator.createServiceInstance(), APPLICATION_ID, "bindingid");
+        spyWatcher.init();
+        //then none is scheduled
+        verify(clock, never()).scheduleTask(anyString(), any(Duration.class), isA(ApplicationStopper.class));
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.proxy;
+
+import org.cloudfoundry.autosleep.ui.proxy.StreamingForwarder.ForwardedResponse;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBodyReturnValueHandler;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Applies the status and headers of a {@link ForwardedResponse} to the servlet response, then streams its body. It runs
+ * on the container thread handling the request, or its dispatch once a parked request was forwarded. Handlers
+ * returning it must not be {@link org.springframework.web.bind.annotation.ResponseBody}, whose handler comes first.
+ */
+class ForwardedResponseReturnValueHandler implements HandlerMethodReturnValueHandler {
+
+    private final StreamingResponseBodyReturnValueHandler bodyHandler = new StreamingResponseBodyReturnValueHandler();
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest) throws Exception {
+        ForwardedResponse forwarded = (ForwardedResponse) returnValue;
+        try {
+            HttpServletResponse response = webRequest.getNativeResponse(HttpServletResponse.class);
+            response.setStatus(forwarded.getStatus());
+            forwarded.getHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+            bodyHandler.handleReturnValue(forwarded.getBody(), returnType, mavContainer, webRequest);
+        } catch (Exception e) {
+            forwarded.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+        return ForwardedResponse.class.isAssignableFrom(returnType.getParameterType());
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.proxy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of hosts: a host never added is reported as absent, a host added is always reported as present. Other
+ * hosts may be reported present with the given false positive rate, as long as no more hosts than expected are
+ * added. Hosts cannot be removed, the filter is rebuilt instead.
+ */
+class HostFilter {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final AtomicLongArray bits;
+
+    private final int hashCount;
+
+    private final long size;
+
+    HostFilter(int expectedHosts, double falsePositiveRate) {
+        int expected = Math.max(expectedHosts, 1);
+        long optimalSize = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray((int) Math.max((optimalSize + 63) / 64, 1));
+        this.size = bits.length() * 64L;
+        this.hashCount = Math.max((int) Math.round((double) size / expected * Math.log(2)), 1);
+    }
+
+    /**
+     * 64 bits FNV-1a hash, its two halves are combined to get the k indexes (Kirsch-Mitzenmacher).
+     */
+    private static long hash(String host) {
+        long hash = FNV_OFFSET;
+        for (byte b : host.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    void add(String host) {
+        long hash = hash(host);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long index = index(first, second, i);
+            long mask = 1L << (index & 63);
+            bits.accumulateAndGet((int) (index >>> 6), mask, (current, bit) -> current | bit);
+        }
+    }
+
+    private long index(int first, int second, int i) {
+        return Math.floorMod((long) first + (long) i * second, size);
+    }
+
+    boolean mightContain(String host) {
+        long hash = hash(host);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long index = index(first, second, i);
+            if ((bits.get((int) (index >>> 6)) & (1L << (index & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
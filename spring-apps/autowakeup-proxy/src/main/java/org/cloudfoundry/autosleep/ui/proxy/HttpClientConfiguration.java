@@ -19,27 +19,52 @@
 
 package org.cloudfoundry.autosleep.ui.proxy;
 
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
-import java.io.IOException;
-import java.net.HttpURLConnection;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class HttpClientConfiguration {
 
+    @Value("${autowakeup.http.connect.timeout:PT5S}")
+    private String connectTimeout;
+
+    @Value("${autowakeup.http.pool.idle.timeout:PT30S}")
+    private String idleTimeout;
+
+    @Value("${autowakeup.http.pool.max.per.route:20}")
+    private int maxPerRoute;
+
+    @Value("${autowakeup.http.pool.max.total:200}")
+    private int maxTotal;
+
+    @Value("${autowakeup.http.pool.timeout:PT5S}")
+    private String poolTimeout;
+
+    @Value("${autowakeup.http.read.timeout:PT1M}")
+    private String readTimeout;
+
     @Value("${autowakeup.skip.ssl.validation:false}")
     private boolean skipSslValidation;
 
@@ -75,26 +100,59 @@ public class HttpClientConfiguration {
         return (hostname, session) -> true;
     }
 
+    /**
+     * Request bodies are streamed rather than buffered, in fixed length mode when the length is known, chunked
+     * otherwise.
+     */
+    @Bean
+    public ClientHttpRequestFactory clientHttpRequestFactory(CloseableHttpClient httpClient) {
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setBufferRequestBody(false);
+        return requestFactory;
+    }
+
+    /**
+     * Client forwarding traffic as is: redirects, cookies and compressed bodies are left to the caller.
+     */
+    @Bean
+    public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager connectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout((int) Duration.parse(connectTimeout).toMillis())
+                        .setConnectionRequestTimeout((int) Duration.parse(poolTimeout).toMillis())
+                        .setSocketTimeout((int) Duration.parse(readTimeout).toMillis())
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(Duration.parse(idleTimeout).toMillis(), TimeUnit.MILLISECONDS)
+                .disableRedirectHandling()
+                .disableCookieManagement()
+                .disableContentCompression()
+                .build();
+    }
+
+    @Bean
+    public HttpClientPoolMetrics httpClientPoolMetrics(PoolingHttpClientConnectionManager connectionManager) {
+        return new HttpClientPoolMetrics(connectionManager);
+    }
+
     @Bean
-    public RestTemplate restTemplate() {
+    public PoolingHttpClientConnectionManager httpConnectionManager() {
+        SSLConnectionSocketFactory sslSocketFactory;
         if (!skipSslValidation) {
-            return new RestTemplate();
+            sslSocketFactory = SSLConnectionSocketFactory.getSocketFactory();
         } else {
-            final HostnameVerifier hostnameVerifier = buildVerifyNoHostname();
-            final SSLContext sslContext = buildSslContext(buildTrustAllCerts());
-            return new RestTemplate(new SimpleClientHttpRequestFactory() {
-
-                @Override
-                protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
-                    if (connection instanceof HttpsURLConnection) {
-                        HttpsURLConnection secureConnection = (HttpsURLConnection) connection;
-                        secureConnection.setHostnameVerifier(hostnameVerifier);
-                        secureConnection.setSSLSocketFactory(sslContext.getSocketFactory());
-                    }
-                    super.prepareConnection(connection, httpMethod);
-                }
-            });
+            sslSocketFactory = new SSLConnectionSocketFactory(buildSslContext(buildTrustAllCerts()),
+                    buildVerifyNoHostname());
         }
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", sslSocketFactory)
+                        .build());
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        return connectionManager;
     }
 
 }
@@ -0,0 +1,56 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.proxy;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Publishes the gauges (leased, available, pending, max) of the connection pool used to forward traffic.
+ */
+public class HttpClientPoolMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "autowakeup.http.pool.";
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    HttpClientPoolMetrics(PoolingHttpClientConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        PoolStats stats = connectionManager.getTotalStats();
+        List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<>(PREFIX + "available", stats.getAvailable()));
+        result.add(new Metric<>(PREFIX + "leased", stats.getLeased()));
+        result.add(new Metric<>(PREFIX + "max", stats.getMax()));
+        result.add(new Metric<>(PREFIX + "pending", stats.getPending()));
+        result.add(new Metric<>(PREFIX + "routes", connectionManager.getRoutes().size()));
+        return result;
+    }
+
+}
@@ -25,17 +25,18 @@ import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
 import org.cloudfoundry.autosleep.config.Config;
 import org.cloudfoundry.autosleep.config.Config.CloudFoundryAppState;
 import org.cloudfoundry.autosleep.config.Config.Path;
+import org.cloudfoundry.autosleep.ui.proxy.StreamingForwarder.ForwardedResponse;
 import org.cloudfoundry.autosleep.util.TimeManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.RequestEntity;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.ResponseBody;
-import org.springframework.web.client.RestTemplate;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.net.URI;
 
 @Controller
@@ -45,34 +46,20 @@ public class ProxyController {
 
     static final String HEADER_FORWARD_URL = "X-CF-Forwarded-Url";
 
-    private static RequestEntity<?> buildOutgoingRequest(RequestEntity<?> incoming) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.putAll(incoming.getHeaders());
-
-        URI uri = headers.remove(HEADER_FORWARD_URL).stream()
-                .findFirst()
-                .map(URI::create)
-                .orElseThrow(() -> new IllegalStateException(String.format("No %s header present",
-                        HEADER_FORWARD_URL)));
-
-        return new RequestEntity<>(incoming.getBody(), headers, incoming.getMethod(), uri);
-    }
-
     @Autowired
     CloudFoundryApiService cfApi;
 
     @Autowired
-    RestTemplate restTemplate;
+    ClientHttpRequestFactory requestFactory;
 
     @Autowired
     private TimeManager timeManager;
 
     @RequestMapping(value = "/{appGuidToRestart}", headers = {HEADER_FORWARD_URL})
-    @ResponseBody
-    ResponseEntity<?> proxify(@PathVariable("appGuidToRestart") String appId, RequestEntity<byte[]> request)
-            throws CloudFoundryException, InterruptedException {
+    ForwardedResponse proxify(@PathVariable("appGuidToRestart") String appId, HttpServletRequest request)
+            throws CloudFoundryException, InterruptedException, IOException {
 
-        log.debug("Incoming HTTP request for app {} : {}", appId, request);
+        log.debug("Incoming HTTP request for app {} : {} {}", appId, request.getMethod(), request.getRequestURI());
 
         if (!CloudFoundryAppState.STARTED.equals(cfApi.getApplicationState(appId))) {
             cfApi.startApplication(appId);
@@ -85,11 +72,17 @@ public class ProxyController {
         }
 
         //unqueue traffic
-        RequestEntity<?> outgoing = buildOutgoingRequest(request);
-        log.debug("forwarding traffic to {}", request.getHeaders().get(HEADER_FORWARD_URL));
-        log.debug("Outgoing Request: {}", outgoing);
+        ServletServerHttpRequest incoming = new ServletServerHttpRequest(request);
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(incoming.getHeaders());
+        URI uri = headers.remove(HEADER_FORWARD_URL).stream()
+                .findFirst()
+                .map(URI::create)
+                .orElseThrow(() -> new IllegalStateException(String.format("No %s header present",
+                        HEADER_FORWARD_URL)));
+        log.debug("forwarding traffic to {}", uri);
 
-        return this.restTemplate.exchange(outgoing, byte[].class);
+        return StreamingForwarder.forward(requestFactory, incoming.getMethod(), uri, headers, incoming.getBody());
     }
 
 }
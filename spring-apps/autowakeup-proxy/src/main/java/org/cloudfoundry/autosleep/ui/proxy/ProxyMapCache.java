@@ -0,0 +1,284 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.proxy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeListener;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
+import org.cloudfoundry.autosleep.access.dao.model.ProxyMapEntry;
+import org.cloudfoundry.autosleep.access.dao.repositories.ProxyMapEntryRepository;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Index of the hosts of sleeping applications, so that the proxy does not read the database on every request.
+ * Entries are loaded in bulk at startup, then on miss. The least recently used ones are evicted beyond the maximum
+ * size. Entries changed by other processes are evicted as they are read from the change feed, and expire after a
+ * time to live in case the feed missed them.
+ * Unknown hosts are kept in a negative cache. A {@link HostFilter} of every host stored tells the hosts never saved
+ * from the false positives of the filter and the hosts recently deleted: they are still looked up once, as the filter
+ * learns new hosts from the change feed after a delay, but then stay in the negative cache until the feed delivers a
+ * save of the host. The filter is therefore only used while a process announced on the feed that it publishes the
+ * proxy map entries (autosleep does not put an application to sleep if it cannot publish its hosts), and it is
+ * rebuilt periodically to forget deleted hosts.
+ */
+@Service
+@Slf4j
+public class ProxyMapCache implements ChangeListener, PublicMetrics {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int MIN_FILTER_SIZE = 1024;
+
+    private static class Entry {
+
+        private final String appId;
+
+        private final long expiresAt;
+
+        Entry(String appId, long expiresAt) {
+            this.appId = appId;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+    @Autowired
+    private ChangeFeed changeFeed;
+
+    private Map<String, Entry> entries;
+
+    private final LongAdder evictions = new LongAdder();
+
+    private volatile HostFilter filter;
+
+    @Value("${autowakeup.proxy.filter.enabled:true}")
+    private boolean filterEnabled;
+
+    @Value("${autowakeup.proxy.filter.rebuild.period:PT1H}")
+    private String filterRebuildPeriod;
+
+    private final LongAdder filterRejections = new LongAdder();
+
+    private final LongAdder hits = new LongAdder();
+
+    @Value("${autowakeup.proxy.cache.max.size:10000}")
+    private int maxSize;
+
+    private final LongAdder misses = new LongAdder();
+
+    private Map<String, Long> negatives;
+
+    @Value("${autowakeup.proxy.negative.cache.ttl:PT30S}")
+    private String negativeTimeToLive;
+
+    private final LongAdder negativeHits = new LongAdder();
+
+    @Autowired
+    private ProxyMapEntryRepository proxyMap;
+
+    /**
+     * Filter being rebuilt, that also receives the hosts added meanwhile.
+     */
+    private volatile HostFilter rebuiltFilter;
+
+    @Autowired
+    private TimeManager timeManager;
+
+    @Value("${autowakeup.proxy.cache.ttl:PT5M}")
+    private String timeToLive;
+
+    private void addToFilter(String host) {
+        HostFilter current = filter;
+        if (current != null) {
+            current.add(host);
+        }
+        HostFilter rebuilt = rebuiltFilter;
+        if (rebuilt != null) {
+            rebuilt.add(host);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        negatives.clear();
+    }
+
+    public void evict(String host) {
+        entries.remove(host);
+    }
+
+    /**
+     * @return the id of the sleeping application served by the host, or null if none
+     */
+    public String getAppId(String host) {
+        long now = Instant.now().toEpochMilli();
+        Entry cached = entries.get(host);
+        if (cached != null && cached.expiresAt > now) {
+            hits.increment();
+            return cached.appId;
+        }
+        Long negativeUntil = negatives.get(host);
+        if (negativeUntil != null && negativeUntil > now) {
+            negativeHits.increment();
+            return null;
+        }
+        //a host saved since the last feed poll is not in the filter yet, it is looked up anyway
+        HostFilter current = filter;
+        boolean rejected = current != null && !current.mightContain(host);
+        if (rejected) {
+            filterRejections.increment();
+        }
+        misses.increment();
+        ProxyMapEntry entry = proxyMap.findOne(host);
+        if (entry == null) {
+            entries.remove(host);
+            //only a save delivered by the feed, that removes the negative entry, can add a host unknown to the filter
+            negatives.put(host, now + Duration.parse(rejected ? filterRebuildPeriod : negativeTimeToLive).toMillis());
+            return null;
+        }
+        put(entry, now);
+        return entry.getAppId();
+    }
+
+    @PostConstruct
+    public void init() {
+        entries = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                boolean evict = size() > maxSize;
+                if (evict) {
+                    evictions.increment();
+                }
+                return evict;
+            }
+        });
+        negatives = Collections.synchronizedMap(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        });
+        if (filterEnabled) {
+            rebuildFilter();
+            scheduleFilterRebuild(Duration.parse(filterRebuildPeriod));
+        }
+        try {
+            long now = Instant.now().toEpochMilli();
+            List<ProxyMapEntry> loaded = proxyMap.findAll(new PageRequest(0, maxSize)).getContent();
+            loaded.forEach(entry -> put(entry, now));
+            log.debug("Proxy map cache loaded with {} entries", loaded.size());
+        } catch (RuntimeException r) {
+            log.error("Proxy map cache not loaded, filled on demand", r);
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        long total = hits.sum() + misses.sum();
+        List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<>("autowakeup.proxy.cache.evictions", evictions.sum()));
+        result.add(new Metric<>("autowakeup.proxy.cache.filter.rejections", filterRejections.sum()));
+        result.add(new Metric<>("autowakeup.proxy.cache.hits", hits.sum()));
+        result.add(new Metric<>("autowakeup.proxy.cache.hit.ratio", total == 0 ? 0 : (double) hits.sum() / total));
+        result.add(new Metric<>("autowakeup.proxy.cache.misses", misses.sum()));
+        result.add(new Metric<>("autowakeup.proxy.cache.negative.hits", negativeHits.sum()));
+        result.add(new Metric<>("autowakeup.proxy.cache.size", entries.size()));
+        return result;
+    }
+
+    @Override
+    public void onChange(ChangeEvent event) {
+        if (event.getEntityType() == EntityType.PROXY_MAP_ENTRY) {
+            //saved entries are loaded again on next lookup
+            evict(event.getEntityId());
+            if (event.getOperation() == Operation.SAVE) {
+                addToFilter(event.getEntityId());
+                negatives.remove(event.getEntityId());
+            }
+        }
+    }
+
+    private void put(ProxyMapEntry entry, long now) {
+        entries.put(entry.getHost(), new Entry(entry.getAppId(), now + Duration.parse(timeToLive).toMillis()));
+    }
+
+    /**
+     * Build a new filter from every stored host, sized for twice their number so that it stays accurate until the
+     * next rebuild. The filter is published before the hosts are read, so that hosts saved while they are read are
+     * not missed. On failure, the current filter is kept. Without a publisher of the proxy map entries on the feed,
+     * the filter is dropped with the negative entries that relied on it.
+     */
+    void rebuildFilter() {
+        try {
+            if (!changeFeed.hasPublisherOf(EntityType.PROXY_MAP_ENTRY)) {
+                if (filter != null) {
+                    log.warn("Host filter dropped, no process publishes the proxy map entries on the change feed");
+                    filter = null;
+                    negatives.clear();
+                } else {
+                    log.debug("Host filter not built, no process publishes the proxy map entries on the change feed");
+                }
+                return;
+            }
+            HostFilter rebuilt = new HostFilter((int) Math.max(proxyMap.count() * 2, MIN_FILTER_SIZE),
+                    FALSE_POSITIVE_RATE);
+            rebuiltFilter = rebuilt;
+            List<String> hosts = proxyMap.findAllHosts();
+            hosts.forEach(rebuilt::add);
+            filter = rebuilt;
+            log.debug("Host filter rebuilt with {} hosts", hosts.size());
+        } catch (RuntimeException r) {
+            log.error("Host filter not rebuilt", r);
+        } finally {
+            rebuiltFilter = null;
+        }
+    }
+
+    private void scheduleFilterRebuild(Duration period) {
+        timeManager.scheduleMaintenance(() -> {
+            try {
+                rebuildFilter();
+            } finally {
+                scheduleFilterRebuild(period);
+            }
+        }, period);
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.proxy;
+
+import lombok.Getter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Forwards a request without holding its bodies in memory: they are copied through a small buffer, the request one
+ * before the call, the response one when the returned body is written.
+ * The response is not returned as a {@link org.springframework.http.ResponseEntity}, as handlers returning
+ * {@link Object} would not get its body streamed, nor applied to the servlet response, as forwards of parked requests
+ * do not run on a container thread: handlers return it, and {@link ForwardedResponseReturnValueHandler} applies it.
+ */
+final class StreamingForwarder {
+
+    /**
+     * Body of a forwarded response. It holds the upstream connection until written, or closed when it will not be.
+     */
+    static final class ForwardedBody implements StreamingResponseBody, Closeable {
+
+        private final ClientHttpResponse response;
+
+        private ForwardedBody(ClientHttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void close() {
+            response.close();
+        }
+
+        @Override
+        public void writeTo(OutputStream output) throws IOException {
+            try {
+                StreamUtils.copy(response.getBody(), output);
+            } finally {
+                close();
+            }
+        }
+
+    }
+
+    /**
+     * Status, headers and body of a forwarded response, independent from the servlet response.
+     */
+    @Getter
+    static final class ForwardedResponse implements Closeable {
+
+        private final ForwardedBody body;
+
+        private final HttpHeaders headers;
+
+        private final int status;
+
+        private ForwardedResponse(int status, HttpHeaders headers, ForwardedBody body) {
+            this.body = body;
+            this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+            this.status = status;
+        }
+
+        @Override
+        public void close() {
+            body.close();
+        }
+
+    }
+
+    /**
+     * Headers of a single connection or of its destination, set again by the servlet container and the http client.
+     */
+    private static final Set<String> CONNECTION_HEADERS;
+
+    static {
+        Set<String> headers = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        headers.addAll(Arrays.asList("Connection", "Host", "Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization",
+                "TE", "Trailer", "Transfer-Encoding", "Upgrade"));
+        CONNECTION_HEADERS = Collections.unmodifiableSet(headers);
+    }
+
+    private StreamingForwarder() {
+    }
+
+    private static void copyHeaders(HttpHeaders source, HttpHeaders destination) {
+        source.forEach((name, values) -> {
+            if (!CONNECTION_HEADERS.contains(name)) {
+                destination.put(name, values);
+            }
+        });
+    }
+
+    /**
+     * Send the request, and read the status and headers of the response.
+     *
+     * @return the response, to be returned by the handler so that its body is streamed asynchronously, or closed
+     */
+    static ForwardedResponse forward(ClientHttpRequestFactory requestFactory,
+                                     HttpMethod method,
+                                     URI destination,
+                                     HttpHeaders headers,
+                                     InputStream body) throws IOException {
+        ClientHttpRequest outgoing = requestFactory.createRequest(destination, method);
+        copyHeaders(headers, outgoing.getHeaders());
+        if (hasBody(headers)) {
+            StreamUtils.copy(body, outgoing.getBody());
+        }
+        ClientHttpResponse response = outgoing.execute();
+        try {
+            HttpHeaders responseHeaders = new HttpHeaders();
+            copyHeaders(response.getHeaders(), responseHeaders);
+            return new ForwardedResponse(response.getRawStatusCode(), responseHeaders, new ForwardedBody(response));
+        } catch (IOException | RuntimeException e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the request body, so that the request can be forwarded once its servlet request is no longer accessible.
+     */
+    static byte[] readBody(HttpHeaders headers, InputStream body) throws IOException {
+        return hasBody(headers) ? StreamUtils.copyToByteArray(body) : new byte[0];
+    }
+
+    /**
+     * Only requests that announce a body write one, so that requests without body are sent without entity.
+     */
+    private static boolean hasBody(HttpHeaders headers) {
+        return headers.getContentLength() > 0 || headers.containsKey(HttpHeaders.TRANSFER_ENCODING);
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.proxy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
+import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
+import org.cloudfoundry.autosleep.config.Config;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Starts a sleeping application once and watches it with a single poller, whatever the number of requests waiting
+ * for it. The requests share the future of the wake-up, completed when the application is running, or exceptionally
+ * with a {@link TimeoutException} if it is not running after autowakeup.wakeup.timeout.
+ */
+@Slf4j
+@Service
+public class WakeUpCoordinator implements PublicMetrics {
+
+    @Autowired
+    private CloudFoundryApiService cfApi;
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder starts = new LongAdder();
+
+    @Autowired
+    private TimeManager timeManager;
+
+    @Value("${autowakeup.wakeup.timeout:PT5M}")
+    private String timeout;
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final ConcurrentMap<String, CompletableFuture<Void>> wakeUps = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum duration of a wake-up, after which its future fails.
+     */
+    public Duration getTimeout() {
+        return Duration.parse(timeout);
+    }
+
+    /**
+     * @return the wake-up in progress for the application, or null if none
+     */
+    public CompletableFuture<Void> join(String appId) {
+        CompletableFuture<Void> wakeUp = wakeUps.get(appId);
+        if (wakeUp != null) {
+            coalesced.increment();
+        }
+        return wakeUp;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<>("autowakeup.wakeup.coalesced", coalesced.sum()));
+        result.add(new Metric<>("autowakeup.wakeup.failures", failures.sum()));
+        result.add(new Metric<>("autowakeup.wakeup.pending", wakeUps.size()));
+        result.add(new Metric<>("autowakeup.wakeup.starts", starts.sum()));
+        result.add(new Metric<>("autowakeup.wakeup.timeouts", timeouts.sum()));
+        return result;
+    }
+
+    private void watch(String appId, CompletableFuture<Void> wakeUp, Instant deadline) {
+        timeManager.schedule(() -> {
+            try {
+                if (cfApi.isAppRunning(appId)) {
+                    log.debug("app {} restarted", appId);
+                    wakeUp.complete(null);
+                } else if (Instant.now().isAfter(deadline)) {
+                    log.error("app {} not running after {}, wake-up abandoned", appId, timeout);
+                    timeouts.increment();
+                    wakeUp.completeExceptionally(new TimeoutException("app " + appId + " not running after "
+                            + timeout));
+                } else {
+                    log.debug("waiting for app {} restart...", appId);
+                    watch(appId, wakeUp, deadline);
+                }
+            } catch (CloudFoundryException | RuntimeException e) {
+                failures.increment();
+                wakeUp.completeExceptionally(e);
+            }
+        }, Config.PERIOD_BETWEEN_STATE_CHECKS_DURING_RESTART);
+    }
+
+    /**
+     * Start the stopped application, unless a wake-up is already in progress, in which case it is shared.
+     *
+     * @return a future completed when the application is running, or exceptionally on cloudfoundry error or timeout
+     */
+    public CompletableFuture<Void> wakeUp(String appId) {
+        AtomicBoolean created = new AtomicBoolean(false);
+        CompletableFuture<Void> wakeUp = wakeUps.computeIfAbsent(appId, id -> {
+            created.set(true);
+            return new CompletableFuture<>();
+        });
+        if (!created.get()) {
+            coalesced.increment();
+            return wakeUp;
+        }
+        starts.increment();
+        Instant deadline = Instant.now().plus(getTimeout());
+        wakeUp.whenComplete((running, error) -> wakeUps.remove(appId, wakeUp));
+        try {
+            log.info("Starting app [{}]", appId);
+            cfApi.startApplication(appId);
+            watch(appId, wakeUp, deadline);
+        } catch (CloudFoundryException | RuntimeException e) {
+            failures.increment();
+            wakeUp.completeExceptionally(e);
+        }
+        return wakeUp;
+    }
+
+}
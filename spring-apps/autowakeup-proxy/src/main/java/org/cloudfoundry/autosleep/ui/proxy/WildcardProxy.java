@@ -22,40 +22,53 @@ package org.cloudfoundry.autosleep.ui.proxy;
 import lombok.extern.slf4j.Slf4j;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
-import org.cloudfoundry.autosleep.access.dao.model.ProxyMapEntry;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
 import org.cloudfoundry.autosleep.access.dao.repositories.ProxyMapEntryRepository;
-import org.cloudfoundry.autosleep.config.Config;
 import org.cloudfoundry.autosleep.config.Config.CloudFoundryAppState;
-import org.cloudfoundry.autosleep.util.TimeManager;
+import org.cloudfoundry.autosleep.ui.proxy.StreamingForwarder.ForwardedResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.HandlerMapping;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-@RestController
+@Controller
 @Slf4j
-@Transactional
 public class WildcardProxy {
 
     static final String HEADER_FORWARDED = "CF-Autosleep-Proxy-Signature";
@@ -66,27 +79,97 @@ public class WildcardProxy {
 
     String proxySignature;
 
+    @Value("${autowakeup.async.enabled:false}")
+    private boolean asyncEnabled;
+
+    @Value("${autowakeup.async.forward.threads:20}")
+    private int asyncForwardThreads;
+
+    @Value("${autowakeup.async.timeout:PT5M}")
+    private String asyncTimeout;
+
     @Autowired
     private CloudFoundryApiService cfApi;
 
+    @Autowired
+    private ChangeFeed changeFeed;
+
     @Autowired
     private Environment env;
 
+    /**
+     * Forwards requests parked while their application was starting, in async mode.
+     */
+    private ExecutorService forwarder;
+
     @Autowired
     private ProxyMapEntryRepository proxyMap;
 
     @Autowired
-    private RestTemplate restTemplate;
+    private ProxyMapCache proxyMapCache;
+
+    @Autowired
+    private ClientHttpRequestFactory requestFactory;
 
     @Autowired
-    private TimeManager timeManager;
+    private WakeUpCoordinator wakeUpCoordinator;
 
-    private RequestEntity<?> getOutgoingRequest(RequestEntity<?> incoming, URI destination) {
+    private ForwardedResponse forward(HttpMethod method, HttpHeaders incomingHeaders, InputStream body,
+                                      String targetHost, String path) throws IOException {
+        //if exist, to prevent exception when two instances started the app in //
+        if (proxyMap.deleteIfExists(targetHost) > 0) {
+            changeFeed.publish(EntityType.PROXY_MAP_ENTRY, targetHost, Operation.DELETE);
+        }
+        proxyMapCache.evict(targetHost);
+        String protocol = incomingHeaders.getFirst(HEADER_PROTOCOL);
+        URI uri = URI.create(protocol + "://" + targetHost + path);
         HttpHeaders headers = new HttpHeaders();
-        headers.putAll(incoming.getHeaders());
+        headers.putAll(incomingHeaders);
         //add custom header with our signature, to identify our own forwarded traffic
         headers.put(HEADER_FORWARDED, Collections.singletonList(proxySignature));
-        return new RequestEntity<>(incoming.getBody(), headers, incoming.getMethod(), destination);
+        log.debug("Outgoing Request: {} {}", method, uri);
+
+        return StreamingForwarder.forward(requestFactory, method, uri, headers, body);
+    }
+
+    /**
+     * Park the request without holding a servlet thread until the application is running, then forward it. The
+     * request is read before being parked, and the response is applied on the container thread dispatched with it:
+     * the servlet request and response are never touched by the forwarder threads. A response received once the
+     * request expired is closed, so that its connection goes back to the pool.
+     */
+    private DeferredResult<Object> forwardWhenRunning(CompletableFuture<Void> wakeUp,
+                                                      ServletServerHttpRequest incoming,
+                                                      String targetHost,
+                                                      String path) throws IOException {
+        HttpMethod method = incoming.getMethod();
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(incoming.getHeaders());
+        byte[] body = StreamingForwarder.readBody(headers, incoming.getBody());
+        DeferredResult<Object> result = new DeferredResult<>(Duration.parse(asyncTimeout).toMillis(),
+                new ResponseEntity<>("The app is starting, please retry in few seconds",
+                        HttpStatus.SERVICE_UNAVAILABLE));
+        wakeUp.whenCompleteAsync((running, error) -> {
+            //only saves a useless forward, a request expiring after it is handled by setResult
+            if (result.isSetOrExpired()) {
+                return;
+            }
+            try {
+                if (error != null) {
+                    result.setErrorResult(error);
+                } else {
+                    ForwardedResponse response = forward(method, headers, new ByteArrayInputStream(body),
+                            targetHost, path);
+                    if (!result.setResult(response)) {
+                        log.debug("Request expired while forwarded, response discarded");
+                        response.close();
+                    }
+                }
+            } catch (Exception e) {
+                result.setErrorResult(e);
+            }
+        }, forwarder);
+        return result;
     }
 
     @ExceptionHandler(CloudFoundryException.class)
@@ -95,6 +178,18 @@ public class WildcardProxy {
         return new ResponseEntity<>("Error while calling remote api", HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
+    @ExceptionHandler(IOException.class)
+    ResponseEntity<String> handleForwardingException(IOException error) {
+        log.error("forwarding error", error);
+        return new ResponseEntity<>("Error while forwarding request", HttpStatus.BAD_GATEWAY);
+    }
+
+    @ExceptionHandler(TimeoutException.class)
+    ResponseEntity<String> handleWakeUpTimeout(TimeoutException error) {
+        log.error("wake-up timeout", error);
+        return new ResponseEntity<>("The app did not start in time, please retry later", HttpStatus.GATEWAY_TIMEOUT);
+    }
+
     @ExceptionHandler(InterruptedException.class)
     ResponseEntity<String> handleCloudfoundryException(InterruptedException error) {
         return new ResponseEntity<>("Internal server error: " + error.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
@@ -107,14 +202,21 @@ public class WildcardProxy {
         String autosleepHost = InetAddress.getLocalHost().getHostName();
         this.proxySignature = Arrays.toString(MessageDigest.getInstance("MD5")
                 .digest((autosleepHost + securityPass).getBytes("UTF-8")));
-
+        if (asyncEnabled) {
+            forwarder = Executors.newFixedThreadPool(asyncForwardThreads);
+        }
     }
 
+    /**
+     * @return the forwarded response, or in async mode a {@link DeferredResult} of it when the application has to be
+     * started first
+     */
     @RequestMapping(headers = {HEADER_PROTOCOL, HEADER_HOST})
-    ResponseEntity<?> proxify(@RequestHeader(HEADER_HOST) String targetHost,
-                              RequestEntity<byte[]> incoming,
-                              HttpServletRequest request) throws InterruptedException, CloudFoundryException {
+    Object proxify(@RequestHeader(HEADER_HOST) String targetHost,
+                   HttpServletRequest request) throws InterruptedException, CloudFoundryException, IOException,
+            TimeoutException {
 
+        ServletServerHttpRequest incoming = new ServletServerHttpRequest(request);
         List<String> alreadyForwardedHeader = incoming.getHeaders().get(HEADER_FORWARDED);
         String path = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
 
@@ -124,39 +226,51 @@ public class WildcardProxy {
             log.error("We've already forwarded this traffic, this should not happen");
             return new ResponseEntity<>("Infinite loop forwarding error", HttpStatus.INTERNAL_SERVER_ERROR);
         }
-        ProxyMapEntry mapEntry = proxyMap.findOne(targetHost);
+        String appId = proxyMapCache.getAppId(targetHost);
 
-        if (mapEntry == null) {
+        if (appId == null) {
             return new ResponseEntity<>("Sorry, but this page doesn't exist! ", HttpStatus.NOT_FOUND);
         }
 
-        String appId = mapEntry.getAppId();
-
-        String applicationState = cfApi.getApplicationState(appId);
-        if (CloudFoundryAppState.STARTED.equals(applicationState) && !cfApi.isAppRunning(appId)) {
-            log.info("Rejecting traffic for starting app [{}]", appId);
-            return new ResponseEntity<>("The app is starting, please retry in few seconds", HttpStatus
-                    .SERVICE_UNAVAILABLE);
-        } else if (CloudFoundryAppState.STOPPED.equals(applicationState)) {
-            log.info("Starting app [{}]", appId);
-            cfApi.startApplication(appId);
-            timeManager.sleep(Config.PERIOD_BETWEEN_STATE_CHECKS_DURING_RESTART);
+        CompletableFuture<Void> wakeUp = wakeUpCoordinator.join(appId);
+        if (wakeUp == null) {
+            String applicationState = cfApi.getApplicationState(appId);
+            if (CloudFoundryAppState.STARTED.equals(applicationState) && !cfApi.isAppRunning(appId)) {
+                log.info("Rejecting traffic for starting app [{}]", appId);
+                return new ResponseEntity<>("The app is starting, please retry in few seconds", HttpStatus
+                        .SERVICE_UNAVAILABLE);
+            } else if (CloudFoundryAppState.STOPPED.equals(applicationState)) {
+                wakeUp = wakeUpCoordinator.wakeUp(appId);
+            }
         }
-        while (!cfApi.isAppRunning(appId)) {
-            log.debug("waiting for app {} restart...", appId);
-            timeManager.sleep(Config.PERIOD_BETWEEN_STATE_CHECKS_DURING_RESTART);
-            //TODO add timeout that would log error and reset mapEntry.isStarting to false
+        if (wakeUp != null) {
+            if (asyncEnabled) {
+                return forwardWhenRunning(wakeUp, incoming, targetHost, path);
+            }
+            waitUntilRunning(wakeUp);
         }
-        //if exist, to prevent exception when two instances started the app in //
-        proxyMap.deleteIfExists(mapEntry.getHost());
-        String protocol = incoming.getHeaders().get(HEADER_PROTOCOL).get(0);
-        URI uri = URI.create(protocol + "://" + targetHost + path);
-        RequestEntity<?> outgoing = getOutgoingRequest(incoming, uri);
-        log.debug("Outgoing Request: {}", outgoing);
+        return forward(incoming.getMethod(), incoming.getHeaders(), incoming.getBody(), targetHost, path);
+    }
 
-        //if "outgoing" point to a 404, this will trigger a 500. Is this really a pb?
-        return this.restTemplate.exchange(outgoing, byte[].class);
+    @PreDestroy
+    void shutdown() {
+        if (forwarder != null) {
+            forwarder.shutdownNow();
+        }
+    }
 
+    private void waitUntilRunning(CompletableFuture<Void> wakeUp) throws InterruptedException, CloudFoundryException,
+            TimeoutException {
+        try {
+            wakeUp.get(wakeUpCoordinator.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CloudFoundryException) {
+                throw (CloudFoundryException) e.getCause();
+            } else if (e.getCause() instanceof TimeoutException) {
+                throw (TimeoutException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
     }
 
 }
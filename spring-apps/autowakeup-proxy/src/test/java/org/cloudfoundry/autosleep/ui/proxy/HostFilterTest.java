@@ -0,0 +1,56 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.proxy;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class HostFilterTest {
+
+    @Test
+    public void should_contain_added_hosts() {
+        HostFilter filter = new HostFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add("host-" + i + ".domain.io");
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertThat(filter.mightContain("host-" + i + ".domain.io"), is(true));
+        }
+    }
+
+    @Test
+    public void should_reject_most_unknown_hosts() {
+        HostFilter filter = new HostFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add("host-" + i + ".domain.io");
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("unknown-" + i + ".domain.io")) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives, is(lessThan(300)));
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.proxy;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class HttpClientPoolMetricsTest {
+
+    @Test
+    public void should_publish_pool_gauges() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(10);
+        try {
+            Map<String, Number> metrics = new HttpClientPoolMetrics(connectionManager).metrics().stream()
+                    .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+            assertThat(metrics.get("autowakeup.http.pool.max").intValue(), is(10));
+            assertThat(metrics.get("autowakeup.http.pool.leased").intValue(), is(0));
+            assertThat(metrics.get("autowakeup.http.pool.routes").intValue(), is(0));
+        } finally {
+            connectionManager.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.proxy;
+
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
+import org.cloudfoundry.autosleep.access.dao.model.ProxyMapEntry;
+import org.cloudfoundry.autosleep.access.dao.repositories.ProxyMapEntryRepository;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProxyMapCacheTest {
+
+    private static final String APP_ID = "test-app-id";
+
+    private static final String HOST = "test-host";
+
+    @Mock
+    private ChangeFeed changeFeed;
+
+    @Mock
+    private ProxyMapEntryRepository proxyMap;
+
+    @InjectMocks
+    private ProxyMapCache proxyMapCache;
+
+    @Mock
+    private TimeManager timeManager;
+
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(proxyMapCache, "filterEnabled", true);
+        ReflectionTestUtils.setField(proxyMapCache, "filterRebuildPeriod", "PT1H");
+        ReflectionTestUtils.setField(proxyMapCache, "maxSize", 2);
+        ReflectionTestUtils.setField(proxyMapCache, "negativeTimeToLive", "PT30S");
+        ReflectionTestUtils.setField(proxyMapCache, "timeToLive", "PT5M");
+        when(proxyMap.findAll(any(Pageable.class))).thenReturn(new PageImpl<>(Arrays.asList(
+                ProxyMapEntry.builder().host(HOST).appId(APP_ID).build())));
+        when(changeFeed.hasPublisherOf(EntityType.PROXY_MAP_ENTRY)).thenReturn(true);
+        when(proxyMap.findAllHosts()).thenReturn(Arrays.asList(HOST, "other-host", "last-host", "deleted-host"));
+        proxyMapCache.init();
+    }
+
+    @Test
+    public void should_answer_loaded_hosts_without_database() {
+        assertThat(proxyMapCache.getAppId(HOST), is(APP_ID));
+        verify(proxyMap, never()).findOne(anyString());
+    }
+
+    @Test
+    public void should_cache_hosts_missing_from_database() {
+        //GIVEN a host known by the filter but deleted meanwhile
+        //WHEN it is looked up twice
+        assertThat(proxyMapCache.getAppId("deleted-host"), is(nullValue()));
+        assertThat(proxyMapCache.getAppId("deleted-host"), is(nullValue()));
+        //THEN the database is only read once
+        verify(proxyMap, times(1)).findOne("deleted-host");
+    }
+
+    @Test
+    public void should_evict_least_recently_used_hosts() {
+        //GIVEN the cache is full
+        when(proxyMap.findOne("other-host")).thenReturn(ProxyMapEntry.builder().host("other-host").appId("other")
+                .build());
+        when(proxyMap.findOne("last-host")).thenReturn(ProxyMapEntry.builder().host("last-host").appId("last")
+                .build());
+        proxyMapCache.getAppId("other-host");
+        //WHEN another host is loaded
+        proxyMapCache.getAppId("last-host");
+        //THEN the least recently used one is reloaded from database
+        proxyMapCache.getAppId(HOST);
+        verify(proxyMap, times(1)).findOne(HOST);
+    }
+
+    @Test
+    public void should_lookup_hosts_saved_by_other_processes() {
+        //GIVEN a host put to sleep by another instance
+        when(proxyMap.findOne("new-host")).thenReturn(ProxyMapEntry.builder().host("new-host").appId("new").build());
+        proxyMapCache.onChange(ChangeEvent.builder()
+                .entityType(EntityType.PROXY_MAP_ENTRY)
+                .entityId("new-host")
+                .operation(Operation.SAVE)
+                .build());
+        //WHEN it is looked up
+        //THEN it is found
+        assertThat(proxyMapCache.getAppId("new-host"), is("new"));
+    }
+
+    @Test
+    public void should_lookup_hosts_saved_while_filter_is_rebuilt() {
+        //GIVEN a host put to sleep by another instance while stored hosts are read
+        ChangeEvent saved = ChangeEvent.builder()
+                .entityType(EntityType.PROXY_MAP_ENTRY)
+                .entityId("new-host")
+                .operation(Operation.SAVE)
+                .build();
+        when(changeFeed.hasPublisherOf(EntityType.PROXY_MAP_ENTRY)).thenReturn(true);
+        when(proxyMap.findAllHosts()).then(invocation -> {
+            proxyMapCache.onChange(saved);
+            return Arrays.asList(HOST);
+        });
+        when(proxyMap.findOne("new-host")).thenReturn(ProxyMapEntry.builder().host("new-host").appId("new").build());
+        //WHEN the filter is rebuilt
+        proxyMapCache.rebuildFilter();
+        //THEN the host is found
+        assertThat(proxyMapCache.getAppId("new-host"), is("new"));
+    }
+
+    @Test
+    public void should_drop_filter_without_publisher() {
+        //GIVEN an unknown host was rejected
+        assertThat(proxyMapCache.getAppId("unknown-host"), is(nullValue()));
+        //WHEN the filter is rebuilt while no process publishes the proxy map entries
+        when(changeFeed.hasPublisherOf(EntityType.PROXY_MAP_ENTRY)).thenReturn(false);
+        proxyMapCache.rebuildFilter();
+        //THEN the filter is not used anymore and the host is read again from database
+        assertThat(ReflectionTestUtils.getField(proxyMapCache, "filter"), is(nullValue()));
+        assertThat(proxyMapCache.getAppId("unknown-host"), is(nullValue()));
+        verify(proxyMap, times(2)).findOne("unknown-host");
+    }
+
+    @Test
+    public void should_lookup_hosts_saved_before_feed_delivery() {
+        //GIVEN a host put to sleep by another instance, not read from the feed yet
+        when(proxyMap.findOne("new-host")).thenReturn(ProxyMapEntry.builder().host("new-host").appId("new").build());
+        //WHEN it is looked up
+        //THEN it is found despite the filter
+        assertThat(proxyMapCache.getAppId("new-host"), is("new"));
+    }
+
+    @Test
+    public void should_lookup_unknown_hosts_once_until_saved() {
+        //GIVEN an unknown host looked up twice
+        assertThat(proxyMapCache.getAppId("unknown-host"), is(nullValue()));
+        assertThat(proxyMapCache.getAppId("unknown-host"), is(nullValue()));
+        //THEN the database is only read once
+        verify(proxyMap, times(1)).findOne("unknown-host");
+        //WHEN the host is put to sleep by another instance
+        when(proxyMap.findOne("unknown-host")).thenReturn(ProxyMapEntry.builder().host("unknown-host").appId("new")
+                .build());
+        proxyMapCache.onChange(ChangeEvent.builder()
+                .entityType(EntityType.PROXY_MAP_ENTRY)
+                .entityId("unknown-host")
+                .operation(Operation.SAVE)
+                .build());
+        //THEN it is found
+        assertThat(proxyMapCache.getAppId("unknown-host"), is("new"));
+    }
+
+    @Test
+    public void should_reload_hosts_changed_by_other_processes() {
+        //GIVEN the host was woken up by another instance
+        proxyMapCache.onChange(ChangeEvent.builder()
+                .entityType(EntityType.PROXY_MAP_ENTRY)
+                .entityId(HOST)
+                .operation(Operation.DELETE)
+                .build());
+        //WHEN it is looked up
+        //THEN it is read from database
+        assertThat(proxyMapCache.getAppId(HOST), is(nullValue()));
+        verify(proxyMap, times(1)).findOne(HOST);
+    }
+
+}
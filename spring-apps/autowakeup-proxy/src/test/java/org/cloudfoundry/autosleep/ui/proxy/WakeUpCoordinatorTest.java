@@ -0,0 +1,144 @@
+/*
+ * Autosleep
+ * Copyright (C) 2016 Orange
+ * Authors: Benjamin Einaudi   benjamin.einaudi@orange.com
+ *          Arnaud Ruffin      arnaud.ruffin@orange.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.autosleep.ui.proxy;
+
+import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
+import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
+import org.cloudfoundry.autosleep.util.TimeManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WakeUpCoordinatorTest {
+
+    private static final String APP_ID = "test-app-id";
+
+    @Mock
+    private CloudFoundryApiService cfApi;
+
+    @Mock
+    private TimeManager timeManager;
+
+    @InjectMocks
+    private WakeUpCoordinator wakeUpCoordinator;
+
+    @Before
+    public void init() {
+        ReflectionTestUtils.setField(wakeUpCoordinator, "timeout", "PT5M");
+    }
+
+    private Number getMetric(String name) {
+        return wakeUpCoordinator.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+
+    @Test
+    public void should_fail_the_wake_up_on_remote_api_error() throws Exception {
+        //GIVEN that the application cannot be started
+        doThrow(new CloudFoundryException(null)).when(cfApi).startApplication(APP_ID);
+        //WHEN a request wakes it up
+        CompletableFuture<Void> wakeUp = wakeUpCoordinator.wakeUp(APP_ID);
+        //THEN the wake-up fails and is forgotten
+        assertThat(wakeUp.isCompletedExceptionally(), is(true));
+        assertThat(wakeUpCoordinator.join(APP_ID), is(nullValue()));
+        assertThat(getMetric("autowakeup.wakeup.failures").longValue(), is(1L));
+    }
+
+    @Test
+    public void should_fail_the_wake_up_when_application_does_not_start_in_time() throws Exception {
+        when(cfApi.isAppRunning(APP_ID)).thenReturn(false);
+        //GIVEN that wake-ups time out immediately
+        ReflectionTestUtils.setField(wakeUpCoordinator, "timeout", "PT0S");
+        //and that a request woke the application up
+        CompletableFuture<Void> wakeUp = wakeUpCoordinator.wakeUp(APP_ID);
+        //WHEN the application is still not running once the timeout elapsed
+        ArgumentCaptor<Runnable> poller = ArgumentCaptor.forClass(Runnable.class);
+        verify(timeManager, times(1)).schedule(poller.capture(), any(Duration.class));
+        Thread.sleep(1);
+        poller.getValue().run();
+        //THEN the wake-up fails with a timeout and is forgotten
+        assertThat(wakeUp.isCompletedExceptionally(), is(true));
+        try {
+            wakeUp.getNow(null);
+            fail("wake-up should have failed");
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), is(instanceOf(TimeoutException.class)));
+        }
+        assertThat(wakeUpCoordinator.join(APP_ID), is(nullValue()));
+        assertThat(getMetric("autowakeup.wakeup.timeouts").longValue(), is(1L));
+        //and polling stops
+        verify(timeManager, times(1)).schedule(any(Runnable.class), any(Duration.class));
+    }
+
+    @Test
+    public void should_start_and_poll_once_for_concurrent_requests() throws Exception {
+        when(cfApi.isAppRunning(APP_ID)).thenReturn(false).thenReturn(true);
+        //GIVEN that a request woke the application up
+        CompletableFuture<Void> wakeUp = wakeUpCoordinator.wakeUp(APP_ID);
+        //WHEN other requests target it while it starts
+        CompletableFuture<Void> joined = wakeUpCoordinator.join(APP_ID);
+        CompletableFuture<Void> woken = wakeUpCoordinator.wakeUp(APP_ID);
+        //THEN they share the same wake-up
+        assertThat(joined, is(sameInstance(wakeUp)));
+        assertThat(woken, is(sameInstance(wakeUp)));
+        verify(cfApi, times(1)).startApplication(APP_ID);
+        assertThat(getMetric("autowakeup.wakeup.coalesced").longValue(), is(2L));
+        assertThat(getMetric("autowakeup.wakeup.pending").longValue(), is(1L));
+
+        //and a single poller completes it once the application is running
+        ArgumentCaptor<Runnable> poller = ArgumentCaptor.forClass(Runnable.class);
+        verify(timeManager, times(1)).schedule(poller.capture(), any(Duration.class));
+        poller.getValue().run();
+        assertThat(wakeUp.isDone(), is(false));
+        verify(timeManager, times(2)).schedule(poller.capture(), any(Duration.class));
+        poller.getValue().run();
+        assertThat(wakeUp.isDone(), is(true));
+        assertThat(wakeUpCoordinator.join(APP_ID), is(nullValue()));
+        verify(cfApi, times(2)).isAppRunning(APP_ID);
+    }
+
+}
@@ -21,6 +21,9 @@ package org.cloudfoundry.autosleep.ui.proxy;
 
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryApiService;
 import org.cloudfoundry.autosleep.access.cloudfoundry.CloudFoundryException;
+import org.cloudfoundry.autosleep.access.dao.feed.ChangeFeed;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.EntityType;
+import org.cloudfoundry.autosleep.access.dao.model.ChangeEvent.Operation;
 import org.cloudfoundry.autosleep.access.dao.model.ProxyMapEntry;
 import org.cloudfoundry.autosleep.access.dao.repositories.ProxyMapEntryRepository;
 import org.cloudfoundry.autosleep.config.Config;
@@ -33,22 +36,37 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.ComponentScan.Filter;
-import org.springframework.http.HttpHeaders;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.RequestEntity;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.stereotype.Controller;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
-import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.cloudfoundry.autosleep.ui.proxy.WildcardProxy.HEADER_FORWARDED;
 import static org.cloudfoundry.autosleep.ui.proxy.WildcardProxy.HEADER_HOST;
 import static org.cloudfoundry.autosleep.ui.proxy.WildcardProxy.HEADER_PROTOCOL;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -58,9 +76,11 @@ import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
-import static org.springframework.http.MediaType.TEXT_PLAIN;
+import static org.springframework.http.MediaType.TEXT_PLAIN_VALUE;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
-import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -78,14 +98,28 @@ public class WildcardProxyTest {
             return mock(CloudFoundryApiService.class);
         }
 
+        @Bean
+        ChangeFeed changeFeed() {
+            return mock(ChangeFeed.class);
+        }
+
         @Bean
         ProxyMapEntryRepository proxyMap() {
-            return mock(ProxyMapEntryRepository.class);
+            ProxyMapEntryRepository proxyMap = mock(ProxyMapEntryRepository.class);
+            when(proxyMap.findAll(any(Pageable.class)))
+                    .thenReturn(new PageImpl<>(Collections.<ProxyMapEntry>emptyList()));
+            when(proxyMap.findAllHosts()).thenReturn(Collections.singletonList(HOST_TEST_VALUE));
+            return proxyMap;
         }
 
         @Bean
-        RestTemplate restTemplate() {
-            return mock(RestTemplate.class);
+        static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+
+        @Bean
+        ClientHttpRequestFactory requestFactory() {
+            return mock(ClientHttpRequestFactory.class);
         }
 
         @Bean
@@ -103,9 +137,14 @@ public class WildcardProxyTest {
 
     private static final String PROTOCOL_TEST_VALUE = "http";
 
+    private static final String UPLOAD_VALUE = "test-upload";
+
     @Autowired
     private CloudFoundryApiService cfApi;
 
+    @Autowired
+    private ChangeFeed changeFeed;
+
     private MockMvc mockMvc;
 
     @Autowired
@@ -115,28 +154,48 @@ public class WildcardProxyTest {
     private ProxyMapEntryRepository proxyMap;
 
     @Autowired
-    private RestTemplate restTemplate;
+    private ProxyMapCache proxyMapCache;
+
+    private MockClientHttpRequest outgoing;
+
+    @Autowired
+    private ClientHttpRequestFactory requestFactory;
 
     @Autowired
     private TimeManager timeManager;
 
     @Before
     public void init() {
-        reset(timeManager, proxyMap, cfApi, restTemplate);
+        reset(timeManager, proxyMap, cfApi, changeFeed, requestFactory);
+        proxyMapCache.clear();
         this.mockMvc = MockMvcBuilders.standaloneSetup(proxy)
+                .setCustomReturnValueHandlers(new ForwardedResponseReturnValueHandler())
                 .build();
     }
 
-    private void mockRemoteExchange(HttpStatus statusCode, MediaType contentType, String body) {
-        when(restTemplate.exchange(any(RequestEntity.class), eq(byte[].class)))
-                .then(invocation -> {
-                    RequestEntity<?> requestEntity = (RequestEntity) invocation.getArguments()[0];
-                    assertTrue(requestEntity.getUrl().toString()
-                            .startsWith(PROTOCOL_TEST_VALUE + "://" + HOST_TEST_VALUE));
-                    HttpHeaders headers = new HttpHeaders();
-                    headers.setContentType(contentType);
+    private void mockImmediateScheduling() {
+        when(timeManager.schedule(any(Runnable.class), any(Duration.class))).then(invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        });
+    }
+
+    private MockHttpServletResponse getStreamedResponse(MvcResult result) {
+        //wait for the body to be written
+        result.getAsyncResult();
+        return result.getResponse();
+    }
 
-                    return new ResponseEntity<>(body, headers, statusCode);
+    private void mockRemoteExchange(HttpStatus statusCode, MediaType contentType, String body) throws IOException {
+        when(requestFactory.createRequest(any(URI.class), any(HttpMethod.class)))
+                .then(invocation -> {
+                    URI uri = (URI) invocation.getArguments()[0];
+                    assertTrue(uri.toString().startsWith(PROTOCOL_TEST_VALUE + "://" + HOST_TEST_VALUE));
+                    MockClientHttpResponse response = new MockClientHttpResponse(body.getBytes(), statusCode);
+                    response.getHeaders().setContentType(contentType);
+                    outgoing = new MockClientHttpRequest((HttpMethod) invocation.getArguments()[1], uri);
+                    outgoing.setResponse(response);
+                    return outgoing;
                 });
     }
 
@@ -152,25 +211,89 @@ public class WildcardProxyTest {
         when(cfApi.isAppRunning(APP_ID)).thenReturn(true);
         //the return body will return the expected body
         mockRemoteExchange(HttpStatus.OK, MediaType.TEXT_PLAIN, BODY_VALUE);
+        when(proxyMap.deleteIfExists(HOST_TEST_VALUE)).thenReturn(1);
 
         //WHEN an incoming message target this same route
-        this.mockMvc
+        MvcResult result = this.mockMvc
                 .perform(get("http://localhost/anything")
                         .header(HEADER_HOST, HOST_TEST_VALUE)
                         .header(HEADER_PROTOCOL, PROTOCOL_TEST_VALUE))
-                //then status code is ok
-                .andExpect(status().isOk())
-                //and the content type remains the same
-                .andExpect(content().contentType(TEXT_PLAIN))
-                // and the body is correct
-                .andExpect(content().string(BODY_VALUE));
+                //then the body is streamed
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockHttpServletResponse response = getStreamedResponse(result);
+        //and status code is ok
+        assertThat(response.getStatus(), is(HttpStatus.OK.value()));
+        //and the content type remains the same
+        assertThat(response.getContentType(), is(TEXT_PLAIN_VALUE));
+        // and the body is correct
+        assertThat(response.getContentAsString(), is(BODY_VALUE));
 
         // and start was not called
         verify(cfApi, never()).startApplication(APP_ID);
         // and we never wait for anything
-        verify(timeManager, never()).sleep(Config.PERIOD_BETWEEN_STATE_CHECKS_DURING_RESTART);
+        verify(timeManager, never()).schedule(any(Runnable.class), any(Duration.class));
         //and we removed the application from repository
         verify(proxyMap, times(1)).deleteIfExists(HOST_TEST_VALUE);
+        //and told the other instances
+        verify(changeFeed, times(1)).publish(EntityType.PROXY_MAP_ENTRY, HOST_TEST_VALUE, Operation.DELETE);
+    }
+
+    @Test
+    public void should_not_publish_deletion_of_an_entry_already_removed() throws Exception {
+        //GIVEN that the application is mapped, but its entry was already removed by another instance
+        when(proxyMap.findOne(HOST_TEST_VALUE)).thenReturn(ProxyMapEntry.builder()
+                .appId(APP_ID)
+                .host(HOST_TEST_VALUE)
+                .build());
+        when(cfApi.getApplicationState(APP_ID)).thenReturn(CloudFoundryAppState.STARTED);
+        when(cfApi.isAppRunning(APP_ID)).thenReturn(true);
+        mockRemoteExchange(HttpStatus.OK, MediaType.TEXT_PLAIN, BODY_VALUE);
+        when(proxyMap.deleteIfExists(HOST_TEST_VALUE)).thenReturn(0);
+
+        //WHEN an incoming message target this route
+        MvcResult result = this.mockMvc
+                .perform(get("http://localhost/anything")
+                        .header(HEADER_HOST, HOST_TEST_VALUE)
+                        .header(HEADER_PROTOCOL, PROTOCOL_TEST_VALUE))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        getStreamedResponse(result);
+
+        //THEN it is forwarded without publishing any deletion
+        verify(proxyMap, times(1)).deleteIfExists(HOST_TEST_VALUE);
+        verify(changeFeed, never()).publish(any(EntityType.class), any(String.class), any(Operation.class));
+    }
+
+    @Test
+    public void should_forward_request_body_and_response_status() throws Exception {
+        //GIVEN that we have a map route in database (for started app)
+        when(proxyMap.findOne(HOST_TEST_VALUE)).thenReturn(ProxyMapEntry.builder()
+                .appId(APP_ID)
+                .host(HOST_TEST_VALUE)
+                .build());
+        when(cfApi.getApplicationState(APP_ID)).thenReturn(CloudFoundryAppState.STARTED);
+        when(cfApi.isAppRunning(APP_ID)).thenReturn(true);
+        //and that the application rejects the upload
+        mockRemoteExchange(HttpStatus.NOT_FOUND, MediaType.TEXT_PLAIN, BODY_VALUE);
+
+        //WHEN an upload target this same route
+        MvcResult result = this.mockMvc
+                .perform(post("http://localhost/anything")
+                        .header(HEADER_HOST, HOST_TEST_VALUE)
+                        .header(HEADER_PROTOCOL, PROTOCOL_TEST_VALUE)
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content(UPLOAD_VALUE))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockHttpServletResponse response = getStreamedResponse(result);
+
+        //THEN the body was forwarded
+        assertThat(outgoing.getMethod(), is(HttpMethod.POST));
+        assertThat(outgoing.getBodyAsString(), is(UPLOAD_VALUE));
+        //and the status of the application is returned
+        assertThat(response.getStatus(), is(HttpStatus.NOT_FOUND.value()));
+        assertThat(response.getContentAsString(), is(BODY_VALUE));
     }
 
     @Test
@@ -260,24 +383,77 @@ public class WildcardProxyTest {
                 .thenReturn(true);
         //the return body will return the expected body
         mockRemoteExchange(HttpStatus.OK, MediaType.TEXT_PLAIN, BODY_VALUE);
+        mockImmediateScheduling();
 
         //WHEN an incoming message target this same route
-        this.mockMvc
+        MvcResult result = this.mockMvc
                 .perform(get("http://localhost/anything")
                         .header(HEADER_HOST, HOST_TEST_VALUE)
                         .header(HEADER_PROTOCOL, PROTOCOL_TEST_VALUE))
-                //then status code is ok
-                .andExpect(status().isOk())
-                //and the content type remains the same
-                .andExpect(content().contentType(TEXT_PLAIN))
-                // and the body is correct
-                .andExpect(content().string(BODY_VALUE));
+                //then the body is streamed
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MockHttpServletResponse response = getStreamedResponse(result);
+        //and status code is ok
+        assertThat(response.getStatus(), is(HttpStatus.OK.value()));
+        //and the content type remains the same
+        assertThat(response.getContentType(), is(TEXT_PLAIN_VALUE));
+        // and the body is correct
+        assertThat(response.getContentAsString(), is(BODY_VALUE));
 
         // and start was called
         verify(cfApi, times(1)).startApplication(APP_ID);
-        verify(timeManager, times(3)).sleep(Config.PERIOD_BETWEEN_STATE_CHECKS_DURING_RESTART);
+        // and its state was polled until running
+        verify(timeManager, times(3)).schedule(any(Runnable.class),
+                eq(Config.PERIOD_BETWEEN_STATE_CHECKS_DURING_RESTART));
         //and we removed the application from repository
         verify(proxyMap, times(1)).deleteIfExists(HOST_TEST_VALUE);
     }
 
+    @Test
+    public void should_start_a_stopped_application_without_blocking_in_async_mode() throws Exception {
+        //GIVEN that async mode is enabled
+        ExecutorService forwarder = Executors.newSingleThreadExecutor();
+        ReflectionTestUtils.setField(proxy, "asyncEnabled", true);
+        ReflectionTestUtils.setField(proxy, "forwarder", forwarder);
+        //and that scheduled state checks are run immediately
+        mockImmediateScheduling();
+        //and that we have a map route in database (for stopped app)
+        when(proxyMap.findOne(HOST_TEST_VALUE)).thenReturn(ProxyMapEntry.builder()
+                .appId(APP_ID)
+                .host(HOST_TEST_VALUE)
+                .build());
+        when(cfApi.getApplicationState(APP_ID)).thenReturn(CloudFoundryAppState.STOPPED);
+        when(cfApi.isAppRunning(APP_ID)).thenReturn(false)
+                .thenReturn(true);
+        mockRemoteExchange(HttpStatus.OK, MediaType.TEXT_PLAIN, BODY_VALUE);
+        try {
+            //WHEN an upload target this same route
+            MvcResult result = this.mockMvc
+                    .perform(post("http://localhost/anything")
+                            .header(HEADER_HOST, HOST_TEST_VALUE)
+                            .header(HEADER_PROTOCOL, PROTOCOL_TEST_VALUE)
+                            .contentType(MediaType.TEXT_PLAIN)
+                            .content(UPLOAD_VALUE))
+                    //then the request is parked
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            //and forwarded with its body once the application is running
+            MvcResult forwarded = this.mockMvc.perform(asyncDispatch(result))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            assertThat(outgoing.getBodyAsString(), is(UPLOAD_VALUE));
+            //and the response is applied when dispatched
+            assertThat(getStreamedResponse(forwarded).getContentAsString(), is(BODY_VALUE));
+            assertThat(result.getResponse().getStatus(), is(HttpStatus.OK.value()));
+            assertThat(result.getResponse().getContentType(), is(TEXT_PLAIN_VALUE));
+
+            verify(cfApi, times(1)).startApplication(APP_ID);
+            verify(proxyMap, times(1)).deleteIfExists(HOST_TEST_VALUE);
+        } finally {
+            ReflectionTestUtils.setField(proxy, "asyncEnabled", false);
+            forwarder.shutdownNow();
+        }
+    }
+
 }